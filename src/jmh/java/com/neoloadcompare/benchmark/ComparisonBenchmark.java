@@ -0,0 +1,144 @@
+package com.neoloadcompare.benchmark;
+
+import com.neoloadcompare.ComparisonEngine;
+import com.neoloadcompare.ComparisonService;
+import com.neoloadcompare.NeoLoadClient;
+import com.neoloadcompare.TransactionValues;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Double.parseDouble;
+
+/**
+ * The comparison of already fetched values: the whole evaluation of one element, the numeric pass of
+ * {@link ComparisonEngine} on its own, the previous percentage calculation with its DecimalFormat round-trips for
+ * reference, and the rendering of the NeoLoad Web description of a failure.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ComparisonBenchmark {
+
+	private static final ComparisonEngine.Gate GATE = new ComparisonEngine.Gate(5, 0.99);
+
+	@Param({"30", "300"})
+	public int transactions;
+
+	// 1.0 passes every transaction, 1.5 fails every transaction
+	@Param({"1.0", "1.5"})
+	public double latestFactor;
+
+	private ComparisonService comparisonService;
+	private ComparisonService.TestData data;
+	private List<String[]> valuePairs;
+	private JSONObject failure;
+
+	@Setup
+	public void setup() {
+		comparisonService = new ComparisonService(null, null, new SimpleMeterRegistry(), null, null, null, false);
+		data = testData(transactions, latestFactor);
+		valuePairs = new ArrayList<>();
+		for (TransactionValues baseline : data.baselineValues().values()) {
+			valuePairs.add(new String[]{String.valueOf(baseline.avgDuration()), String.valueOf(baseline.avgDuration() * latestFactor)});
+		}
+		failure = comparisonService.evaluate(testData(transactions, 1.5), "avgDuration", "10").body();
+	}
+
+	private static ComparisonService.TestData testData(int transactions, double latestFactor) {
+		Map<String, String> elements = NeoLoadClient.parseTransactionElements(Fixtures.elements(transactions));
+		Map<String, TransactionValues> latestValues = new HashMap<>();
+		Map<String, TransactionValues> baselineValues = new HashMap<>();
+		int n = 0;
+		for (String transaction : elements.keySet()) {
+			double spread = 1 + (n++ % 7) * 0.1;
+			baselineValues.put(transaction, TransactionValues.fromJson(Fixtures.values(spread)));
+			latestValues.put(transaction, TransactionValues.fromJson(Fixtures.values(spread * latestFactor)));
+		}
+		return new ComparisonService.TestData("Performance", "workspace-id", "1200", Fixtures.testId(1200),
+				Fixtures.testId(1234), "#1234", latestValues, Map.of(), baselineValues, Map.of());
+	}
+
+	@Benchmark
+	public ComparisonService.ComparisonResult evaluate() {
+		return comparisonService.evaluate(data, "avgDuration", "10");
+	}
+
+	@Benchmark
+	public ComparisonEngine.Outcome engineCompare() {
+		return ComparisonEngine.compare(data.snapshot(), 0, 10);
+	}
+
+	@Benchmark
+	public ComparisonEngine.Outcome engineCompareSignificance() {
+		return ComparisonEngine.compare(data.snapshot(), 0, 10, GATE);
+	}
+
+	@Benchmark
+	public void checkProcentRoundTrips(Blackhole blackhole) {
+		// The arithmetic of the comparison loop before ComparisonEngine, without building any JSON
+		DecimalFormat df = new DecimalFormat("####0");
+		for (String[] pair : valuePairs) {
+			blackhole.consume(Double.parseDouble(df.format(checkProcent(pair[0], pair[1]))));
+			blackhole.consume(Double.parseDouble(df.format(parseDouble(pair[0]))));
+			blackhole.consume(Double.parseDouble(df.format(parseDouble(pair[1]))));
+		}
+	}
+
+	// The percentage calculation of the comparison loop before ComparisonEngine
+	private static double checkProcent(String BaselineResultat, String CurrentResultat) {
+		double perIncre;
+		perIncre = ((Double.parseDouble(CurrentResultat) - Double.parseDouble(BaselineResultat)) / Double.parseDouble(BaselineResultat)) * 100;
+		return perIncre;
+	}
+
+	@Benchmark
+	public String formatDescription() {
+		StringBuilder description = new StringBuilder(256);
+		ComparisonService.appendDescription(description, failure, "transactions");
+		return description.toString();
+	}
+
+	@Benchmark
+	public String formatDescriptionWithReplace() {
+		// The description rendering before the single pass, three chained replace calls over the whole text
+		StringBuilder result = new StringBuilder();
+		for (String key : failure.keySet()) {
+			if (!key.equals("transactions")) {
+				result.append("\"").append(key).append("\":\"").append(failure.get(key)).append("\"\n");
+			}
+		}
+		JSONArray jsonArray = failure.getJSONArray("transactions");
+		for (int i = 0; i < jsonArray.length(); i++) {
+			JSONObject arrayObject = jsonArray.getJSONObject(i);
+			result.append("\n");
+			for (String arrayKeyItem : arrayObject.keySet()) {
+				result.append("\"").append(arrayKeyItem).append("\":\"").append(arrayObject.get(arrayKeyItem)).append("\"\n");
+			}
+			result.append("\n\n");
+		}
+		return result.toString().replace("\"", "").replace(".", " : ").replace(": 0", "");
+	}
+}
@@ -0,0 +1,101 @@
+package com.neoloadcompare.benchmark;
+
+import com.neoloadcompare.NeoLoadCompareApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /NeoLoadCompare against the application running on a random port, talking to {@link StubNeoLoadServer}.
+ * With cache=cold the caches, baseline index and snapshots are cleared before every call, so every call pages through the test
+ * results down to the baseline and fetches all elements and values again. Run with -t to add concurrent callers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+	@Param({"warm", "cold"})
+	public String cache;
+
+	@Param({"30"})
+	public int transactions;
+
+	@Param({"30000"})
+	public int testResults;
+
+	// Position of the baseline in the test result list, newest first
+	@Param({"10", "5000"})
+	public int baselinePosition;
+
+	private StubNeoLoadServer stub;
+	private ConfigurableApplicationContext context;
+	private HttpClient httpClient;
+	private URI compareUri;
+	private URI cacheUri;
+
+	@Setup
+	public void setup() throws IOException {
+		stub = new StubNeoLoadServer(testResults, transactions, 1.0);
+		context = new SpringApplicationBuilder(NeoLoadCompareApplication.class)
+				.properties("Server=" + stub.getUrl(),
+						"Token=benchmark",
+						"server.port=0",
+						"neoload.data-dir=" + Files.createTempDirectory("neoloadcompare-benchmark"),
+						"spring.main.banner-mode=off",
+						"logging.level.root=WARN")
+				.run();
+		String baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+		// The fixture names tests #n, and the comparison looks up "#" + baseline
+		int baseline = Fixtures.baselineNumber(testResults, baselinePosition);
+		compareUri = URI.create(baseUrl + "/NeoLoadCompare?workspace=Performance&scenario=" + Fixtures.SCENARIO
+				+ "&baseline=" + baseline + "&percentage=10&element=avgDuration");
+		cacheUri = URI.create(baseUrl + "/cache");
+		httpClient = HttpClient.newHttpClient();
+	}
+
+	@Setup(Level.Invocation)
+	public void clearCache() throws IOException, InterruptedException {
+		if (cache.equals("cold")) {
+			httpClient.send(HttpRequest.newBuilder(cacheUri).DELETE().build(), HttpResponse.BodyHandlers.discarding());
+		}
+	}
+
+	@Benchmark
+	public String compare() throws IOException, InterruptedException {
+		HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(compareUri).GET().build(), HttpResponse.BodyHandlers.ofString());
+		if (response.statusCode() != 200) {
+			throw new IllegalStateException("HTTP " + response.statusCode() + ": " + response.body());
+		}
+		return response.body();
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+		stub.close();
+	}
+}
@@ -0,0 +1,122 @@
+package com.neoloadcompare.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recorded NeoLoad Web responses from src/jmh/resources/fixtures, and larger payloads generated from them.
+ */
+public final class Fixtures {
+
+	public static final String SCENARIO = "nightly";
+	public static final String OTHER_SCENARIO = "smoke";
+
+	private Fixtures() {
+	}
+
+	public static String read(String name) {
+		try (InputStream inputStream = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+			if (inputStream == null) {
+				throw new IllegalArgumentException("Missing fixture " + name);
+			}
+			return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Test results sorted by -startDate like the real list, built from the recorded test-result.json.
+	 * Entry n is named #(count - n), the latest entry and four of every five belong to SCENARIO and the rest to
+	 * OTHER_SCENARIO.
+	 *
+	 * @return one JSON object per entry, already serialized
+	 */
+	public static List<String> testResults(int count) {
+		JSONObject template = new JSONObject(read("test-result.json"));
+		long startDate = template.getLong("startDate");
+		List<String> entries = new ArrayList<>(count);
+		for (int n = 0; n < count; n++) {
+			JSONObject entry = new JSONObject(template, JSONObject.getNames(template));
+			int number = count - n;
+			entry.put("id", testId(number));
+			entry.put("name", "#" + number);
+			entry.put("scenario", n % 5 == 4 ? OTHER_SCENARIO : SCENARIO);
+			entry.put("startDate", startDate - n * 3_600_000L);
+			entry.put("endDate", startDate - n * 3_600_000L + template.getLong("duration"));
+			entries.add(entry.toString());
+		}
+		return entries;
+	}
+
+	/**
+	 * @return the number of the first SCENARIO test at or after position, newest first
+	 */
+	public static int baselineNumber(int count, int position) {
+		while (position % 5 == 4) {
+			position++;
+		}
+		return count - position;
+	}
+
+	public static String testId(int number) {
+		return String.format("00000000-0000-0000-0000-%012d", number);
+	}
+
+	public static String toArray(List<String> entries, int offset, int limit) {
+		StringBuilder json = new StringBuilder("[");
+		for (int n = offset; n < Math.min(entries.size(), offset + limit); n++) {
+			if (n > offset) {
+				json.append(',');
+			}
+			json.append(entries.get(n));
+		}
+		return json.append(']').toString();
+	}
+
+	/**
+	 * The recorded elements.json with its Actions transactions repeated until there are at least the given number.
+	 */
+	public static String elements(int transactions) {
+		JSONArray recorded = new JSONArray(read("elements.json"));
+		JSONArray elements = new JSONArray();
+		elements.put(recorded.getJSONObject(0));
+		int added = 0;
+		for (int copy = 0; added < transactions; copy++) {
+			for (int n = 1; n < recorded.length(); n++) {
+				JSONObject element = new JSONObject(recorded.getJSONObject(n), JSONObject.getNames(recorded.getJSONObject(n)));
+				boolean action = element.getJSONArray("path").toString().contains("\"Actions\"");
+				if (copy > 0) {
+					if (!action) {
+						continue;
+					}
+					element.put("id", element.getString("id").substring(0, 24) + String.format("%012d", copy * 1000 + n));
+					element.put("name", element.getString("name") + " " + copy);
+				}
+				elements.put(element);
+				if (action) {
+					added++;
+				}
+			}
+		}
+		return elements.toString();
+	}
+
+	/**
+	 * The recorded values.json with every duration multiplied by factor.
+	 */
+	public static String values(double factor) {
+		JSONObject values = new JSONObject(read("values.json"));
+		for (String key : new String[]{"avgDuration", "percentile50", "percentile90", "percentile95", "percentile99", "minDuration", "maxDuration"}) {
+			values.put(key, values.getDouble(key) * factor);
+		}
+		return values.toString();
+	}
+}
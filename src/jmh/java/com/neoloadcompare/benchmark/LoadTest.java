@@ -0,0 +1,317 @@
+package com.neoloadcompare.benchmark;
+
+import com.neoloadcompare.NeoLoadCompareApplication;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of GET /NeoLoadCompare: the application runs on a random port against {@link StubNeoLoadServer}, and a
+ * closed loop of concurrent callers sends comparisons for a fixed time per (transactions, concurrency) combination.
+ * Reports throughput, latency percentiles, heap and platform threads, and compares them with a baseline file.
+ * <p>
+ * Everything runs in this JVM, so heap and threads include the stub and the callers. Both are small and constant next to
+ * the application, which makes the numbers comparable between runs but not absolute. Each caller uses its own
+ * percentage, so the comparisons are distinct and not collapsed into one unless collapse=true.
+ * <p>
+ * Arguments are key=value, see {@link #DEFAULTS}.
+ */
+public final class LoadTest {
+
+	private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+	static {
+		DEFAULTS.put("transactions", "30,300");
+		DEFAULTS.put("concurrency", "1,8,32");
+		DEFAULTS.put("testResults", "30000");
+		// Position of the baseline in the test result list, newest first
+		DEFAULTS.put("baselinePosition", "10");
+		DEFAULTS.put("upstreamLatencyMs", "0");
+		DEFAULTS.put("errorRate", "0");
+		// warm: caches are kept between calls, cold: every call is preceded by DELETE /cache
+		DEFAULTS.put("cache", "warm");
+		DEFAULTS.put("collapse", "false");
+		DEFAULTS.put("warmupSeconds", "5");
+		DEFAULTS.put("durationSeconds", "15");
+		DEFAULTS.put("output", "target/jmh/loadtest-result.json");
+		DEFAULTS.put("baseline", "src/jmh/loadtest-baseline.json");
+	}
+
+	private record Calls(long[] latencies, int count, int errors) {
+	}
+
+	private final Map<String, String> options;
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+	private LoadTest(Map<String, String> options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+				throw new IllegalArgumentException("Unknown argument " + arg + ", expected key=value with key one of " + DEFAULTS.keySet());
+			}
+			options.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+		new LoadTest(options).run();
+		// The HTTP client and Spring leave non-daemon threads behind
+		System.exit(0);
+	}
+
+	private void run() throws Exception {
+		JSONArray results = new JSONArray();
+		for (int transactions : ints("transactions")) {
+			try (StubNeoLoadServer stub = new StubNeoLoadServer(integer("testResults"), transactions, 1.0,
+					Long.parseLong(options.get("upstreamLatencyMs")), Double.parseDouble(options.get("errorRate")))) {
+				ConfigurableApplicationContext context = new SpringApplicationBuilder(NeoLoadCompareApplication.class)
+						.properties("Server=" + stub.getUrl(),
+								"Token=loadtest",
+								"server.port=0",
+								"neoload.data-dir=" + Files.createTempDirectory("neoloadcompare-loadtest"),
+								"spring.main.banner-mode=off",
+								"logging.level.root=WARN")
+						.run();
+				try {
+					String baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+					for (int concurrency : ints("concurrency")) {
+						results.put(measure(stub, baseUrl, transactions, concurrency));
+					}
+				} finally {
+					context.close();
+				}
+			}
+		}
+
+		JSONObject report = new JSONObject();
+		report.put("environment", environment());
+		report.put("settings", new JSONObject(options));
+		report.put("results", results);
+		Path output = Path.of(options.get("output"));
+		if (output.getParent() != null) {
+			Files.createDirectories(output.getParent());
+		}
+		Files.writeString(output, report.toString(2), StandardCharsets.UTF_8);
+		System.out.println("Results written to " + output);
+		compareWithBaseline(results, Path.of(options.get("baseline")));
+	}
+
+	private JSONObject measure(StubNeoLoadServer stub, String baseUrl, int transactions, int concurrency) throws Exception {
+		int baseline = Fixtures.baselineNumber(integer("testResults"), integer("baselinePosition"));
+		List<URI> uris = new ArrayList<>();
+		for (int caller = 0; caller < concurrency; caller++) {
+			int percentage = Boolean.parseBoolean(options.get("collapse")) ? 10 : 10 + caller;
+			uris.add(URI.create(baseUrl + "/NeoLoadCompare?workspace=Performance&scenario=" + Fixtures.SCENARIO
+					+ "&baseline=" + baseline + "&percentage=" + percentage + "&element=avgDuration"));
+		}
+		URI cacheUri = URI.create(baseUrl + "/cache");
+		boolean cold = options.get("cache").equals("cold");
+
+		// Warm-up, not recorded
+		callFor(uris, cacheUri, cold, integer("warmupSeconds"));
+
+		System.gc();
+		long heapBefore = memory.getHeapMemoryUsage().getUsed();
+		threads.resetPeakThreadCount();
+		long requestsBefore = stub.getRequests();
+		long errorsBefore = stub.getInjectedErrors();
+		AtomicLong heapPeak = new AtomicLong();
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+		sampler.scheduleAtFixedRate(() -> heapPeak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max), 0, 50, TimeUnit.MILLISECONDS);
+		long started = System.nanoTime();
+		List<Calls> calls;
+		try {
+			calls = callFor(uris, cacheUri, cold, integer("durationSeconds"));
+		} finally {
+			sampler.shutdownNow();
+		}
+		double seconds = (System.nanoTime() - started) / 1e9;
+		int peakThreads = threads.getPeakThreadCount();
+		System.gc();
+		long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+		int count = calls.stream().mapToInt(Calls::count).sum();
+		long[] latencies = new long[count];
+		int offset = 0;
+		int errors = 0;
+		for (Calls callerCalls : calls) {
+			System.arraycopy(callerCalls.latencies(), 0, latencies, offset, callerCalls.count());
+			offset += callerCalls.count();
+			errors += callerCalls.errors();
+		}
+		Arrays.sort(latencies);
+
+		JSONObject result = new JSONObject();
+		result.put("transactions", transactions);
+		result.put("concurrency", concurrency);
+		result.put("cache", options.get("cache"));
+		result.put("upstreamLatencyMs", Long.parseLong(options.get("upstreamLatencyMs")));
+		result.put("errorRate", Double.parseDouble(options.get("errorRate")));
+		result.put("comparisons", count);
+		result.put("errors", errors);
+		result.put("throughputPerSecond", round(count / seconds));
+		JSONObject latency = new JSONObject();
+		latency.put("p50", millis(percentile(latencies, 0.50)));
+		latency.put("p90", millis(percentile(latencies, 0.90)));
+		latency.put("p99", millis(percentile(latencies, 0.99)));
+		latency.put("max", millis(count == 0 ? 0 : latencies[count - 1]));
+		result.put("latencyMs", latency);
+		JSONObject heap = new JSONObject();
+		heap.put("beforeMb", megabytes(heapBefore));
+		heap.put("peakMb", megabytes(heapPeak.get()));
+		heap.put("afterGcMb", megabytes(heapAfter));
+		result.put("heap", heap);
+		result.put("peakPlatformThreads", peakThreads);
+		result.put("upstreamRequestsPerComparison", count == 0 ? 0 : round((stub.getRequests() - requestsBefore) / (double) count));
+		result.put("upstreamInjectedErrors", stub.getInjectedErrors() - errorsBefore);
+		System.out.printf("transactions=%d concurrency=%d: %.1f comparisons/s, p50 %.2f ms, p99 %.2f ms, heap peak %.0f MB, %d platform threads, %d errors%n",
+				transactions, concurrency, count / seconds, latency.getDouble("p50"), latency.getDouble("p99"), heap.getDouble("peakMb"), peakThreads, errors);
+		return result;
+	}
+
+	/**
+	 * One virtual thread per URI calls it in a closed loop until the time is up.
+	 */
+	private List<Calls> callFor(List<URI> uris, URI cacheUri, boolean cold, int seconds) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		List<Future<Calls>> futures = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (URI uri : uris) {
+				futures.add(executor.submit(() -> callUntil(uri, cacheUri, cold, deadline)));
+			}
+		}
+		List<Calls> calls = new ArrayList<>();
+		for (Future<Calls> future : futures) {
+			calls.add(future.get());
+		}
+		return calls;
+	}
+
+	private Calls callUntil(URI uri, URI cacheUri, boolean cold, long deadline) throws IOException, InterruptedException {
+		long[] latencies = new long[1024];
+		int count = 0;
+		int errors = 0;
+		HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+		HttpRequest clear = HttpRequest.newBuilder(cacheUri).DELETE().build();
+		while (System.nanoTime() < deadline) {
+			if (cold) {
+				httpClient.send(clear, HttpResponse.BodyHandlers.discarding());
+			}
+			long started = System.nanoTime();
+			HttpResponse<Void> response;
+			try {
+				response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+			} catch (IOException e) {
+				response = null;
+			}
+			long latency = System.nanoTime() - started;
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = latency;
+			if (response == null || response.statusCode() != 200) {
+				errors++;
+			}
+		}
+		return new Calls(latencies, count, errors);
+	}
+
+	private void compareWithBaseline(JSONArray results, Path baselineFile) throws IOException {
+		if (!Files.exists(baselineFile)) {
+			System.out.println("No baseline " + baselineFile + ", copy the results there to create one");
+			return;
+		}
+		JSONArray baselineResults = new JSONObject(Files.readString(baselineFile, StandardCharsets.UTF_8)).getJSONArray("results");
+		for (int n = 0; n < results.length(); n++) {
+			JSONObject result = results.getJSONObject(n);
+			JSONObject baseline = find(baselineResults, result);
+			if (baseline == null) {
+				System.out.println(key(result) + ": not in the baseline");
+				continue;
+			}
+			System.out.printf("%s: throughput %+.0f%%, p99 %+.0f%% against the baseline%n", key(result),
+					change(baseline.getDouble("throughputPerSecond"), result.getDouble("throughputPerSecond")),
+					change(baseline.getJSONObject("latencyMs").getDouble("p99"), result.getJSONObject("latencyMs").getDouble("p99")));
+		}
+	}
+
+	private static JSONObject find(JSONArray baselineResults, JSONObject result) {
+		for (int n = 0; n < baselineResults.length(); n++) {
+			if (key(baselineResults.getJSONObject(n)).equals(key(result))) {
+				return baselineResults.getJSONObject(n);
+			}
+		}
+		return null;
+	}
+
+	private static String key(JSONObject result) {
+		return "transactions=" + result.getInt("transactions") + " concurrency=" + result.getInt("concurrency") + " cache=" + result.getString("cache")
+				+ " upstreamLatencyMs=" + result.optLong("upstreamLatencyMs") + " errorRate=" + result.getDouble("errorRate");
+	}
+
+	private JSONObject environment() {
+		JSONObject environment = new JSONObject();
+		environment.put("java", System.getProperty("java.version"));
+		environment.put("processors", Runtime.getRuntime().availableProcessors());
+		environment.put("maxHeapMb", megabytes(Runtime.getRuntime().maxMemory()));
+		environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+		return environment;
+	}
+
+	private int[] ints(String option) {
+		return Arrays.stream(options.get(option).split(",")).mapToInt(value -> Integer.parseInt(value.trim())).toArray();
+	}
+
+	private int integer(String option) {
+		return Integer.parseInt(options.get(option));
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+	}
+
+	private static double change(double baseline, double value) {
+		return (value - baseline) / baseline * 100;
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 10_000.0) / 100.0;
+	}
+
+	private static double megabytes(long bytes) {
+		return Math.round(bytes / 1024.0 / 1024.0 * 10) / 10.0;
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 10) / 10.0;
+	}
+}
@@ -0,0 +1,136 @@
+package com.neoloadcompare.benchmark;
+
+import com.neoloadcompare.NeoLoadClient;
+import com.neoloadcompare.TestResultScanner;
+import com.neoloadcompare.TestSnapshotStore;
+import com.neoloadcompare.TransactionValues;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the NeoLoad Web responses: the transaction element list and the test result list.
+ * domTestResults is the original lookup (whole list parsed into org.json objects) and is kept as reference for
+ * streamTestResults. readSnapshot reads a whole test from its {@link TestSnapshotStore} file, parseTest parses the
+ * same test from the NeoLoad Web responses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Elements {
+
+		@Param({"30", "300"})
+		public int transactions;
+
+		String json;
+
+		@Setup
+		public void setup() {
+			json = Fixtures.elements(transactions);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class TestResults {
+
+		@Param({"30000"})
+		public int testResults;
+
+		// Position of the baseline in the list, newest first
+		@Param({"10", "29990"})
+		public int baselinePosition;
+
+		byte[] json;
+		String baselineName;
+
+		@Setup
+		public void setup() {
+			json = Fixtures.toArray(Fixtures.testResults(testResults), 0, testResults).getBytes(StandardCharsets.UTF_8);
+			baselineName = "#" + Fixtures.baselineNumber(testResults, baselinePosition);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Snapshot {
+
+		@Param({"30", "300"})
+		public int transactions;
+
+		TestSnapshotStore store;
+		String elementsJson;
+		String valuesJson;
+
+		@Setup
+		public void setup() throws IOException {
+			elementsJson = Fixtures.elements(transactions);
+			valuesJson = Fixtures.values(1.0);
+			Map<String, String> elements = NeoLoadClient.parseTransactionElements(elementsJson);
+			Map<String, TransactionValues> values = new HashMap<>();
+			for (String transaction : elements.keySet()) {
+				values.put(transaction, TransactionValues.fromJson(valuesJson));
+			}
+			store = new TestSnapshotStore(Files.createTempDirectory("neoloadcompare-snapshots").toString(), true, 64);
+			store.write("workspace-id", Fixtures.testId(1), elements, values);
+		}
+	}
+
+	@Benchmark
+	public TestSnapshotStore.TestSnapshot readSnapshot(Snapshot snapshot) {
+		return snapshot.store.read("workspace-id", Fixtures.testId(1));
+	}
+
+	@Benchmark
+	public Map<String, TransactionValues> parseTest(Snapshot snapshot) {
+		Map<String, TransactionValues> values = new HashMap<>();
+		for (String transaction : NeoLoadClient.parseTransactionElements(snapshot.elementsJson).keySet()) {
+			values.put(transaction, TransactionValues.fromJson(snapshot.valuesJson));
+		}
+		return values;
+	}
+
+	@Benchmark
+	public Map<String, String> parseTransactionElements(Elements elements) {
+		return NeoLoadClient.parseTransactionElements(elements.json);
+	}
+
+	@Benchmark
+	public TestResultScanner.TestResultLookup streamTestResults(TestResults testResults) throws IOException {
+		return TestResultScanner.scan(new ByteArrayInputStream(testResults.json), testResults.baselineName, Fixtures.SCENARIO);
+	}
+
+	@Benchmark
+	public String domTestResults(TestResults testResults) {
+		JSONArray jsonArray = new JSONArray(new String(testResults.json, StandardCharsets.UTF_8));
+		String latestTestId = jsonArray.getJSONObject(0).get("id").toString();
+		for (int n = 0; n < jsonArray.length(); n++) {
+			JSONObject object = jsonArray.getJSONObject(n);
+			if (object.get("name").toString().equals(testResults.baselineName) && object.get("scenario").toString().equals(Fixtures.SCENARIO)) {
+				return latestTestId + object.get("id");
+			}
+		}
+		return latestTestId;
+	}
+}
@@ -0,0 +1,167 @@
+package com.neoloadcompare.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the NeoLoad Web v3 API serving the fixtures, so end-to-end benchmarks do not depend on a real
+ * NeoLoad Web. The latest test is #testResults, its values are the baseline values multiplied by latestFactor.
+ * PATCH requests are accepted and counted. Every request can be delayed by latencyMs, and GET requests fail with 503
+ * at errorRate, to see how the application behaves against a slow or unreliable NeoLoad Web.
+ */
+public class StubNeoLoadServer implements AutoCloseable {
+
+	static {
+		// Without it every response waits for a delayed ACK, which adds ~40 ms per call and hides everything else
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private static final Pattern TEST_RESULTS = Pattern.compile("/v3/workspaces/[^/]+/test-results");
+	private static final Pattern TEST_RESULT = Pattern.compile("/v3/workspaces/[^/]+/test-results/([^/]+)");
+	private static final Pattern ELEMENTS = Pattern.compile("/v3/workspaces/[^/]+/test-results/[^/]+/elements");
+	private static final Pattern VALUES = Pattern.compile("/v3/workspaces/[^/]+/test-results/([^/]+)/elements/[^/]+/values");
+
+	private final HttpServer server;
+	private final List<String> testResults;
+	private final Map<String, String> testResultsById = new HashMap<>();
+	private final String information = Fixtures.read("information.json");
+	private final String workspaces = Fixtures.read("workspaces.json");
+	private final String elements;
+	private final String baselineValues;
+	private final String latestValues;
+	private final String latestTestId;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong patches = new AtomicLong();
+	private final AtomicLong injectedErrors = new AtomicLong();
+	private final long latencyMs;
+	private final double errorRate;
+
+	public StubNeoLoadServer(int testResultCount, int transactions, double latestFactor) throws IOException {
+		this(testResultCount, transactions, latestFactor, 0, 0);
+	}
+
+	/**
+	 * @param latencyMs added before every response
+	 * @param errorRate share of GET requests answered with 503, between 0 and 1
+	 */
+	public StubNeoLoadServer(int testResultCount, int transactions, double latestFactor, long latencyMs, double errorRate) throws IOException {
+		this.latencyMs = latencyMs;
+		this.errorRate = errorRate;
+		testResults = Fixtures.testResults(testResultCount);
+		for (String entry : testResults) {
+			testResultsById.put(entry.substring(entry.indexOf("\"id\":\"") + 6, entry.indexOf("\"id\":\"") + 42), entry);
+		}
+		latestTestId = Fixtures.testId(testResultCount);
+		elements = Fixtures.elements(transactions);
+		baselineValues = Fixtures.values(1.0);
+		latestValues = Fixtures.values(latestFactor);
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getPatches() {
+		return patches.get();
+	}
+
+	public long getInjectedErrors() {
+		return injectedErrors.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try (exchange) {
+			exchange.getRequestBody().readAllBytes();
+			String path = exchange.getRequestURI().getPath();
+			if (latencyMs > 0) {
+				try {
+					Thread.sleep(latencyMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (errorRate > 0 && exchange.getRequestMethod().equals("GET") && ThreadLocalRandom.current().nextDouble() < errorRate) {
+				injectedErrors.incrementAndGet();
+				send(exchange, 503, "{\"message\":\"Service Unavailable\"}");
+				return;
+			}
+			if (exchange.getRequestMethod().equals("PATCH")) {
+				patches.incrementAndGet();
+				send(exchange, 200, "{}");
+				return;
+			}
+			Matcher matcher;
+			if (path.equals("/v3/information")) {
+				send(exchange, 200, information);
+			} else if (path.equals("/v3/workspaces")) {
+				send(exchange, 200, workspaces);
+			} else if (TEST_RESULTS.matcher(path).matches()) {
+				Map<String, String> query = query(exchange.getRequestURI());
+				int offset = Integer.parseInt(query.getOrDefault("offset", "0"));
+				int limit = Integer.parseInt(query.getOrDefault("limit", "50"));
+				send(exchange, 200, Fixtures.toArray(testResults, offset, limit));
+			} else if ((matcher = TEST_RESULT.matcher(path)).matches()) {
+				String testResult = testResultsById.get(matcher.group(1));
+				send(exchange, testResult == null ? 404 : 200, testResult == null ? "{\"message\":\"Not Found\"}" : testResult);
+			} else if (ELEMENTS.matcher(path).matches()) {
+				send(exchange, 200, elements);
+			} else if ((matcher = VALUES.matcher(path)).matches()) {
+				send(exchange, 200, matcher.group(1).equals(latestTestId) ? latestValues : baselineValues);
+			} else {
+				send(exchange, 404, "{\"message\":\"Not Found\"}");
+			}
+		}
+	}
+
+	private static Map<String, String> query(URI uri) {
+		Map<String, String> query = new HashMap<>();
+		if (uri.getRawQuery() != null) {
+			for (String parameter : uri.getRawQuery().split("&")) {
+				int separator = parameter.indexOf('=');
+				if (separator > 0) {
+					query.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+				}
+			}
+		}
+		return query;
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream outputStream = exchange.getResponseBody()) {
+			outputStream.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,103 @@
+package com.neoloadcompare;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of (workspace id, scenario, baseline name) -> test id, so a baseline that has been found once
+ * does not require scanning the test result list again, not even after a restart.
+ * The index is stored as JSON in neoload.data-dir and rewritten whenever an entry is added or removed.
+ */
+@Component
+public class BaselineIndex {
+
+	private record Key(String workspaceId, String scenario, String baselineName) {
+	}
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final Map<Key, String> index = new ConcurrentHashMap<>();
+	private final Path file;
+
+	public BaselineIndex(@Value("${neoload.data-dir:${user.home}/.neoloadcompare}") String dataDir) {
+		file = Path.of(dataDir, "baseline-index.json");
+		load();
+	}
+
+	public String get(String workspaceId, String scenario, String baselineName) {
+		return index.get(new Key(workspaceId, scenario, baselineName));
+	}
+
+	public void put(String workspaceId, String scenario, String baselineName, String testId) {
+		if (!testId.equals(index.put(new Key(workspaceId, scenario, baselineName), testId))) {
+			persist();
+		}
+	}
+
+	public void remove(String workspaceId, String scenario, String baselineName) {
+		if (index.remove(new Key(workspaceId, scenario, baselineName)) != null) {
+			persist();
+		}
+	}
+
+	public void removeWorkspace(String workspaceId) {
+		if (index.keySet().removeIf(key -> key.workspaceId().equals(workspaceId))) {
+			persist();
+		}
+	}
+
+	public void clear() {
+		index.clear();
+		persist();
+	}
+
+	public int size() {
+		return index.size();
+	}
+
+	private void load() {
+		if (!Files.exists(file)) {
+			return;
+		}
+		try {
+			JSONArray entries = new JSONArray(Files.readString(file, StandardCharsets.UTF_8));
+			for (int n = 0; n < entries.length(); n++) {
+				JSONObject entry = entries.getJSONObject(n);
+				index.put(new Key(entry.getString("workspaceId"), entry.getString("scenario"), entry.getString("baseline")), entry.getString("testId"));
+			}
+			colorLogger.logInfo("Loaded " + index.size() + " baselines from " + file);
+		} catch (IOException | RuntimeException e) {
+			colorLogger.logError("Ignoring unreadable baseline index " + file + ": " + e.getMessage());
+		}
+	}
+
+	private synchronized void persist() {
+		JSONArray entries = new JSONArray();
+		for (Map.Entry<Key, String> entry : index.entrySet()) {
+			JSONObject object = new JSONObject();
+			object.put("workspaceId", entry.getKey().workspaceId());
+			object.put("scenario", entry.getKey().scenario());
+			object.put("baseline", entry.getKey().baselineName());
+			object.put("testId", entry.getValue());
+			entries.put(object);
+		}
+		try {
+			Files.createDirectories(file.getParent());
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.writeString(tmp, entries.toString(), StandardCharsets.UTF_8);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// The index is an optimization, comparisons keep working without it
+			colorLogger.logError("Failed to write baseline index " + file + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.neoloadcompare;
+
+/**
+ * Circuit breaker in front of NeoLoad Web. After failureThreshold consecutive failures (I/O errors and 5xx) the circuit
+ * opens and calls fail immediately for openMillis, instead of every comparison in flight waiting for its own timeouts.
+ * After that a single trial call is let through: the circuit closes when it succeeds and opens again when it fails.
+ */
+public final class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openMillis;
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean trialInFlight;
+
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * @return whether a call may be made now; every permitted call must be followed by {@link #success} or
+	 * {@link #failure}
+	 */
+	public synchronized boolean tryAcquire() {
+		if (failureThreshold <= 0) {
+			return true;
+		}
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (System.currentTimeMillis() - openedAt < openMillis) {
+					return false;
+				}
+				state = State.HALF_OPEN;
+				trialInFlight = true;
+				return true;
+			default:
+				if (trialInFlight) {
+					return false;
+				}
+				trialInFlight = true;
+				return true;
+		}
+	}
+
+	public synchronized void success() {
+		consecutiveFailures = 0;
+		trialInFlight = false;
+		state = State.CLOSED;
+	}
+
+	public synchronized void failure() {
+		consecutiveFailures++;
+		trialInFlight = false;
+		if (state == State.HALF_OPEN || (failureThreshold > 0 && consecutiveFailures >= failureThreshold)) {
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Ends a permitted call that neither succeeded nor failed, e.g. one that was interrupted.
+	 */
+	public synchronized void release() {
+		trialInFlight = false;
+	}
+
+	public synchronized State state() {
+		return state;
+	}
+
+	/**
+	 * @return milliseconds until the open circuit lets a trial call through, 0 when it is not open
+	 */
+	public synchronized long retryInMillis() {
+		return state == State.OPEN ? Math.max(0, openMillis - (System.currentTimeMillis() - openedAt)) : 0;
+	}
+}
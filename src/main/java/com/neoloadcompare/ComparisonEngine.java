@@ -0,0 +1,318 @@
+package com.neoloadcompare;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Numeric core of the comparison. The values of both tests are laid out once per (scenario, baseline) pair in a
+ * {@link Snapshot}: every transaction name gets an id, and each element is a double[] indexed by that id.
+ * Evaluating an element is then a single pass over two arrays without boxing, parsing or formatting; only the ids of
+ * failing transactions are returned and the caller builds JSON for those alone.
+ * <p>
+ * The optional significance {@link Gate} is evaluated in the same pass, from the sample count of each transaction and
+ * a spread estimated from its percentiles, so it costs a few more array reads per transaction and no allocation.
+ * <p>
+ * Values are rounded with {@link Math#rint}, which is the HALF_EVEN rounding the comparison used to get from
+ * formatting with DecimalFormat("####0") and parsing the result back.
+ */
+public final class ComparisonEngine {
+
+	/**
+	 * The elements that can be compared, in the order of {@link Snapshot#baseline} and {@link Snapshot#latest}.
+	 */
+	public static final String[] ELEMENTS = {"avgDuration", "percentile50", "percentile90", "percentile95", "percentile99"};
+
+	/**
+	 * Both tests of a comparison, aligned on transaction id. Values are NaN when the transaction is missing in a test
+	 * or the test has no value for the element.
+	 */
+	public static final class Snapshot {
+		final String[] transactions;
+		final boolean[] inBaseline;
+		final boolean[] inLatest;
+		// Transactions that are compared, i.e. in the baseline and not the all-userpaths summary
+		final boolean[] comparable;
+		final double[][] baseline;
+		final double[][] latest;
+		// Sample counts and estimated standard deviations, NaN when unknown, e.g. for a rolling baseline
+		final double[] baselineCount;
+		final double[] latestCount;
+		final double[] baselineSpread;
+		final double[] latestSpread;
+
+		private Snapshot(int size) {
+			transactions = new String[size];
+			inBaseline = new boolean[size];
+			inLatest = new boolean[size];
+			comparable = new boolean[size];
+			baseline = new double[ELEMENTS.length][size];
+			latest = new double[ELEMENTS.length][size];
+			baselineCount = new double[size];
+			latestCount = new double[size];
+			baselineSpread = new double[size];
+			latestSpread = new double[size];
+		}
+
+		public int size() {
+			return transactions.length;
+		}
+
+		public String transaction(int id) {
+			return transactions[id];
+		}
+
+		public boolean inBaseline(int id) {
+			return inBaseline[id];
+		}
+
+		public boolean inLatest(int id) {
+			return inLatest[id];
+		}
+
+		public boolean comparable(int id) {
+			return comparable[id];
+		}
+
+		public double baseline(int element, int id) {
+			return baseline[element][id];
+		}
+
+		public double latest(int element, int id) {
+			return latest[element][id];
+		}
+	}
+
+	/**
+	 * Significance gate on top of the percentage threshold. A transaction then only fails when its increase is also
+	 * at least minDiffMs milliseconds and the one-sided test of latest &gt; baseline is significant at the confidence.
+	 * The standard error of the element is derived from the sample counts and a standard deviation estimated as
+	 * (percentile90 - percentile50) / 1.2816, the spread of a normal distribution with the same percentiles. When a
+	 * count or the spread is unknown only the threshold and the floor apply.
+	 *
+	 * @param minDiffMs  absolute floor of the increase in milliseconds
+	 * @param confidence between 0.5 and 1, e.g. 0.99
+	 */
+	public record Gate(double minDiffMs, double confidence) {
+
+		public Gate {
+			if (!(minDiffMs >= 0)) {
+				throw new IllegalArgumentException("minDiffMs must be 0 or more");
+			}
+			if (!(confidence >= 0.5 && confidence < 1)) {
+				throw new IllegalArgumentException("confidence must be at least 0.5 and below 1");
+			}
+		}
+
+		/**
+		 * @return the z-score a significant increase must exceed
+		 */
+		public double zCritical() {
+			return normalQuantile(confidence);
+		}
+	}
+
+	/**
+	 * @param failed     ids of the transactions whose increase is above the threshold, in transaction name order
+	 * @param compared   number of transactions that had a value in both tests
+	 * @param anomalies  number of transactions that were skipped because a value was missing
+	 * @param suppressed number of transactions above the threshold that did not fail because of the {@link Gate}
+	 */
+	public record Outcome(int[] failed, int compared, int anomalies, int suppressed) {
+
+		public boolean passed() {
+			return failed.length == 0;
+		}
+	}
+
+	// z of percentile 90 of the standard normal distribution, see Gate
+	private static final double Z90 = 1.2815515655446004;
+
+	/**
+	 * Standard error of each element in units of sigma / sqrt(count): 1 for the mean and
+	 * sqrt(p (1 - p)) / phi(z_p) for percentile p of a normal distribution.
+	 */
+	private static final double[] STANDARD_ERROR_FACTORS = {
+			1,
+			percentileErrorFactor(0.50),
+			percentileErrorFactor(0.90),
+			percentileErrorFactor(0.95),
+			percentileErrorFactor(0.99)};
+
+	private ComparisonEngine() {
+	}
+
+	/**
+	 * @return the index of the element in {@link #ELEMENTS} or -1
+	 */
+	public static int elementIndex(String element) {
+		for (int n = 0; n < ELEMENTS.length; n++) {
+			if (ELEMENTS[n].equals(element)) {
+				return n;
+			}
+		}
+		return -1;
+	}
+
+	public static Snapshot snapshot(Map<String, TransactionValues> baselineValues, Map<String, TransactionValues> latestValues) {
+		TreeSet<String> names = new TreeSet<>(baselineValues.keySet());
+		names.addAll(latestValues.keySet());
+		Snapshot snapshot = new Snapshot(names.size());
+		for (double[] values : snapshot.baseline) {
+			Arrays.fill(values, Double.NaN);
+		}
+		for (double[] values : snapshot.latest) {
+			Arrays.fill(values, Double.NaN);
+		}
+		int id = 0;
+		for (String name : names) {
+			snapshot.transactions[id] = name;
+			TransactionValues baseline = baselineValues.get(name);
+			TransactionValues latest = latestValues.get(name);
+			if (baseline != null) {
+				snapshot.inBaseline[id] = true;
+				snapshot.comparable[id] = !name.contains("all-userpaths");
+				copy(baseline, snapshot.baseline, id);
+			}
+			if (latest != null) {
+				snapshot.inLatest[id] = true;
+				copy(latest, snapshot.latest, id);
+			}
+			snapshot.baselineCount[id] = count(baseline);
+			snapshot.latestCount[id] = count(latest);
+			snapshot.baselineSpread[id] = spread(baseline);
+			snapshot.latestSpread[id] = spread(latest);
+			id++;
+		}
+		return snapshot;
+	}
+
+	private static double count(TransactionValues values) {
+		return values == null || values.count() <= 0 ? Double.NaN : values.count();
+	}
+
+	private static double spread(TransactionValues values) {
+		if (values == null) {
+			return Double.NaN;
+		}
+		double spread = (values.percentile90() - values.percentile50()) / Z90;
+		return spread > 0 ? spread : Double.NaN;
+	}
+
+	private static void copy(TransactionValues values, double[][] columns, int id) {
+		columns[0][id] = values.avgDuration();
+		columns[1][id] = values.percentile50();
+		columns[2][id] = values.percentile90();
+		columns[3][id] = values.percentile95();
+		columns[4][id] = values.percentile99();
+	}
+
+	/**
+	 * @param element   index in {@link #ELEMENTS}
+	 * @param threshold allowed increase in percent, a transaction fails when its rounded increase is bigger
+	 */
+	public static Outcome compare(Snapshot snapshot, int element, double threshold) {
+		return compare(snapshot, element, threshold, null);
+	}
+
+	/**
+	 * @param element   index in {@link #ELEMENTS}
+	 * @param threshold allowed increase in percent, a transaction fails when its rounded increase is bigger
+	 * @param gate      null to fail on the threshold alone
+	 */
+	public static Outcome compare(Snapshot snapshot, int element, double threshold, Gate gate) {
+		double[] baseline = snapshot.baseline[element];
+		double[] latest = snapshot.latest[element];
+		boolean[] comparable = snapshot.comparable;
+		double[] baselineCount = snapshot.baselineCount;
+		double[] latestCount = snapshot.latestCount;
+		double[] baselineSpread = snapshot.baselineSpread;
+		double[] latestSpread = snapshot.latestSpread;
+		// Without a gate the floor is never reached and the z-test always passes
+		double minDiff = gate == null ? Double.NEGATIVE_INFINITY : gate.minDiffMs();
+		double zCritical = gate == null ? Double.NEGATIVE_INFINITY : gate.zCritical();
+		double factor2 = STANDARD_ERROR_FACTORS[element] * STANDARD_ERROR_FACTORS[element];
+		int[] failed = new int[snapshot.size()];
+		int failedCount = 0;
+		int compared = 0;
+		int anomalies = 0;
+		int suppressed = 0;
+		for (int id = 0; id < failed.length; id++) {
+			if (!comparable[id]) {
+				continue;
+			}
+			double baselineValue = baseline[id];
+			double latestValue = latest[id];
+			if (Double.isNaN(baselineValue) || Double.isNaN(latestValue)) {
+				anomalies++;
+				continue;
+			}
+			compared++;
+			boolean overThreshold = increase(baselineValue, latestValue) > threshold;
+			double diff = latestValue - baselineValue;
+			double baselineSd = baselineSpread[id];
+			double latestSd = latestSpread[id];
+			double variance = factor2 * (baselineSd * baselineSd / baselineCount[id] + latestSd * latestSd / latestCount[id]);
+			// A NaN variance (unknown count or spread) fails the comparison and so skips the z-test
+			boolean significant = diff >= minDiff && !(diff <= zCritical * Math.sqrt(variance));
+			boolean fails = overThreshold && significant;
+			failed[failedCount] = id;
+			failedCount += fails ? 1 : 0;
+			suppressed += overThreshold && !significant ? 1 : 0;
+		}
+		return new Outcome(Arrays.copyOf(failed, failedCount), compared, anomalies, suppressed);
+	}
+
+	/**
+	 * @return (latest - baseline) / standard error of the element, NaN when a count or the spread is unknown
+	 */
+	public static double zScore(Snapshot snapshot, int element, int id) {
+		double baselineSd = snapshot.baselineSpread[id];
+		double latestSd = snapshot.latestSpread[id];
+		double standardError = STANDARD_ERROR_FACTORS[element]
+				* Math.sqrt(baselineSd * baselineSd / snapshot.baselineCount[id] + latestSd * latestSd / snapshot.latestCount[id]);
+		return (snapshot.latest[element][id] - snapshot.baseline[element][id]) / standardError;
+	}
+
+	private static double percentileErrorFactor(double p) {
+		double z = normalQuantile(p);
+		double density = Math.exp(-z * z / 2) / Math.sqrt(2 * Math.PI);
+		return Math.sqrt(p * (1 - p)) / density;
+	}
+
+	/**
+	 * Inverse of the standard normal distribution function, with Acklam's rational approximation (relative error
+	 * below 1.2e-9).
+	 *
+	 * @param p between 0 and 1, exclusive
+	 */
+	static double normalQuantile(double p) {
+		final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02, 1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+		final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02, 6.680131188771972e+01, -1.328068155288572e+01};
+		final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00, -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+		final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00, 3.754408661907416e+00};
+		double low = 0.02425;
+		if (p < low) {
+			double q = Math.sqrt(-2 * Math.log(p));
+			return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5]) / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+		}
+		if (p > 1 - low) {
+			double q = Math.sqrt(-2 * Math.log(1 - p));
+			return -(((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5]) / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+		}
+		double q = p - 0.5;
+		double r = q * q;
+		return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+	}
+
+	/**
+	 * @return the increase from baseline to latest in percent, rounded to a whole number
+	 */
+	public static double increase(double baselineValue, double latestValue) {
+		return Math.rint((latestValue - baselineValue) / baselineValue * 100);
+	}
+
+	public static double round(double value) {
+		return Math.rint(value);
+	}
+}
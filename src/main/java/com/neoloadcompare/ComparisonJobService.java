@@ -0,0 +1,281 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.json.JSONObject;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs comparisons as background jobs so that long comparisons do not hold servlet threads.
+ * Jobs run on a fixed number of workers with a bounded queue; when the queue is full submit throws
+ * {@link RejectedExecutionException} and the caller answers 429. Finished jobs are kept for polling for
+ * neoload.jobs.retention-minutes, and at most neoload.jobs.max-retained of them.
+ */
+@Service
+public class ComparisonJobService implements DisposableBean {
+
+	public enum JobStatus {
+		QUEUED, RUNNING, DONE, CANCELLED
+	}
+
+	public static class Job {
+		private final String id = UUID.randomUUID().toString();
+		private final String description;
+		private final String callbackUrl;
+		private final Instant submitted = Instant.now();
+		private volatile JobStatus status = JobStatus.QUEUED;
+		private volatile Instant started;
+		private volatile Instant finished;
+		private volatile ComparisonService.ComparisonResult result;
+		private volatile Future<?> future;
+
+		Job(String description, String callbackUrl) {
+			this.description = description;
+			this.callbackUrl = callbackUrl;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public JobStatus getStatus() {
+			return status;
+		}
+
+		public JSONObject toJson() {
+			JSONObject json = new JSONObject();
+			json.put("jobId", id);
+			json.put("description", description);
+			json.put("status", status.name());
+			json.put("submitted", submitted.toString());
+			if (started != null) {
+				json.put("started", started.toString());
+			}
+			if (finished != null) {
+				json.put("finished", finished.toString());
+			}
+			if (callbackUrl != null) {
+				json.put("callbackUrl", callbackUrl);
+			}
+			if (result != null) {
+				json.put("verdict", result.status().name());
+				json.put("result", result.body());
+			}
+			return json;
+		}
+	}
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService housekeeping = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "comparison-job-housekeeping");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final HttpClient callbackClient = HttpClient.newBuilder()
+			.connectTimeout(Duration.ofSeconds(10))
+			.build();
+	private final Duration retention;
+	private final int maxRetained;
+
+	public ComparisonJobService(@Value("${neoload.jobs.workers:4}") int workers,
+								@Value("${neoload.jobs.queue-capacity:50}") int queueCapacity,
+								@Value("${neoload.jobs.retention-minutes:60}") long retentionMinutes,
+								@Value("${neoload.jobs.max-retained:1000}") int maxRetained,
+								MeterRegistry meterRegistry) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity),
+				runnable -> new Thread(runnable, "comparison-job-" + threadNumber.incrementAndGet()),
+				new ThreadPoolExecutor.AbortPolicy());
+		this.retention = Duration.ofMinutes(retentionMinutes);
+		this.maxRetained = maxRetained;
+		Gauge.builder("neoloadcompare.jobs.queued", executor, pool -> pool.getQueue().size()).register(meterRegistry);
+		Gauge.builder("neoloadcompare.jobs.running", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+		housekeeping.scheduleWithFixedDelay(this::evictFinishedJobs, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @param callbackUrl optional URL that receives the job JSON as a POST when the job is done
+	 * @throws RejectedExecutionException when the queue is full
+	 */
+	public Job submit(String description, String callbackUrl, Callable<ComparisonService.ComparisonResult> comparison) {
+		validateCallbackUrl(callbackUrl);
+		Job job = new Job(description, callbackUrl);
+		jobs.put(job.id, job);
+		try {
+			job.future = executor.submit(() -> run(job, comparison));
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.id);
+			throw e;
+		}
+		return job;
+	}
+
+	/**
+	 * @throws IllegalArgumentException unless callbackUrl is null or an absolute http or https URL
+	 */
+	public static void validateCallbackUrl(String callbackUrl) {
+		if (callbackUrl == null) {
+			return;
+		}
+		try {
+			URI uri = new URI(callbackUrl);
+			if (("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) && uri.getHost() != null) {
+				return;
+			}
+		} catch (URISyntaxException e) {
+			// Reported below, the message would repeat the URL unescaped
+		}
+		throw new IllegalArgumentException("Invalid 'callbackUrl' parameter, expected an absolute http or https URL");
+	}
+
+	private void run(Job job, Callable<ComparisonService.ComparisonResult> comparison) {
+		synchronized (job) {
+			if (job.status == JobStatus.CANCELLED) {
+				return;
+			}
+			job.status = JobStatus.RUNNING;
+			job.started = Instant.now();
+		}
+		ComparisonService.ComparisonResult result;
+		try {
+			result = comparison.call();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (Exception e) {
+			colorLogger.logError("Comparison job " + job.id + " failed: " + e.getMessage());
+			result = ComparisonService.ComparisonResult.error(e.getClass().getSimpleName() + ": " + e.getMessage());
+		}
+		synchronized (job) {
+			if (job.status == JobStatus.CANCELLED) {
+				return;
+			}
+			job.result = result;
+			job.status = JobStatus.DONE;
+			job.finished = Instant.now();
+		}
+		if (job.callbackUrl != null) {
+			// Deliver on a separate thread so slow callback receivers and retries do not occupy a worker
+			Thread.ofVirtual().name("comparison-job-callback-" + job.id).start(() -> sendCallback(job));
+		}
+	}
+
+	private void sendCallback(Job job) {
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(URI.create(job.callbackUrl))
+					.timeout(Duration.ofSeconds(30))
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString(job.toJson().toString()))
+					.build();
+		} catch (IllegalArgumentException e) {
+			colorLogger.logError("Callback for job " + job.id + " to " + job.callbackUrl + " failed: " + e.getMessage());
+			return;
+		}
+		for (int attempt = 1; attempt <= 3; attempt++) {
+			try {
+				HttpResponse<Void> response = callbackClient.send(request, HttpResponse.BodyHandlers.discarding());
+				if (response.statusCode() < 400) {
+					return;
+				}
+				colorLogger.logError("Callback for job " + job.id + " to " + job.callbackUrl + " returned HTTP " + response.statusCode());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				colorLogger.logError("Callback for job " + job.id + " to " + job.callbackUrl + " failed: " + e.getMessage());
+			}
+			try {
+				Thread.sleep(1000L * attempt);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	public Job get(String jobId) {
+		return jobs.get(jobId);
+	}
+
+	/**
+	 * Cancels a queued or running job. A running comparison is interrupted, which also cancels its value fetches.
+	 *
+	 * @return false when the job is already done or cancelled
+	 */
+	public boolean cancel(Job job) {
+		synchronized (job) {
+			if (job.status == JobStatus.DONE || job.status == JobStatus.CANCELLED) {
+				return false;
+			}
+			job.status = JobStatus.CANCELLED;
+			job.finished = Instant.now();
+		}
+		Future<?> future = job.future;
+		if (future != null) {
+			future.cancel(true);
+			// Free the queue slot right away instead of when a worker picks the job up
+			if (future instanceof Runnable runnable) {
+				executor.remove(runnable);
+			}
+		}
+		return true;
+	}
+
+	public JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("queued", executor.getQueue().size());
+		stats.put("queueCapacity", executor.getQueue().size() + executor.getQueue().remainingCapacity());
+		stats.put("running", executor.getActiveCount());
+		stats.put("workers", executor.getMaximumPoolSize());
+		stats.put("retained", jobs.size());
+		return stats;
+	}
+
+	void evictFinishedJobs() {
+		Instant expiry = Instant.now().minus(retention);
+		jobs.values().removeIf(job -> job.finished != null && job.finished.isBefore(expiry));
+
+		long finished = jobs.values().stream().filter(job -> job.finished != null).count();
+		if (finished > maxRetained) {
+			jobs.values().stream()
+					.filter(job -> job.finished != null)
+					.sorted(Comparator.comparing(job -> job.finished))
+					.limit(finished - maxRetained)
+					.toList()
+					.forEach(job -> jobs.remove(job.id));
+		}
+	}
+
+	@Override
+	public void destroy() {
+		housekeeping.shutdownNow();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,821 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static java.lang.Double.parseDouble;
+
+/**
+ * Compares the latest test of a scenario against a baseline test.
+ * The data of a (scenario, baseline) pair is fetched once into {@link TestData} and every requested element is
+ * evaluated from it, which is what makes the batch comparison cheaper than one call per element.
+ * Identical comparisons that are requested while one is in flight, e.g. by CI jobs of the same release, wait for it and
+ * get its result instead of fetching and writing back everything again.
+ * <p>
+ * A comparison in which no transaction failed but some transactions could not be compared, because their values
+ * failed to load, missed the deadline or are missing in one of the tests, is INCOMPLETE instead of OK unless
+ * neoload.compare.allow-incomplete is set.
+ */
+@Service
+public class ComparisonService {
+
+	/**
+	 * @param gate significance gate on top of the percentage, null to compare on the percentage alone
+	 */
+	public record ComparisonSpec(String scenario, String baseline, String element, String percentage, ComparisonEngine.Gate gate) {	}
+
+	/**
+	 * INCOMPLETE: no transaction failed, but some could not be compared and are listed in fetchErrors.
+	 */
+	public enum Status {
+		OK, FAILED, INCOMPLETE, ERROR
+	}
+
+	public record ComparisonResult(Status status, JSONObject body) {
+
+		static ComparisonResult error(String message) {
+			JSONObject body = new JSONObject();
+			body.put("error", message);
+			return new ComparisonResult(Status.ERROR, body);
+		}
+	}
+
+	/**
+	 * Everything fetched for one (scenario, baseline) pair, shared by every element compared against it.
+	 */
+	public record TestData(String workspace, String workspaceId, String baseline, String baselineTestId,
+						   String latestTestId, String latestName,
+						   Map<String, TransactionValues> latestValues, Map<String, String> latestErrors,
+						   Map<String, TransactionValues> baselineValues, Map<String, String> baselineErrors,
+						   ComparisonEngine.Snapshot snapshot) {
+
+		public TestData(String workspace, String workspaceId, String baseline, String baselineTestId,
+						String latestTestId, String latestName,
+						Map<String, TransactionValues> latestValues, Map<String, String> latestErrors,
+						Map<String, TransactionValues> baselineValues, Map<String, String> baselineErrors) {
+			this(workspace, workspaceId, baseline, baselineTestId, latestTestId, latestName, latestValues, latestErrors,
+					baselineValues, baselineErrors, ComparisonEngine.snapshot(baselineValues, latestValues));
+		}
+	}
+
+	/**
+	 * The latest and baseline test of a (scenario, baseline) pair with their transaction elements.
+	 */
+	private record TestPair(String baselineTestId, String latestTestId, String latestName,
+							Map<String, String> latestElements, Map<String, String> baselineElements) {
+
+		Map<String, Map<String, String>> elementsByTestId() {
+			Map<String, Map<String, String>> elementsByTestId = new LinkedHashMap<>();
+			elementsByTestId.put(latestTestId, latestElements);
+			elementsByTestId.put(baselineTestId, baselineElements);
+			return elementsByTestId;
+		}
+	}
+
+	/**
+	 * Identifies identical comparison requests, which share one computation while it is in flight.
+	 */
+	private record ComparisonKey(String mode, String workspace, List<ComparisonSpec> specs, String windowPercentage) {
+	}
+
+	// Baseline of a comparison against the recent tests of the scenario instead of a single test
+	static final String ROLLING = "rolling";
+
+	static class ComparisonException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		ComparisonException(String message) {
+			super(message);
+		}
+	}
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final NeoLoadClient neoLoadClient;
+	private final TransactionValuesFetcher transactionValuesFetcher;
+	private final MeterRegistry meterRegistry;
+	private final TimeSeriesSettings timeSeriesSettings;
+	private final RollingBaselineStore rollingBaselineStore;
+	private final WriteBackOutbox writeBackOutbox;
+	private final SingleFlight<ComparisonKey, ComparisonResult> inFlightComparisons;
+	private final boolean allowIncomplete;
+
+	/**
+	 * @param allowIncomplete answer OK instead of INCOMPLETE when no transaction failed but some could not be compared
+	 */
+	public ComparisonService(NeoLoadClient neoLoadClient, TransactionValuesFetcher transactionValuesFetcher, MeterRegistry meterRegistry,
+							 TimeSeriesSettings timeSeriesSettings, RollingBaselineStore rollingBaselineStore, WriteBackOutbox writeBackOutbox,
+							 @Value("${neoload.compare.allow-incomplete:false}") boolean allowIncomplete) {
+		this.neoLoadClient = neoLoadClient;
+		this.transactionValuesFetcher = transactionValuesFetcher;
+		this.meterRegistry = meterRegistry;
+		this.timeSeriesSettings = timeSeriesSettings;
+		this.rollingBaselineStore = rollingBaselineStore;
+		this.writeBackOutbox = writeBackOutbox;
+		this.inFlightComparisons = new SingleFlight<>("comparison", meterRegistry);
+		this.allowIncomplete = allowIncomplete;
+	}
+
+	/**
+	 * Compares one element of the latest test against the baseline and marks the latest test as FAILED in NeoLoad Web
+	 * when any transaction exceeds the allowed percentage.
+	 *
+	 * @param spec element must already be validated with {@link #validateElement(String)}
+	 */
+	public ComparisonResult compare(String workspace, ComparisonSpec spec) throws IOException, InterruptedException {
+		return inFlightComparisons.execute(new ComparisonKey("aggregate", workspace, List.of(spec), null), () -> compareOnce(workspace, spec));
+	}
+
+	private ComparisonResult compareOnce(String workspace, ComparisonSpec spec) throws IOException, InterruptedException {
+		TestData data;
+		try {
+			String workspaceId = resolveWorkspaceId(workspace);
+			data = loadTestData(workspace, workspaceId, spec.scenario(), spec.baseline());
+		} catch (ComparisonException e) {
+			countComparison(Status.ERROR);
+			return logError(e.getMessage());
+		}
+		ComparisonResult result = evaluate(data, spec.element(), spec.percentage(), spec.gate());
+		writeBack(data.workspaceId(), data.latestTestId(), data.latestName(), "aggregate", spec, result);
+		countComparison(result.status());
+		return result;
+	}
+
+	/**
+	 * Compares one element of the latest test against the baseline using the /points time series of every
+	 * transaction instead of the whole-test aggregate. Only the steady state (the test without its warm-up and
+	 * cool-down) is compared, and a transaction also fails when its worst window in the latest test is more than
+	 * windowPercentage slower than the steady-state average of the baseline, which catches a test that degrades
+	 * towards its end.
+	 *
+	 * @param windowPercentage allowed increase of the worst window, null to use the percentage of spec
+	 */
+	public ComparisonResult compareTimeSeries(String workspace, ComparisonSpec spec, String windowPercentage) throws IOException, InterruptedException {
+		return inFlightComparisons.execute(new ComparisonKey("points", workspace, List.of(spec), windowPercentage),
+				() -> compareTimeSeriesOnce(workspace, spec, windowPercentage));
+	}
+
+	private ComparisonResult compareTimeSeriesOnce(String workspace, ComparisonSpec spec, String windowPercentage) throws IOException, InterruptedException {
+		String workspaceId;
+		TestPair tests;
+		TimeSeriesSummary.Layout latestLayout;
+		TimeSeriesSummary.Layout baselineLayout;
+		try {
+			if (rollingRuns(spec.baseline()) > 0) {
+				throw new ComparisonException("A rolling baseline can only be compared in aggregate mode");
+			}
+			if (spec.gate() != null) {
+				throw new ComparisonException("The significance gate can only be used in aggregate mode");
+			}
+			workspaceId = resolveWorkspaceId(workspace);
+			tests = locateTests(workspaceId, spec.scenario(), spec.baseline());
+			latestLayout = layout(workspaceId, tests.latestTestId());
+			baselineLayout = layout(workspaceId, tests.baselineTestId());
+		} catch (ComparisonException e) {
+			countComparison(Status.ERROR);
+			return logError(e.getMessage());
+		}
+
+		// Stream the points of both tests concurrently, each transaction into its own fixed-size summary
+		Timer.Sample sample = Timer.start(meterRegistry);
+		Map<String, TransactionValuesFetcher.FetchResult<TimeSeriesSummary>> fetched = transactionValuesFetcher.fetch(tests.elementsByTestId(),
+				(testId, elementId) -> neoLoadClient.getTimeSeries(workspaceId, testId, elementId,
+						new TimeSeriesSummary(testId.equals(tests.latestTestId()) ? latestLayout : baselineLayout, timeSeriesSettings)));
+		endPhase(sample, "points");
+
+		sample = Timer.start(meterRegistry);
+		ComparisonResult result;
+		try {
+			result = evaluateTimeSeries(workspace, workspaceId, spec, windowPercentage == null ? spec.percentage() : windowPercentage, tests,
+					fetched.get(tests.latestTestId()), fetched.get(tests.baselineTestId()));
+		} finally {
+			endPhase(sample, "evaluate");
+		}
+		writeBack(workspaceId, tests.latestTestId(), tests.latestName(), "points " + windowPercentage, spec, result);
+		countComparison(result.status());
+		return result;
+	}
+
+	private TimeSeriesSummary.Layout layout(String workspaceId, String testId) throws IOException, ComparisonException {
+		long duration = neoLoadClient.getTestDuration(workspaceId, testId);
+		if (duration <= 0) {
+			throw new ComparisonException("Duration of test " + testId + " is unknown, cannot compare its time series");
+		}
+		return TimeSeriesSummary.Layout.of(duration, timeSeriesSettings);
+	}
+
+	private ComparisonResult evaluateTimeSeries(String workspace, String workspaceId, ComparisonSpec spec, String windowPercentage, TestPair tests,
+												TransactionValuesFetcher.FetchResult<TimeSeriesSummary> latest,
+												TransactionValuesFetcher.FetchResult<TimeSeriesSummary> baseline) {
+		double threshold = parseDouble(spec.percentage());
+		double windowThreshold = parseDouble(windowPercentage);
+		JSONArray fetchErrors = new JSONArray();
+		addFetchErrors(fetchErrors, tests.latestTestId(), latest.errors());
+		if (!tests.baselineTestId().equals(tests.latestTestId())) {
+			addFetchErrors(fetchErrors, tests.baselineTestId(), baseline.errors());
+		}
+
+		JSONArray transactions = new JSONArray();
+		for (Map.Entry<String, TimeSeriesSummary> entry : new TreeMap<>(baseline.values()).entrySet()) {
+			String transaction = entry.getKey();
+			if (transaction.contains("all-userpaths")) {
+				continue;
+			}
+			TimeSeriesSummary latestSummary = latest.values().get(transaction);
+			if (latestSummary == null) {
+				if (!latest.errors().containsKey(transaction)) {
+					addFetchError(fetchErrors, transaction, tests.latestTestId(), "Transaction not found in latest test");
+				}
+				continue;
+			}
+			double baselineValue = entry.getValue().steadyState(spec.element());
+			double latestValue = latestSummary.steadyState(spec.element());
+			if (Double.isNaN(baselineValue) || Double.isNaN(latestValue)) {
+				addFetchError(fetchErrors, transaction, Double.isNaN(baselineValue) ? tests.baselineTestId() : tests.latestTestId(), "No points in the steady state");
+				continue;
+			}
+
+			double increase = ComparisonEngine.increase(baselineValue, latestValue);
+			TimeSeriesSummary.Window worstWindow = latestSummary.worstWindow(timeSeriesSettings.minWindowCount());
+			double baselineMean = entry.getValue().steadyState("avgDuration");
+			double windowIncrease = worstWindow == null ? Double.NaN : ComparisonEngine.increase(baselineMean, worstWindow.mean());
+			boolean steadyStateFailed = increase > threshold;
+			boolean windowFailed = windowIncrease > windowThreshold;
+			if (!steadyStateFailed && !windowFailed) {
+				continue;
+			}
+			JSONObject failure = new JSONObject();
+			failure.put("baselineValue", String.valueOf(ComparisonEngine.round(baselineValue)));
+			failure.put("latestValue", String.valueOf(ComparisonEngine.round(latestValue)));
+			failure.put("increase", increase + "%");
+			failure.put("transaction", transaction);
+			failure.put("reason", steadyStateFailed && windowFailed ? "steady state and window" : steadyStateFailed ? "steady state" : "window");
+			if (worstWindow != null) {
+				failure.put("worstWindow", worstWindow.fromMs() / 1000 + "s-" + worstWindow.toMs() / 1000 + "s");
+				failure.put("worstWindowAvgDuration", String.valueOf(ComparisonEngine.round(worstWindow.mean())));
+				failure.put("worstWindowIncrease", windowIncrease + "%");
+			}
+			transactions.put(failure);
+		}
+		for (String transaction : new TreeMap<>(latest.values()).keySet()) {
+			if (!transaction.contains("all-userpaths") && !baseline.values().containsKey(transaction) && !baseline.errors().containsKey(transaction)) {
+				addFetchError(fetchErrors, transaction, tests.baselineTestId(), "Transaction not found in baseline test");
+			}
+		}
+
+		if (!transactions.isEmpty()) {
+			JSONObject mainJson = new JSONObject();
+			mainJson.put("info", "Test failed because the increase from baseline is bigger than the allowed percentage value in the steady state or in a window");
+			mainJson.put("element", spec.element());
+			mainJson.put("percentage", spec.percentage() + "%");
+			mainJson.put("windowPercentage", windowPercentage + "%");
+			mainJson.put("mode", "points");
+			mainJson.put("baselinetest", spec.baseline());
+			mainJson.put("transactions", transactions);
+			if (!fetchErrors.isEmpty()) {
+				mainJson.put("fetchErrors", fetchErrors);
+			}
+			return new ComparisonResult(Status.FAILED, mainJson);
+		}
+		JSONObject jsonObject = okBody(workspace, workspaceId, spec.baseline(), tests.baselineTestId(), tests.latestTestId(), tests.latestName(),
+				spec.percentage(), spec.element());
+		JSONObject comparisonObject = jsonObject.getJSONObject("comparison");
+		comparisonObject.put("mode", "points");
+		comparisonObject.put("windowPercentage", windowPercentage);
+		comparisonObject.put("steadyState", "warm-up " + timeSeriesSettings.warmupPercent() + "%, cool-down " + timeSeriesSettings.cooldownPercent() + "%");
+		// Every transaction that was not compared is in fetchErrors
+		return passed(jsonObject, fetchErrors, 0);
+	}
+
+	/**
+	 * Compares many (scenario, baseline, element, percentage) specs of one workspace. Each (scenario, baseline) pair is
+	 * fetched once and all its elements are evaluated from the same values. Failures of the same latest test are
+	 * written back to NeoLoad Web in a single update.
+	 *
+	 * @param specs elements must already be validated with {@link #validateElement(String)}
+	 */
+	public ComparisonResult compareBatch(String workspace, List<ComparisonSpec> specs) throws IOException, InterruptedException {
+		return inFlightComparisons.execute(new ComparisonKey("batch", workspace, List.copyOf(specs), null), () -> compareBatchOnce(workspace, specs));
+	}
+
+	private ComparisonResult compareBatchOnce(String workspace, List<ComparisonSpec> specs) throws IOException, InterruptedException {
+		String workspaceId;
+		try {
+			workspaceId = resolveWorkspaceId(workspace);
+		} catch (ComparisonException e) {
+			specs.forEach(spec -> countComparison(Status.ERROR));
+			return logError(e.getMessage());
+		}
+
+		Map<String, TestData> testDataByPair = new HashMap<>();
+		Map<String, String> loadErrorsByPair = new HashMap<>();
+		JSONArray results = new JSONArray();
+		int ok = 0;
+		int failed = 0;
+		int incomplete = 0;
+		int errors = 0;
+
+		for (ComparisonSpec spec : specs) {
+			String pair = spec.scenario() + "\u0000" + spec.baseline();
+			if (!testDataByPair.containsKey(pair) && !loadErrorsByPair.containsKey(pair)) {
+				try {
+					testDataByPair.put(pair, loadTestData(workspace, workspaceId, spec.scenario(), spec.baseline()));
+				} catch (ComparisonException e) {
+					colorLogger.logError(e.getMessage());
+					loadErrorsByPair.put(pair, e.getMessage());
+				}
+			}
+
+			ComparisonResult result;
+			TestData data = testDataByPair.get(pair);
+			if (data == null) {
+				result = ComparisonResult.error(loadErrorsByPair.get(pair));
+			} else {
+				result = evaluate(data, spec.element(), spec.percentage(), spec.gate());
+				writeBack(data.workspaceId(), data.latestTestId(), data.latestName(), "aggregate", spec, result);
+			}
+
+			switch (result.status()) {
+				case OK -> ok++;
+				case FAILED -> failed++;
+				case INCOMPLETE -> incomplete++;
+				case ERROR -> errors++;
+			}
+			countComparison(result.status());
+			JSONObject specResult = new JSONObject();
+			specResult.put("scenario", spec.scenario());
+			specResult.put("baseline", spec.baseline());
+			specResult.put("element", spec.element());
+			specResult.put("percentage", spec.percentage());
+			if (spec.gate() != null) {
+				specResult.put("gate", "significance");
+			}
+			specResult.put("status", result.status().name());
+			specResult.put("result", result.body());
+			results.put(specResult);
+		}
+
+		Status status = failed > 0 ? Status.FAILED : errors > 0 ? Status.ERROR : incomplete > 0 ? Status.INCOMPLETE : Status.OK;
+		JSONObject body = new JSONObject();
+		body.put("workspace", workspace);
+		body.put("status", status.name());
+		body.put("ok", ok);
+		body.put("failed", failed);
+		body.put("incomplete", incomplete);
+		body.put("errors", errors);
+		body.put("results", results);
+		return new ComparisonResult(status, body);
+	}
+
+	private String resolveWorkspaceId(String workspace) throws IOException, ComparisonException {
+		//check workspace
+		Timer.Sample sample = Timer.start(meterRegistry);
+		String workspaceId = neoLoadClient.getWorkspaceId(workspace);
+		endPhase(sample, "workspace");
+		if (workspaceId.equals("NOT FOUND")) {
+			throw new ComparisonException("workspace not found:" + workspace);
+		}
+		return workspaceId;
+	}
+
+	/**
+	 * @param baseline a baseline test number, or "rolling" or "rolling:K" for the median of the K most recent tests of
+	 *                 the scenario before the latest one, see {@link #loadRollingTestData}
+	 */
+	public TestData loadTestData(String workspace, String workspaceId, String scenario, String baseline) throws IOException, InterruptedException, ComparisonException {
+		int runs = rollingRuns(baseline);
+		if (runs > 0) {
+			return loadRollingTestData(workspace, workspaceId, scenario, baseline, runs);
+		}
+		TestPair tests = locateTests(workspaceId, scenario, baseline);
+		String testId = tests.baselineTestId();
+		String latestTestId = tests.latestTestId();
+
+		// Fetch the values of both tests concurrently, failures are reported per transaction
+		Timer.Sample sample = Timer.start(meterRegistry);
+		Map<String, TransactionValuesFetcher.FetchResult<TransactionValues>> fetched = transactionValuesFetcher.fetchValues(workspaceId, tests.elementsByTestId());
+		endPhase(sample, "values");
+
+		return new TestData(workspace, workspaceId, baseline, testId, latestTestId, tests.latestName(),
+				fetched.get(latestTestId).values(), fetched.get(latestTestId).errors(),
+				fetched.get(testId).values(), testId.equals(latestTestId) ? Map.of() : fetched.get(testId).errors());
+	}
+
+	/**
+	 * Loads the latest test and a reference made of the median values of the runs most recent TERMINATED tests of the
+	 * scenario before it. Tests that are not yet in the {@link RollingBaseline} of the scenario are fetched and folded
+	 * in once, every other test of the reference is read from it without calling NeoLoad Web.
+	 */
+	private TestData loadRollingTestData(String workspace, String workspaceId, String scenario, String baseline, int runs) throws IOException, InterruptedException, ComparisonException {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		TestResultScanner.ScenarioRuns scenarioRuns = neoLoadClient.findRecentRuns(workspaceId, scenario, runs + 1);
+		endPhase(sample, "test_results");
+		TestResultScanner.Run latest = scenarioRuns.latest();
+		if (latest == null || !scenario.equals(latest.scenario())) {
+			throw new ComparisonException("Not same scenario name in the latest test");
+		}
+		List<TestResultScanner.Run> referenceRuns = scenarioRuns.runs().subList(1, scenarioRuns.runs().size());
+		if (referenceRuns.isEmpty()) {
+			throw new ComparisonException("No earlier test of scenario " + scenario + " for a rolling baseline");
+		}
+		List<String> referenceTestIds = referenceRuns.stream().map(TestResultScanner.Run::testId).toList();
+
+		RollingBaseline rollingBaseline = rollingBaselineStore.get(workspaceId, scenario);
+		List<TestResultScanner.Run> missingRuns = referenceRuns.stream().filter(run -> !rollingBaseline.contains(run.testId())).toList();
+		// The latest test may already be folded in by an earlier comparison, but its values are fetched anyway
+		sample = Timer.start(meterRegistry);
+		Map<String, Map<String, String>> elementsByTestId = new LinkedHashMap<>();
+		elementsByTestId.put(latest.testId(), neoLoadClient.getTransactionElements(workspaceId, latest.testId()));
+		for (TestResultScanner.Run run : missingRuns) {
+			elementsByTestId.put(run.testId(), neoLoadClient.getTransactionElements(workspaceId, run.testId()));
+		}
+		endPhase(sample, "elements");
+
+		// The latest test and the tests that are new to the rolling baseline, concurrently
+		sample = Timer.start(meterRegistry);
+		Map<String, TransactionValuesFetcher.FetchResult<TransactionValues>> fetched = transactionValuesFetcher.fetchValues(workspaceId, elementsByTestId);
+		endPhase(sample, "values");
+
+		Map<String, String> baselineErrors = new HashMap<>();
+		boolean folded = false;
+		for (TestResultScanner.Run run : missingRuns) {
+			TransactionValuesFetcher.FetchResult<TransactionValues> result = fetched.get(run.testId());
+			if (!result.errors().isEmpty()) {
+				// Folded in by a later comparison instead of keeping an incomplete test
+				result.errors().forEach((transaction, error) -> baselineErrors.put(transaction, run.name() + ": " + error));
+				continue;
+			}
+			folded |= rollingBaseline.fold(run, result.values(), referenceTestIds);
+		}
+		// The latest test is part of the reference of the next comparison, folding it now saves fetching it again
+		TransactionValuesFetcher.FetchResult<TransactionValues> latestResult = fetched.get(latest.testId());
+		if (latestResult.errors().isEmpty()) {
+			List<String> keep = new ArrayList<>(referenceTestIds);
+			keep.add(latest.testId());
+			folded |= rollingBaseline.fold(latest, latestResult.values(), keep);
+		}
+		if (folded) {
+			rollingBaselineStore.save(rollingBaseline);
+		}
+
+		String baselineTestIds = referenceRuns.stream().filter(run -> rollingBaseline.contains(run.testId()))
+				.map(TestResultScanner.Run::testId).collect(Collectors.joining(","));
+		if (baselineTestIds.isEmpty()) {
+			throw new ComparisonException("None of the tests of the rolling baseline could be fetched");
+		}
+		return new TestData(workspace, workspaceId, baseline, baselineTestIds, latest.testId(), latest.name(),
+				latestResult.values(), latestResult.errors(), rollingBaseline.reference(referenceTestIds), baselineErrors);
+	}
+
+	/**
+	 * @return K of a "rolling" or "rolling:K" baseline, or 0 for a baseline test number
+	 */
+	private int rollingRuns(String baseline) throws ComparisonException {
+		if (!baseline.startsWith(ROLLING)) {
+			return 0;
+		}
+		if (baseline.equals(ROLLING)) {
+			return rollingBaselineStore.defaultRuns();
+		}
+		int runs;
+		try {
+			runs = baseline.startsWith(ROLLING + ":") ? Integer.parseInt(baseline.substring(ROLLING.length() + 1)) : -1;
+		} catch (NumberFormatException e) {
+			runs = -1;
+		}
+		if (runs < 1 || runs > rollingBaselineStore.maxRuns()) {
+			throw new ComparisonException("Invalid rolling baseline " + baseline + ", use rolling or rolling:K with K between 1 and " + rollingBaselineStore.maxRuns());
+		}
+		return runs;
+	}
+
+	private TestPair locateTests(String workspaceId, String scenario, String baseline) throws IOException, ComparisonException {
+		//Hämta id på baseline
+		Timer.Sample sample = Timer.start(meterRegistry);
+		TestResultScanner.TestResultLookup testResults = neoLoadClient.findTestResults(workspaceId, "#" + baseline, scenario);
+		endPhase(sample, "test_results");
+		String testId = testResults.baselineTestId();
+
+		if (!testResults.baselineFound()) {
+			throw new ComparisonException("Baseline not found:" + baseline);
+		}
+
+		if (!scenario.equals(testResults.latestScenario())) {
+			throw new ComparisonException("Not same scenario name in the latest test");
+		}
+		String latestTestId = testResults.latestTestId();
+
+		sample = Timer.start(meterRegistry);
+		Map<String, String> TransactionsElementsLatestTest = neoLoadClient.getTransactionElements(workspaceId, latestTestId);
+		Map<String, String> TransactionsElementsBaseline = neoLoadClient.getTransactionElements(workspaceId, testId);
+		endPhase(sample, "elements");
+
+		if (TransactionsElementsLatestTest.size() != TransactionsElementsBaseline.size()) {
+			throw new ComparisonException("The tests that are compared have different number of unique transactions names");
+		}
+		return new TestPair(testId, latestTestId, testResults.latestName(), TransactionsElementsLatestTest, TransactionsElementsBaseline);
+	}
+
+	/**
+	 * Evaluates one element of already fetched test data. Does not write anything back to NeoLoad Web.
+	 */
+	public ComparisonResult evaluate(TestData data, String validElement, String percentage) {
+		return evaluate(data, validElement, percentage, null);
+	}
+
+	/**
+	 * @param gate significance gate on top of the percentage, null to compare on the percentage alone
+	 */
+	public ComparisonResult evaluate(TestData data, String validElement, String percentage, ComparisonEngine.Gate gate) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		try {
+			return evaluateElement(data, validElement, percentage, gate);
+		} finally {
+			endPhase(sample, "evaluate");
+		}
+	}
+
+	private ComparisonResult evaluateElement(TestData data, String validElement, String percentage, ComparisonEngine.Gate gate) {
+		int element = ComparisonEngine.elementIndex(validElement);
+		if (element < 0) {
+			throw new IllegalArgumentException("Unknown element: " + validElement);
+		}
+		ComparisonEngine.Snapshot snapshot = data.snapshot();
+		ComparisonEngine.Outcome outcome = ComparisonEngine.compare(snapshot, element, parseDouble(percentage), gate);
+		JSONArray fetchErrors = fetchErrors(data, snapshot, element, validElement);
+
+		if (!outcome.passed()) {
+			JSONObject mainJson = new JSONObject();
+			mainJson.put("info", gate == null
+					? "Test failed because the increase from baseline is bigger than the allowed percentage value"
+					: "Test failed because the increase from baseline is bigger than the allowed percentage value and the minimum difference, and is significant");
+			mainJson.put("element", validElement);
+			mainJson.put("percentage", percentage + "%");
+			if (gate != null) {
+				putGate(mainJson, gate, outcome);
+			}
+			mainJson.put("baselinetest", data.baseline());
+			JSONArray transactions = new JSONArray();
+			for (int id : outcome.failed()) {
+				double baselineValue = snapshot.baseline(element, id);
+				double latestValue = snapshot.latest(element, id);
+				JSONObject transaction = new JSONObject();
+				transaction.put("baselineValue", String.valueOf(ComparisonEngine.round(baselineValue)));
+				transaction.put("latestValue", String.valueOf(ComparisonEngine.round(latestValue)));
+				transaction.put("increase", ComparisonEngine.increase(baselineValue, latestValue) + "%");
+				if (gate != null) {
+					double zScore = ComparisonEngine.zScore(snapshot, element, id);
+					// JSON has no NaN or Infinity, the z-score is left out when it is unknown
+					if (Double.isFinite(zScore)) {
+						transaction.put("zScore", Math.round(zScore * 100) / 100.0);
+					}
+				}
+				transaction.put("transaction", snapshot.transaction(id));
+				transactions.put(transaction);
+			}
+			mainJson.put("transactions", transactions);
+			if (!fetchErrors.isEmpty()) {
+				mainJson.put("fetchErrors", fetchErrors);
+			}
+			return new ComparisonResult(Status.FAILED, mainJson);
+		}
+		// If no errors, return a success message with test details
+		JSONObject jsonObject = okBody(data.workspace(), data.workspaceId(), data.baseline(), data.baselineTestId(), data.latestTestId(), data.latestName(),
+				percentage, validElement);
+		if (gate != null) {
+			putGate(jsonObject.getJSONObject("comparison"), gate, outcome);
+		}
+		return passed(jsonObject, fetchErrors, outcome.anomalies());
+	}
+
+	/**
+	 * @param anomalies transactions of the baseline without a value to compare
+	 * @return OK, or INCOMPLETE when transactions could not be compared and that is not allowed
+	 */
+	private ComparisonResult passed(JSONObject jsonObject, JSONArray fetchErrors, int anomalies) {
+		if (!fetchErrors.isEmpty()) {
+			jsonObject.put("fetchErrors", fetchErrors);
+		}
+		if (allowIncomplete || (fetchErrors.isEmpty() && anomalies == 0)) {
+			return new ComparisonResult(Status.OK, jsonObject);
+		}
+		Set<String> notCompared = new HashSet<>();
+		for (int n = 0; n < fetchErrors.length(); n++) {
+			notCompared.add(fetchErrors.getJSONObject(n).getString("transaction"));
+		}
+		jsonObject.put("status", "Check against baseline INCOMPLETE, " + Math.max(notCompared.size(), anomalies) + " transactions could not be compared, see fetchErrors");
+		return new ComparisonResult(Status.INCOMPLETE, jsonObject);
+	}
+
+	private static void putGate(JSONObject jsonObject, ComparisonEngine.Gate gate, ComparisonEngine.Outcome outcome) {
+		jsonObject.put("gate", "significance");
+		jsonObject.put("minDiffMs", gate.minDiffMs());
+		jsonObject.put("confidence", gate.confidence());
+		// Transactions above the percentage that passed because the increase is too small or not significant
+		jsonObject.put("suppressed", outcome.suppressed());
+	}
+
+	private static JSONObject okBody(String workspace, String workspaceId, String baseline, String baselineTestId, String latestTestId, String latestName,
+									 String percentage, String validElement) {
+		// Create outer JSON object
+		JSONObject jsonObject = new JSONObject();
+		// Create inner "workspace" object
+		JSONObject workspaceObject = new JSONObject();
+		workspaceObject.put("name", workspace);
+		workspaceObject.put("id", workspaceId);
+		// Create inner "baseline" object
+		JSONObject baselineObject = new JSONObject();
+		baselineObject.put("testId", baselineTestId);
+		baselineObject.put("name", baseline);
+		JSONObject comparisonObject = new JSONObject();
+		comparisonObject.put("percentageDifference", percentage);
+		comparisonObject.put("element", validElement);
+		// Create inner "latestTest" object
+		JSONObject latestTestObject = new JSONObject();
+		latestTestObject.put("testId", latestTestId);
+		latestTestObject.put("name", latestName);
+		// Adding nested objects to the main JSON object
+		jsonObject.put("workspace", workspaceObject);
+		jsonObject.put("baseline", baselineObject);
+		jsonObject.put("comparison", comparisonObject);
+		jsonObject.put("latestTest", latestTestObject);
+		// Add "status" field (string)
+		jsonObject.put("status", "Check against baseline OK!");
+		return jsonObject;
+	}
+
+	/**
+	 * Transactions that could not be compared: values that failed to fetch, values without the element and
+	 * transactions of the baseline that are missing in the latest test.
+	 */
+	private static JSONArray fetchErrors(TestData data, ComparisonEngine.Snapshot snapshot, int element, String validElement) {
+		JSONArray fetchErrors = new JSONArray();
+		addFetchErrors(fetchErrors, data.latestTestId(), data.latestErrors());
+		addFetchErrors(fetchErrors, data.baselineTestId(), data.baselineErrors());
+		for (int id = 0; id < snapshot.size(); id++) {
+			if (snapshot.inLatest(id) && Double.isNaN(snapshot.latest(element, id))) {
+				addFetchError(fetchErrors, snapshot.transaction(id), data.latestTestId(), "No " + validElement + " value");
+			}
+		}
+		for (int id = 0; id < snapshot.size(); id++) {
+			if (snapshot.inBaseline(id) && Double.isNaN(snapshot.baseline(element, id))) {
+				addFetchError(fetchErrors, snapshot.transaction(id), data.baselineTestId(), "No " + validElement + " value");
+			}
+		}
+		for (int id = 0; id < snapshot.size(); id++) {
+			if (snapshot.comparable(id) && !Double.isNaN(snapshot.baseline(element, id)) && !snapshot.inLatest(id)
+					&& !data.latestErrors().containsKey(snapshot.transaction(id))) {
+				addFetchError(fetchErrors, snapshot.transaction(id), data.latestTestId(), "Transaction not found in latest test");
+			}
+		}
+		return fetchErrors;
+	}
+
+	/**
+	 * Queues the verdict of a comparison for the latest test, which the {@link WriteBackOutbox} merges with the
+	 * other verdicts of that test into one PATCH: FAILED with the failed transactions in the description, or PASSED.
+	 * A comparison with fetchErrors is never written as PASSED, also when allow-incomplete answered it with OK.
+	 *
+	 * @param mode with spec identifies the comparison, a later verdict of the same comparison replaces this one
+	 */
+	private void writeBack(String workspaceId, String latestTestId, String latestName, String mode, ComparisonSpec spec, ComparisonResult result) {
+		if (result.status() == Status.ERROR) {
+			return;
+		}
+		JSONObject body = result.body();
+		JSONArray fetchErrors = body.optJSONArray("fetchErrors");
+		boolean complete = result.status() == Status.OK && fetchErrors == null;
+		if (result.status() != Status.FAILED) {
+			body = new JSONObject();
+			body.put("info", complete ? "Check against baseline OK" : "Check against baseline INCOMPLETE, transactions could not be compared");
+			body.put("element", spec.element());
+			body.put("percentage", spec.percentage() + "%");
+			body.put("baselinetest", spec.baseline());
+			if (fetchErrors != null) {
+				body.put("fetchErrors", fetchErrors);
+			}
+		}
+		writeBackOutbox.submit(workspaceId, latestTestId, latestName, mode + " " + spec, new WriteBackOutbox.Verdict(!complete, body));
+	}
+
+	private void endPhase(Timer.Sample sample, String phase) {
+		sample.stop(Timer.builder("neoloadcompare.phase")
+				.description("Time spent per comparison phase")
+				.tag("phase", phase)
+				.publishPercentileHistogram()
+				.register(meterRegistry));
+	}
+
+	private void countComparison(Status status) {
+		meterRegistry.counter("neoloadcompare.comparisons", "status", status.name()).increment();
+	}
+
+	private ComparisonResult logError(String message) {
+		colorLogger.logError(message);
+		return ComparisonResult.error(message);
+	}
+
+	private static void addFetchErrors(JSONArray fetchErrors, String testId, Map<String, String> errors) {
+		for (Map.Entry<String, String> error : errors.entrySet()) {
+			addFetchError(fetchErrors, error.getKey(), testId, error.getValue());
+		}
+	}
+
+	private static void addFetchError(JSONArray fetchErrors, String transaction, String testId, String error) {
+		JSONObject fetchError = new JSONObject();
+		fetchError.put("transaction", transaction);
+		fetchError.put("testId", testId);
+		fetchError.put("error", error);
+		fetchErrors.put(fetchError);
+	}
+
+	public static Optional<String> validateElement(String element) {
+		Set<String> validElements = Set.of("avgduration", "avgDuration", "percentile90", "percentile95", "percentile99","no","nej", "false");
+		String lowerElement = element.toLowerCase();
+		if (lowerElement.contains("avgduration")) {
+			lowerElement = "avgDuration";
+		}
+		return validElements.contains(lowerElement) ? Optional.of(lowerElement) : Optional.empty();
+	}
+
+	public static boolean isDisabled(String validElement) {
+		return validElement.equalsIgnoreCase("no") || validElement.equalsIgnoreCase("nej") || validElement.equalsIgnoreCase("false");
+	}
+
+	/**
+	 * Renders a comparison result for the NeoLoad Web description in one pass: a key:value line per field except
+	 * arrayKey and fetchErrors, then a block per entry of the arrayKey array, then a "fetchErrors:" line with a block
+	 * per transaction that could not be compared. Quotes are left out and whole numbers lose their ".0" (140.0, 50.0%),
+	 * other dots are kept as they are, e.g. in 0.99 or an IP address.
+	 */
+	public static void appendDescription(StringBuilder description, JSONObject jsonObject, String arrayKey) {
+		for (String key : jsonObject.keySet()) {
+			if (!key.equals(arrayKey) && !key.equals("fetchErrors")) {
+				appendLine(description, key, jsonObject.get(key));
+			}
+		}
+		JSONArray jsonArray = jsonObject.optJSONArray(arrayKey);
+		JSONArray fetchErrors = jsonObject.optJSONArray("fetchErrors");
+		if (jsonArray == null && fetchErrors == null) {
+			description.append('\n');
+			return;
+		}
+		if (jsonArray != null) {
+			appendBlocks(description, jsonArray);
+		}
+		if (fetchErrors != null) {
+			description.append("\nfetchErrors:\n");
+			appendBlocks(description, fetchErrors);
+		}
+	}
+
+	private static void appendBlocks(StringBuilder description, JSONArray jsonArray) {
+		for (int i = 0; i < jsonArray.length(); i++) {
+			JSONObject arrayObject = jsonArray.getJSONObject(i);
+			description.append('\n');
+			for (String arrayKeyItem : arrayObject.keySet()) {
+				appendLine(description, arrayKeyItem, arrayObject.get(arrayKeyItem));
+			}
+			description.append("\n\n");
+		}
+	}
+
+	private static void appendLine(StringBuilder description, String key, Object value) {
+		appendText(description, key);
+		description.append(':');
+		appendText(description, String.valueOf(value));
+		description.append('\n');
+	}
+
+	private static void appendText(StringBuilder description, String text) {
+		int length = text.length();
+		for (int n = 0; n < length; n++) {
+			char c = text.charAt(n);
+			if (c == '"') {
+				continue;
+			}
+			// Drop the ".0" of whole numbers such as 140.0 or 50.0%
+			if (c == '.' && n > 0 && Character.isDigit(text.charAt(n - 1)) && n + 1 < length && text.charAt(n + 1) == '0'
+					&& (n + 2 == length || text.charAt(n + 2) == '%')) {
+				n++;
+				continue;
+			}
+			description.append(c);
+		}
+	}
+}
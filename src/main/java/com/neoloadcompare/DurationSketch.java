@@ -0,0 +1,154 @@
+package com.neoloadcompare;
+
+/**
+ * Mergeable quantile sketch for durations with a bounded relative error, in the style of DDSketch.
+ * Values are counted in logarithmic buckets, bucket i holding (gamma^(i-1), gamma^i], so any quantile is returned
+ * within relativeAccuracy of the true value. Memory is bounded by maxBuckets: when the values span more buckets the
+ * lowest ones are collapsed, which only affects the accuracy of the lowest quantiles.
+ * Values are weighted, so a point that stands for COUNT requests can be added once.
+ */
+public final class DurationSketch {
+
+	// Values at or below this go to the zero bucket, durations are in milliseconds
+	private static final double MIN_VALUE = 1e-3;
+
+	private final double gamma;
+	private final double logGamma;
+	private final int maxBuckets;
+	private double[] counts = new double[0];
+	// Bucket index of counts[0]
+	private int offset;
+	private double zeroCount;
+	private double totalWeight;
+	private double sum;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public DurationSketch(double relativeAccuracy, int maxBuckets) {
+		if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+			throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1");
+		}
+		this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		this.logGamma = Math.log(gamma);
+		this.maxBuckets = maxBuckets;
+	}
+
+	public void add(double value, double weight) {
+		if (!(weight > 0) || Double.isNaN(value)) {
+			return;
+		}
+		totalWeight += weight;
+		sum += value * weight;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		if (value <= MIN_VALUE) {
+			zeroCount += weight;
+			return;
+		}
+		// bucket() may replace counts, so it has to run before counts is read
+		int bucket = bucket((int) Math.ceil(Math.log(value) / logGamma));
+		counts[bucket] += weight;
+	}
+
+	/**
+	 * Adds every value of other to this sketch. Both sketches must have the same relative accuracy.
+	 */
+	public void merge(DurationSketch other) {
+		if (other.gamma != gamma) {
+			throw new IllegalArgumentException("Cannot merge sketches with different accuracy");
+		}
+		if (other.totalWeight == 0) {
+			return;
+		}
+		for (int n = 0; n < other.counts.length; n++) {
+			if (other.counts[n] > 0) {
+				int bucket = bucket(other.offset + n);
+				counts[bucket] += other.counts[n];
+			}
+		}
+		zeroCount += other.zeroCount;
+		totalWeight += other.totalWeight;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * @return position in counts of the bucket, growing counts or collapsing its lowest buckets as needed
+	 */
+	private int bucket(int index) {
+		if (counts.length == 0) {
+			counts = new double[Math.min(16, maxBuckets)];
+			offset = index - counts.length / 2;
+		}
+		int high = offset + counts.length - 1;
+		if (index >= offset && index <= high) {
+			return index - offset;
+		}
+		if (index < offset) {
+			if (high - index + 1 > maxBuckets) {
+				if (counts.length < maxBuckets) {
+					rebase(high - maxBuckets + 1, maxBuckets);
+				}
+				// Below the range that fits, counted in the lowest bucket
+				return 0;
+			}
+			int length = Math.min(maxBuckets, Math.max(high - index + 1, counts.length * 2));
+			rebase(high - length + 1, length);
+		} else {
+			int length = Math.min(maxBuckets, Math.max(index - offset + 1, counts.length * 2));
+			rebase(Math.max(offset, index - length + 1), length);
+		}
+		return index - offset;
+	}
+
+	/**
+	 * Moves the buckets to a counts array of the given length starting at newOffset, buckets below newOffset are
+	 * added to the lowest one.
+	 */
+	private void rebase(int newOffset, int length) {
+		double[] rebased = new double[length];
+		for (int n = 0; n < counts.length; n++) {
+			if (counts[n] > 0) {
+				rebased[Math.max(offset + n - newOffset, 0)] += counts[n];
+			}
+		}
+		counts = rebased;
+		offset = newOffset;
+	}
+
+	/**
+	 * @param quantile between 0 and 1
+	 * @return the value at the quantile or NaN when the sketch is empty
+	 */
+	public double quantile(double quantile) {
+		if (totalWeight == 0) {
+			return Double.NaN;
+		}
+		double rank = quantile * totalWeight;
+		double cumulative = zeroCount;
+		if (cumulative >= rank && zeroCount > 0) {
+			return 0;
+		}
+		for (int n = 0; n < counts.length; n++) {
+			cumulative += counts[n];
+			if (cumulative >= rank && counts[n] > 0) {
+				double value = 2 * Math.pow(gamma, offset + n) / (gamma + 1);
+				return Math.max(min, Math.min(max, value));
+			}
+		}
+		return max;
+	}
+
+	public double mean() {
+		return totalWeight == 0 ? Double.NaN : sum / totalWeight;
+	}
+
+	public double totalWeight() {
+		return totalWeight;
+	}
+
+	public int bucketCount() {
+		return counts.length;
+	}
+}
@@ -0,0 +1,105 @@
+package com.neoloadcompare;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Bounded in-memory caches for NeoLoad Web data.
+ * Workspace ids are kept for a short time, while elements and values of TERMINATED test results never change and
+ * are kept until they are evicted by size or by not being used for a while.
+ */
+@Component
+public class NeoLoadCache {
+
+	public record TestKey(String workspaceId, String testId) {
+	}
+
+	public record ValuesKey(String workspaceId, String testId, String elementId) {
+	}
+
+	private final Cache<String, String> workspaceIds;
+	private final Cache<TestKey, Map<String, String>> elements;
+	private final Cache<ValuesKey, TransactionValues> values;
+
+	public NeoLoadCache(@Value("${neoload.cache.workspace-ttl-seconds:60}") long workspaceTtlSeconds,
+						@Value("${neoload.cache.workspace-max-size:1000}") long workspaceMaxSize,
+						@Value("${neoload.cache.test-data-idle-minutes:1440}") long testDataIdleMinutes,
+						@Value("${neoload.cache.elements-max-size:2000}") long elementsMaxSize,
+						@Value("${neoload.cache.values-max-size:200000}") long valuesMaxSize,
+						MeterRegistry meterRegistry) {
+		workspaceIds = Caffeine.newBuilder()
+				.maximumSize(workspaceMaxSize)
+				.expireAfterWrite(Duration.ofSeconds(workspaceTtlSeconds))
+				.recordStats()
+				.build();
+		elements = Caffeine.newBuilder()
+				.maximumSize(elementsMaxSize)
+				.expireAfterAccess(Duration.ofMinutes(testDataIdleMinutes))
+				.recordStats()
+				.build();
+		values = Caffeine.newBuilder()
+				.maximumSize(valuesMaxSize)
+				.expireAfterAccess(Duration.ofMinutes(testDataIdleMinutes))
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(meterRegistry, workspaceIds, "neoload.workspaceIds");
+		CaffeineCacheMetrics.monitor(meterRegistry, elements, "neoload.elements");
+		CaffeineCacheMetrics.monitor(meterRegistry, values, "neoload.values");
+	}
+
+	public Cache<String, String> workspaceIds() {
+		return workspaceIds;
+	}
+
+	public Cache<TestKey, Map<String, String>> elements() {
+		return elements;
+	}
+
+	public Cache<ValuesKey, TransactionValues> values() {
+		return values;
+	}
+
+	/**
+	 * Drops the workspace id and every cached test result that belongs to the workspace.
+	 */
+	public void invalidateWorkspace(String workspaceName, String workspaceId) {
+		workspaceIds.invalidate(workspaceName);
+		if (workspaceId != null) {
+			elements.asMap().keySet().removeIf(key -> key.workspaceId().equals(workspaceId));
+			values.asMap().keySet().removeIf(key -> key.workspaceId().equals(workspaceId));
+		}
+	}
+
+	public void invalidateAll() {
+		workspaceIds.invalidateAll();
+		elements.invalidateAll();
+		values.invalidateAll();
+	}
+
+	public JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("workspaces", toJson(workspaceIds.stats(), workspaceIds.estimatedSize()));
+		stats.put("elements", toJson(elements.stats(), elements.estimatedSize()));
+		stats.put("values", toJson(values.stats(), values.estimatedSize()));
+		return stats;
+	}
+
+	private static JSONObject toJson(CacheStats cacheStats, long size) {
+		JSONObject stats = new JSONObject();
+		stats.put("size", size);
+		stats.put("hits", cacheStats.hitCount());
+		stats.put("misses", cacheStats.missCount());
+		stats.put("evictions", cacheStats.evictionCount());
+		stats.put("hitRate", cacheStats.hitRate());
+		return stats;
+	}
+}
@@ -0,0 +1,242 @@
+package com.neoloadcompare;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NeoLoad Web API calls used by the comparison.
+ * Workspace ids, elements and values are served from {@link NeoLoadCache} when possible, then from the
+ * {@link TestSnapshotStore} on disk. The first page of the test result list is always fetched since it is the only way
+ * to discover the latest test.
+ */
+@Component
+public class NeoLoadClient {
+
+	// Endpoint templates, used as the uri tag of the upstream metrics so ids do not end up in tag values
+	static final String INFORMATION = "/v3/information";
+	static final String WORKSPACES = "/v3/workspaces";
+	static final String TEST_RESULTS = "/v3/workspaces/{workspaceId}/test-results";
+	static final String TEST_RESULT = "/v3/workspaces/{workspaceId}/test-results/{testId}";
+	static final String ELEMENTS = "/v3/workspaces/{workspaceId}/test-results/{testId}/elements";
+	static final String VALUES = "/v3/workspaces/{workspaceId}/test-results/{testId}/elements/{elementId}/values";
+	static final String POINTS = "/v3/workspaces/{workspaceId}/test-results/{testId}/elements/{elementId}/points";
+
+	private final NeoLoadHttpClient neoLoadHttpClient;
+	private final NeoLoadCache cache;
+	private final BaselineIndex baselineIndex;
+	private final TestSnapshotStore testSnapshotStore;
+	private final Environment env;
+	private final int testResultsPageSize;
+
+	public NeoLoadClient(NeoLoadHttpClient neoLoadHttpClient, NeoLoadCache cache, BaselineIndex baselineIndex, TestSnapshotStore testSnapshotStore,
+						 Environment env, @Value("${neoload.test-results.page-size:200}") int testResultsPageSize) {
+		this.neoLoadHttpClient = neoLoadHttpClient;
+		this.cache = cache;
+		this.baselineIndex = baselineIndex;
+		this.testSnapshotStore = testSnapshotStore;
+		this.env = env;
+		this.testResultsPageSize = testResultsPageSize;
+	}
+
+	public String getServerUrl() {
+		return env.getProperty("Server");
+	}
+
+	private String getToken() {
+		return env.getProperty("Token");
+	}
+
+	public String getInformation() throws IOException {
+		return neoLoadHttpClient.get(INFORMATION, getServerUrl() + "/v3/information", getToken());
+	}
+
+	/**
+	 * @return the workspace id or "NOT FOUND"
+	 */
+	public String getWorkspaceId(String workspaceName) throws IOException {
+		String workspaceId = cache.workspaceIds().getIfPresent(workspaceName);
+		if (workspaceId != null) {
+			return workspaceId;
+		}
+		String jsonString = neoLoadHttpClient.get(WORKSPACES, getServerUrl() + "/v3/workspaces?allWorkspaces=true", getToken());
+		JSONArray jsonArray = new JSONArray(jsonString);
+		Map<String, String> workspaceIds = new HashMap<>();
+		for (int n = 0; n < jsonArray.length(); n++) {
+			JSONObject object = jsonArray.getJSONObject(n);
+			workspaceIds.putIfAbsent(object.get("name").toString(), object.get("id").toString());
+		}
+		cache.workspaceIds().putAll(workspaceIds);
+		return workspaceIds.getOrDefault(workspaceName, "NOT FOUND");
+	}
+
+	/**
+	 * Finds the latest TERMINATED test and the baseline test of the scenario.
+	 * The test results are paged through newest first and the scan stops at the first page containing the baseline.
+	 * When the first page does not contain it, a baseline found before is taken from {@link BaselineIndex} and only
+	 * verified instead of scanning further, so a newer test with the baseline name replaces the remembered one as long
+	 * as it is on the first page.
+	 */
+	public TestResultScanner.TestResultLookup findTestResults(String workspaceId, String baselineName, String scenario) throws IOException {
+		TestResultScanner.TestResultLookup firstPage = scanTestResults(workspaceId, 0, testResultsPageSize, baselineName, scenario);
+		if (firstPage.baselineFound()) {
+			baselineIndex.put(workspaceId, scenario, baselineName, firstPage.baselineTestId());
+			return firstPage;
+		}
+		String indexedTestId = baselineIndex.get(workspaceId, scenario, baselineName);
+		if (indexedTestId != null) {
+			if (isTestResult(workspaceId, indexedTestId, baselineName, scenario)) {
+				return new TestResultScanner.TestResultLookup(firstPage.latestTestId(), firstPage.latestName(), firstPage.latestScenario(), indexedTestId, firstPage.scanned());
+			}
+			baselineIndex.remove(workspaceId, scenario, baselineName);
+		}
+
+		TestResultScanner.TestResultLookup page = firstPage;
+		int offset = 0;
+		while (page.scanned() >= testResultsPageSize) {
+			offset += testResultsPageSize;
+			page = scanTestResults(workspaceId, offset, testResultsPageSize, baselineName, scenario);
+			if (page.baselineFound()) {
+				baselineIndex.put(workspaceId, scenario, baselineName, page.baselineTestId());
+				return new TestResultScanner.TestResultLookup(firstPage.latestTestId(), firstPage.latestName(), firstPage.latestScenario(), page.baselineTestId(), offset + page.scanned());
+			}
+		}
+		return new TestResultScanner.TestResultLookup(firstPage.latestTestId(), firstPage.latestName(), firstPage.latestScenario(), "NOT FOUND", offset + page.scanned());
+	}
+
+	/**
+	 * Finds the latest TERMINATED test and the count most recent TERMINATED tests of the scenario, newest first.
+	 * The latest test is one of them when it belongs to the scenario. Pages are read until count tests of the scenario
+	 * have been found or the list ends.
+	 */
+	public TestResultScanner.ScenarioRuns findRecentRuns(String workspaceId, String scenario, int count) throws IOException {
+		return findRecentRuns(workspaceId, scenario, count, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Same as {@link #findRecentRuns(String, String, int)} for the tests that started between fromMs and toMs,
+	 * paging stops at the first test that started before fromMs.
+	 */
+	public TestResultScanner.ScenarioRuns findRecentRuns(String workspaceId, String scenario, int count, long fromMs, long toMs) throws IOException {
+		TestResultScanner.Run latest = null;
+		List<TestResultScanner.Run> runs = new ArrayList<>();
+		int offset = 0;
+		while (true) {
+			int remaining = count - runs.size();
+			TestResultScanner.ScenarioRuns page = neoLoadHttpClient.get(TEST_RESULTS, getServerUrl() + "/v3/workspaces/" + workspaceId + "/test-results?status=TERMINATED&sort=-startDate&limit=" + testResultsPageSize + "&offset=" + offset, getToken(),
+					body -> TestResultScanner.scanRuns(body, scenario, remaining, fromMs, toMs));
+			if (offset == 0) {
+				latest = page.latest();
+			}
+			runs.addAll(page.runs());
+			if (runs.size() >= count || page.before() || page.scanned() < testResultsPageSize) {
+				return new TestResultScanner.ScenarioRuns(latest, runs, offset + page.scanned(), page.before());
+			}
+			offset += testResultsPageSize;
+		}
+	}
+
+	private TestResultScanner.TestResultLookup scanTestResults(String workspaceId, int offset, int limit, String baselineName, String scenario) throws IOException {
+		return neoLoadHttpClient.get(TEST_RESULTS, getServerUrl() + "/v3/workspaces/" + workspaceId + "/test-results?status=TERMINATED&sort=-startDate&limit=" + limit + "&offset=" + offset, getToken(),
+				body -> TestResultScanner.scan(body, baselineName, scenario));
+	}
+
+	private boolean isTestResult(String workspaceId, String testId, String name, String scenario) {
+		try {
+			JSONObject object = new JSONObject(neoLoadHttpClient.get(TEST_RESULT, getServerUrl() + "/v3/workspaces/" + workspaceId + "/test-results/" + testId, getToken()));
+			return name.equals(object.optString("name")) && scenario.equals(object.optString("scenario"))
+					&& "TERMINATED".equals(object.optString("status"));
+		} catch (IOException | JSONException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return transaction name -> element id of every transaction outside of Init
+	 */
+	public Map<String, String> getTransactionElements(String workspaceId, String testId) throws IOException {
+		NeoLoadCache.TestKey key = new NeoLoadCache.TestKey(workspaceId, testId);
+		Map<String, String> elements = cache.elements().getIfPresent(key);
+		if (elements != null) {
+			return elements;
+		}
+		TestSnapshotStore.TestSnapshot snapshot = testSnapshotStore.read(workspaceId, testId);
+		if (snapshot != null) {
+			// Values of the test are read next, the whole snapshot goes into the cache at once
+			for (Map.Entry<String, String> element : snapshot.elements().entrySet()) {
+				cache.values().put(new NeoLoadCache.ValuesKey(workspaceId, testId, element.getValue()), snapshot.values().get(element.getKey()));
+			}
+			elements = Map.copyOf(snapshot.elements());
+			cache.elements().put(key, elements);
+			return elements;
+		}
+		String jsonString = neoLoadHttpClient.get(ELEMENTS, getServerUrl() + "/v3/workspaces/" + workspaceId + "/test-results/" + testId + "/elements?category=TRANSACTION", getToken());
+		elements = Map.copyOf(parseTransactionElements(jsonString));
+		cache.elements().put(key, elements);
+		return elements;
+	}
+
+	public TransactionValues getValues(String workspaceId, String testId, String elementId) throws IOException {
+		NeoLoadCache.ValuesKey key = new NeoLoadCache.ValuesKey(workspaceId, testId, elementId);
+		TransactionValues values = cache.values().getIfPresent(key);
+		if (values != null) {
+			return values;
+		}
+		String jsonString = neoLoadHttpClient.get(VALUES, getServerUrl() + "/v3/workspaces/" + workspaceId + "/test-results/" + testId + "/elements/" + elementId + "/values", getToken());
+		JSONObject object = new JSONObject(jsonString);
+		// Error responses other than 5xx come back as a body, they must not be cached as the values of a finished test
+		if (object.has("message") || !object.has("avgDuration")) {
+			throw new IOException("No values for element " + elementId + " of test " + testId + ": " + object.optString("message", jsonString));
+		}
+		values = TransactionValues.fromJson(object);
+		cache.values().put(key, values);
+		return values;
+	}
+
+	/**
+	 * @return the duration of the test in milliseconds or -1 when NeoLoad Web does not report it
+	 */
+	public long getTestDuration(String workspaceId, String testId) throws IOException {
+		JSONObject object = new JSONObject(neoLoadHttpClient.get(TEST_RESULT, getServerUrl() + "/v3/workspaces/" + workspaceId + "/test-results/" + testId, getToken()));
+		long duration = object.optLong("duration", -1);
+		if (duration <= 0 && object.has("startDate") && object.has("endDate")) {
+			duration = object.getLong("endDate") - object.getLong("startDate");
+		}
+		return duration > 0 ? duration : -1;
+	}
+
+	/**
+	 * Streams the AVG_DURATION and COUNT points of one element into summary.
+	 */
+	public TimeSeriesSummary getTimeSeries(String workspaceId, String testId, String elementId, TimeSeriesSummary summary) throws IOException {
+		neoLoadHttpClient.get(POINTS, getServerUrl() + "/v3/workspaces/" + workspaceId + "/test-results/" + testId + "/elements/" + elementId + "/points?statistics=AVG_DURATION,COUNT", getToken(),
+				body -> PointsScanner.scan(body, summary));
+		return summary;
+	}
+
+	public String patchTestResult(String workspaceId, String testId, String body) throws IOException {
+		return neoLoadHttpClient.patch(TEST_RESULT, getServerUrl() + "/v3/workspaces/" + workspaceId + "/test-results/" + testId, body, getToken());
+	}
+
+	public static HashMap<String, String> parseTransactionElements(String jsonString) throws JSONException {
+		HashMap<String, String> Transaction = new HashMap<String, String>();
+		JSONArray jsonArray = new JSONArray(jsonString);
+		for (int n = 1; n < jsonArray.length(); n++) {
+			JSONObject object = jsonArray.getJSONObject(n);
+			if (object.get("path").toString().contains("Init")) {
+				continue;
+			}
+			Transaction.put(object.get("name").toString(), object.get("id").toString());
+		}
+		return Transaction;
+	}
+}
@@ -3,43 +3,36 @@ package com.neoloadcompare;
 import io.swagger.v3.oas.annotations.ExternalDocumentation;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.info.Info;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.ssl.TrustStrategy;
-import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.env.Environment;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import javax.net.ssl.SSLContext;
 import java.io.IOException;
-import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
-import static java.lang.Double.parseDouble;
 @OpenAPIDefinition(
 		info = @Info(
 				title = "NeoLoad Compare",
@@ -47,17 +40,34 @@ import static java.lang.Double.parseDouble;
 				description = "NeoLoad Compare API to validate performance test results against baseline metrics.\n" +
 						"Endpoints:\n" +
 						"**Health**\n" +
-						"1. **GET /healthcheck** - API health check.\n\n" +
+						"1. **GET /healthcheck** - API health check including NeoLoad Web reachability and latency (503 when unreachable).\n" +
+						"   - **GET /actuator/prometheus** - Metrics per NeoLoad Web endpoint and comparison phase.\n" +
+						"   - **GET /pool-stats** - Leased/available/pending connections of the shared NeoLoad Web connection pool.\n" +
+						"   - **GET /cache** - Hit/miss/eviction counters of the workspace and test result caches and of the test snapshots on disk.\n" +
+						"   - **DELETE /cache?workspace=** - Invalidate cached data for a workspace (or everything without workspace).\n\n" +
 						"**Performance Comparison**\n" +
 						"2. **GET /NeoLoadCompare** - Compare latest test results against baseline.\n" +
 						"   - **Parameters:**\n" +
 						"     - `workspace` (required) - Workspace name\n" +
 						"     - `scenario` (required) - Scenario name to compare\n" +
-						"     - `baseline` (required) - Baseline test number (e.g., 1, 2, 3)\n" +
+						"     - `baseline` (required) - Baseline test number (e.g., 1, 2, 3), or `rolling` / `rolling:K` for the median of the K most recent tests of the scenario\n" +
 						"     - `percentage` (required) - Allowed percentage increase threshold\n" +
 						"     - `element` (required) - Metric to compare: avgduration, percentile90, percentile95, percentile99, or false\n" +
+						"     - `mode` (optional) - `aggregate` (default) compares whole-test values, `points` compares the steady state of the time series\n" +
+						"     - `windowPercentage` (optional, mode=points) - Allowed increase of the worst window, defaults to `percentage`\n" +
 						"   - **Example:** `/NeoLoadCompare?workspace=demo&scenario=demo_scenario&baseline=1&percentage=10&element=avgduration`\n" +
-						"   - **Response:** Returns comparison results with status OK or FAILED if thresholds exceeded.\n\n" +
+						"   - **Response:** Returns comparison results with status OK or FAILED if thresholds exceeded.\n" +
+						"3. **POST /NeoLoadCompare/batch** - Compare many scenario/baseline/element specs of one workspace in one call.\n" +
+						"   - **Body:** `{\"workspace\":\"demo\",\"comparisons\":[{\"scenario\":\"demo_scenario\",\"baseline\":\"1\",\"element\":\"avgduration\",\"percentage\":\"10\"}]}`\n" +
+						"   - **Response:** Aggregated status plus one result per spec. Each test is fetched once and shared by every spec. 400 for an invalid body or spec.\n" +
+						"   - **GET /rolling-baseline?workspace=&scenario=&element=** - Tests folded into the rolling baseline of a scenario and the spread of every transaction.\n" +
+						"   - **GET /trend?workspace=&scenario=&element=&tests=&from=&to=** - NDJSON with one element of every transaction over the last `tests` tests (default 20), optionally between `from` and `to` (epoch ms). One line per test as soon as it is fetched, then the series per transaction.\n\n" +
+						"**Comparison jobs**\n" +
+						"4. **POST /jobs** - Same parameters as GET /NeoLoadCompare plus optional `callbackUrl`. Returns 202 with a job id, 400 for invalid parameters, or 429 when the queue is full.\n" +
+						"5. **POST /jobs/batch** - Same body as POST /NeoLoadCompare/batch plus optional `callbackUrl` parameter.\n" +
+						"6. **GET /jobs/{jobId}** - Job status (QUEUED, RUNNING, DONE, CANCELLED) and, when done, the verdict and result.\n" +
+						"7. **DELETE /jobs/{jobId}** - Cancel a queued or running job.\n" +
+						"8. **GET /jobs** - Queue depth, running jobs and retained jobs.\n\n" +
 						"**Configuration:**\n" +
 						"Requires environment variables:\n" +
 						"- `Server` - NeoLoad API server URL (e.g., http://neoload.example.com)\n" +
@@ -83,58 +93,188 @@ public class NeoLoadCompareApplication {
 	public void handleContextRefresh(ContextRefreshedEvent event) {
 		final Environment env = event.getApplicationContext().getEnvironment();
 		if (env.getProperty("Server") == null | env.getProperty("Token") == null) {
-			colorLogger.logError("NeoLoad API server and token must be set -e Server=\"http://XXX\" and -e Server=XXX");
-
-			System.exit(0);
+			colorLogger.logError("NeoLoad API server and token must be set -e Server=\"http://XXX\" and -e Token=XXX");
+			throw new IllegalStateException("NeoLoad API server and token must be set");
 		}
+		// NeoLoad Web is not waited for at startup, the readiness probe reports DOWN until it answers
+		Thread.ofVirtual().name("neoload-information").start(() -> logInformation(env));
+	}
 
+	private void logInformation(Environment env) {
 		try {
-			JSONObject jsonObj = new JSONObject(doHttpGet(env.getProperty("Server") + "/v3/information", env.getProperty("Token")));
+			JSONObject jsonObj = new JSONObject(neoLoadClient.getInformation());
 			if (jsonObj.has("message")) {
 				colorLogger.logError("message: " + jsonObj.getString("message"));
 				colorLogger.logInfo("===========================================");
-				System.exit(0);
+				return;
 			}
 			colorLogger.logInfo("====== Environment and configuration ======");
-			colorLogger.logInfo("front_url: " + jsonObj.getString("front_url"));
+			colorLogger.logInfo("front_url: " + jsonObj.optString("front_url"));
 			colorLogger.logInfo("api_url: " + env.getProperty("Server"));
-			colorLogger.logInfo("filestorage_url: " + jsonObj.getString("filestorage_url"));
-			colorLogger.logInfo("version: " + jsonObj.getString("version"));
+			colorLogger.logInfo("filestorage_url: " + jsonObj.optString("filestorage_url"));
+			colorLogger.logInfo("version: " + jsonObj.optString("version"));
 			colorLogger.logInfo("===========================================");
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		} catch (URISyntaxException e) {
-			throw new RuntimeException(e);
+		} catch (IOException | RuntimeException e) {
+			colorLogger.logError("NeoLoad Web is not reachable at " + env.getProperty("Server") + ": " + e.getMessage());
 		}
 	}
 
 	@Autowired
 	public Environment env;
 
+	@Autowired
+	NeoLoadHttpClient neoLoadHttpClient;
+
+	@Autowired
+	ComparisonService comparisonService;
+
+	@Autowired
+	ComparisonJobService comparisonJobService;
+
+	@Autowired
+	NeoLoadClient neoLoadClient;
+
+	@Autowired
+	NeoLoadCache neoLoadCache;
+
+	@Autowired
+	BaselineIndex baselineIndex;
+
+	@Autowired
+	RollingBaselineStore rollingBaselineStore;
+
+	@Autowired
+	TestSnapshotStore testSnapshotStore;
+
+	@Autowired
+	TrendService trendService;
+
+	@Autowired
+	SignificanceSettings significanceSettings;
+
+	@Autowired
+	NeoLoadHealthIndicator neoLoadHealthIndicator;
+
 	@GetMapping(value = "healthcheck")
 	public ResponseEntity<String> healthcheck() {
-		HttpHeaders headers = new HttpHeaders();
-		headers.add(HttpHeaders.CACHE_CONTROL, "no-cache");
-		headers.add(HttpHeaders.CONTENT_TYPE, "text/plain; charset=UTF-8");
-		headers.add(HttpHeaders.CONTENT_ENCODING, "UTF-8");
+		Health health = neoLoadHealthIndicator.health();
+		JSONObject body = new JSONObject();
+		body.put("status", Status.UP.equals(health.getStatus()) ? "ok" : "down");
+		body.put("service", "API Health Check");
+		body.put("neoload", new JSONObject(health.getDetails()));
+		return ResponseEntity.status(Status.UP.equals(health.getStatus()) ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+				.headers(createHeaders())
+				.body(body.toString());
+	}
+
+	@GetMapping(value = "pool-stats")
+	public ResponseEntity<String> poolStats() {
 		return ResponseEntity.ok()
-				.headers(headers)
-				.body("{\"status\":\"ok\",\"service\":\"API Health Check\"}");
+				.headers(createHeaders())
+				.body(neoLoadHttpClient.getPoolStats().toString(4));
+	}
+
+	@GetMapping(value = "cache")
+	public ResponseEntity<String> cacheStats() {
+		return ResponseEntity.ok()
+				.headers(createHeaders())
+				.body(neoLoadCache.getStats().put("snapshots", testSnapshotStore.getStats()).toString(4));
+	}
+
+	@DeleteMapping(value = "cache")
+	public ResponseEntity<String> invalidateCache(@RequestParam(required = false) String workspace) throws IOException {
+		if (workspace == null) {
+			neoLoadCache.invalidateAll();
+			baselineIndex.clear();
+			rollingBaselineStore.clear();
+			testSnapshotStore.clear();
+			return Respond("cache invalidated");
+		}
+		String workspaceId = neoLoadClient.getWorkspaceId(workspace);
+		neoLoadCache.invalidateWorkspace(workspace, workspaceId.equals("NOT FOUND") ? null : workspaceId);
+		if (!workspaceId.equals("NOT FOUND")) {
+			baselineIndex.removeWorkspace(workspaceId);
+			rollingBaselineStore.removeWorkspace(workspaceId);
+			testSnapshotStore.removeWorkspace(workspaceId);
+		}
+		return Respond("cache invalidated for workspace " + workspace);
+	}
+
+	@GetMapping(value = "rolling-baseline")
+	public ResponseEntity<String> rollingBaseline(@RequestParam String workspace, @RequestParam String scenario, @RequestParam(required = false) String element) throws IOException {
+		Optional<String> elementOpt = ComparisonService.validateElement(element == null ? "avgduration" : element);
+		if (!elementOpt.isPresent() || ComparisonService.isDisabled(elementOpt.get())) {
+			return logAndRespondError("Invalid 'element' parameter. Valid options are: avgduration, percentile90, percentile95, percentile99");
+		}
+		String workspaceId = neoLoadClient.getWorkspaceId(workspace);
+		if (workspaceId.equals("NOT FOUND")) {
+			return logAndRespondError("workspace not found:" + workspace);
+		}
+		RollingBaseline rollingBaseline = rollingBaselineStore.get(workspaceId, scenario);
+		List<TestResultScanner.Run> runs = rollingBaseline.runs();
+		JSONArray runsArray = new JSONArray();
+		for (TestResultScanner.Run run : runs) {
+			JSONObject runObject = new JSONObject();
+			runObject.put("testId", run.testId());
+			runObject.put("name", run.name());
+			runObject.put("startDate", run.startDate());
+			runsArray.put(runObject);
+		}
+		JSONArray transactions = new JSONArray();
+		Map<String, RollingBaseline.Spread> spread = rollingBaseline.spread(runs.stream().map(TestResultScanner.Run::testId).toList(), elementOpt.get());
+		for (Map.Entry<String, RollingBaseline.Spread> entry : spread.entrySet()) {
+			JSONObject transaction = new JSONObject();
+			transaction.put("transaction", entry.getKey());
+			transaction.put("runs", entry.getValue().runs());
+			transaction.put("median", ComparisonEngine.round(entry.getValue().median()));
+			transaction.put("mean", ComparisonEngine.round(entry.getValue().mean()));
+			transaction.put("standardDeviation", ComparisonEngine.round(entry.getValue().standardDeviation()));
+			transactions.put(transaction);
+		}
+		JSONObject body = new JSONObject();
+		body.put("workspace", workspace);
+		body.put("scenario", scenario);
+		body.put("element", elementOpt.get());
+		body.put("maxRuns", rollingBaseline.maxRuns());
+		body.put("runs", runsArray);
+		body.put("transactions", transactions);
+		return ResponseEntity.ok()
+				.headers(createHeaders())
+				.body(body.toString(4));
+	}
+
+	@GetMapping(value = "trend")
+	public ResponseEntity<StreamingResponseBody> trend(@RequestParam String workspace, @RequestParam String scenario, @RequestParam(required = false) String element,
+								   @RequestParam(defaultValue = "20") int tests, @RequestParam(required = false) Long from, @RequestParam(required = false) Long to) throws IOException {
+		Optional<String> elementOpt = ComparisonService.validateElement(element == null ? "percentile95" : element);
+		if (!elementOpt.isPresent() || ComparisonService.isDisabled(elementOpt.get())) {
+			return streamError("Invalid 'element' parameter. Valid options are: avgduration, percentile90, percentile95, percentile99");
+		}
+		if (tests < 1 || tests > trendService.maxTests()) {
+			return streamError("Invalid 'tests' parameter, must be between 1 and " + trendService.maxTests());
+		}
+		String workspaceId = neoLoadClient.getWorkspaceId(workspace);
+		if (workspaceId.equals("NOT FOUND")) {
+			return streamError("workspace not found:" + workspace);
+		}
+		// Listing the tests before the response starts keeps errors in the {"error":"..."} format
+		List<TestResultScanner.Run> runs = trendService.findTests(workspaceId, scenario, tests,
+				from == null ? Long.MIN_VALUE : from, to == null ? Long.MAX_VALUE : to);
+		String validElement = elementOpt.get();
+		StreamingResponseBody body = outputStream -> trendService.stream(workspaceId, scenario, validElement, runs, outputStream);
+		return ResponseEntity.ok()
+				.header(HttpHeaders.CACHE_CONTROL, "no-cache")
+				.contentType(MediaType.parseMediaType("application/x-ndjson"))
+				.body(body);
 	}
 
 	@GetMapping(value = "NeoLoadCompare")
-	public ResponseEntity<String> NeoLoadCompare(@RequestParam String workspace, @RequestParam String scenario, @RequestParam String baseline, @RequestParam String percentage, @RequestParam String element) throws JSONException, IOException, URISyntaxException, InterruptedException {
+	public ResponseEntity<String> NeoLoadCompare(@RequestParam String workspace, @RequestParam String scenario, @RequestParam String baseline, @RequestParam String percentage, @RequestParam String element,
+												 @RequestParam(required = false) String mode, @RequestParam(required = false) String windowPercentage,
+												 @RequestParam(required = false) String gate, @RequestParam(required = false) String minDiffMs, @RequestParam(required = false) String confidence) throws JSONException, IOException, InterruptedException {
 		String serverUrl;
-		String Token;
-		String testId;
-		String jsonString;
-		String workspaceId;
-		String testname;
 
 		serverUrl = env.getProperty("Server");
-		Token = env.getProperty("Token");
-
-		HttpHeaders headers = createHeaders();
 
 // Check and handle missing parameters with default values or error messages
 		if (workspace == null) {
@@ -154,235 +294,226 @@ public class NeoLoadCompareApplication {
 		}
 
 		// Validate element type
-		Optional<String> elementOpt = validateElement(element);
+		Optional<String> elementOpt = ComparisonService.validateElement(element);
 		if (!elementOpt.isPresent()) {
 			return logAndRespondError(String.format("Invalid 'element' parameter. Valid options are: avgduration, percentile90, percentile95, percentile99 or false. Example usage: %s/NeoLoadCompare?workspace=demo&scenario=demo_scenario&baseline=1&percentage=10&element=avgduration", serverUrl));
 		}
 		String validElement = elementOpt.get();
-		if (validElement == null || validElement.equalsIgnoreCase("no") || validElement.equalsIgnoreCase("nej") || validElement.equalsIgnoreCase("false")) {
+		if (ComparisonService.isDisabled(validElement)) {
 			return Respond("compare against baseline=false");
 		}
 
-		//check workspace
-		jsonString = doHttpGet(serverUrl + "/v3/workspaces?allWorkspaces=true", Token);
-
-		workspaceId = getWorkspaceId(workspace, jsonString);
-
-		if (workspaceId.equals("NOT FOUND")) {
-			return logAndRespondError("workspace not found:" + workspace);
+		if (!isValidMode(mode)) {
+			return logAndRespondError("Invalid 'mode' parameter. Valid options are: aggregate or points");
 		}
 
-		//Hämta id på baseline
-		jsonString = doHttpGet(serverUrl + "/v3/workspaces/" + workspaceId + "/test-results?limit=30000&status=TERMINATED&&sort=-startDate", Token);
-		testId = getId("#" + baseline, scenario, jsonString);
-
-		if (testId.equals("NOT FOUND")) {
-			return logAndRespondError("Baseline not found:" + baseline);
+		ComparisonEngine.Gate significanceGate;
+		try {
+			significanceGate = significanceSettings.gate(gate, minDiffMs, confidence);
+		} catch (IllegalArgumentException e) {
+			return logAndRespondError(e.getMessage());
 		}
 
-		String latestTestId = getlatestTestId(jsonString, scenario);
+		ComparisonService.ComparisonSpec spec = new ComparisonService.ComparisonSpec(scenario, baseline, validElement, percentage, significanceGate);
+		ComparisonService.ComparisonResult result = "points".equals(mode)
+				? comparisonService.compareTimeSeries(workspace, spec, windowPercentage)
+				: comparisonService.compare(workspace, spec);
+		return respond(result);
+	}
 
-		if (latestTestId == "1") {
-			return logAndRespondError("Not same scenario name in the latest test");
+	@PostMapping(value = "NeoLoadCompare/batch")
+	public ResponseEntity<String> NeoLoadCompareBatch(@RequestBody String body) throws JSONException, IOException, InterruptedException {
+		BatchRequest batchRequest;
+		try {
+			batchRequest = parseBatchRequest(body);
+		} catch (IllegalArgumentException e) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, e.getMessage());
 		}
+		return respond(comparisonService.compareBatch(batchRequest.workspace(), batchRequest.specs()));
+	}
 
-		testname = getlatestName(jsonString);
-		HashMap<String, String> TransactionsElementsBaseline = new HashMap<String, String>();
-		HashMap<String, String> TransactionsElementsLatestTest = new HashMap<String, String>();
-		HashMap<String, String> TransactionsLatestTest = new HashMap<String, String>();
-		HashMap<String, String> TransactionsBaseline = new HashMap<String, String>();
-
-		jsonString = doHttpGet(serverUrl + "/v3/workspaces/" + workspaceId + "/test-results/" + latestTestId + "/elements?category=TRANSACTION", Token);
-		TransactionsElementsLatestTest = getTransactionElements(jsonString);
-		jsonString = doHttpGet(serverUrl + "/v3/workspaces/" + workspaceId + "/test-results/" + testId + "/elements?category=TRANSACTION", Token);
-		TransactionsElementsBaseline = getTransactionElements(jsonString);
-
-		if (TransactionsElementsLatestTest.size() != TransactionsElementsBaseline.size()) {
-			return logAndRespondError("The tests that are compared have different number of unique transactions names");
+	@PostMapping(value = "jobs")
+	public ResponseEntity<String> submitJob(@RequestParam String workspace, @RequestParam String scenario, @RequestParam String baseline, @RequestParam String percentage, @RequestParam String element, @RequestParam(required = false) String callbackUrl,
+											@RequestParam(required = false) String mode, @RequestParam(required = false) String windowPercentage,
+											@RequestParam(required = false) String gate, @RequestParam(required = false) String minDiffMs, @RequestParam(required = false) String confidence) {
+		try {
+			ComparisonJobService.validateCallbackUrl(callbackUrl);
+		} catch (IllegalArgumentException e) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, e.getMessage());
 		}
-
-		for (Map.Entry<String, String> entry : TransactionsElementsLatestTest.entrySet()) {
-			jsonString = doHttpGet(serverUrl + "/v3/workspaces/" + workspaceId + "/test-results/" + latestTestId + "/elements/" + entry.getValue() + "/values", Token);
-			TransactionsLatestTest.put(entry.getKey(), getValues(jsonString, validElement));
+		// A job answers 202 before it runs, so anything that would make the comparison throw is rejected here
+		if (!isValidPercentage(percentage)) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, "Invalid 'percentage' parameter, expected a number: " + percentage);
 		}
-		for (Map.Entry<String, String> entry : TransactionsElementsBaseline.entrySet()) {
-			jsonString = doHttpGet(serverUrl + "/v3/workspaces/" + workspaceId + "/test-results/" + testId + "/elements/" + entry.getValue() + "/values", Token);
-			TransactionsBaseline.put(entry.getKey(), getValues(jsonString, validElement));
+		if (windowPercentage != null && !isValidPercentage(windowPercentage)) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, "Invalid 'windowPercentage' parameter, expected a number: " + windowPercentage);
 		}
-
-		DecimalFormat df = new DecimalFormat("####0");
-		int AntalFel = 0;
-		Iterator<Map.Entry<String, String>> itr = TransactionsBaseline.entrySet().iterator();
-
-		double perIncre;
-		double baselineValue;
-		double latestValue;
-		List<String> felMeddelandenList = new ArrayList<>();
-		Map<String, List<String>> errorMap = new HashMap<>();
-
-		JSONObject mainJson = new JSONObject();
-		JSONArray transactions = new JSONArray();
-
-		while (itr.hasNext()) {
-			Map.Entry<String, String> entry = itr.next();
-
-			// Skip entries with "all-userpaths" in the key
-			if (entry.getKey().contains("all-userpaths")) {
-				continue;
-			}
-
-			// Calculate the percentage increase
-			perIncre = Double.parseDouble(df.format(checkProcent(entry.getValue(), TransactionsLatestTest.get(entry.getKey()))));
-
-			baselineValue = Double.parseDouble(df.format(parseDouble(entry.getValue())));
-			latestValue = Double.parseDouble(df.format(parseDouble(TransactionsLatestTest.get(entry.getKey()))));
-			mainJson.put("info", "Test failed because the increase from baseline is bigger than the allowed percentage value");
-			mainJson.put("element", validElement);
-			mainJson.put("percentage", percentage + "%");
-			mainJson.put("baselinetest", baseline);
-
-			// If the percentage increase exceeds the threshold, log an error
-			if (perIncre > parseDouble(percentage)) {
-				JSONObject transaction = new JSONObject();
-				transaction.put("baselineValue", String.valueOf(baselineValue));
-				transaction.put("latestValue", String.valueOf(latestValue));
-				transaction.put("increase", String.valueOf(perIncre) + "%");
-				transaction.put("transaction", entry.getKey());
-				// Add the transaction object to the transactions array
-				transactions.put(transaction);
-				// Populate mainJson with necessary data
-				mainJson.put("transactions", transactions);
-				AntalFel++; // Increment the error count
-			}
+		Optional<String> elementOpt = ComparisonService.validateElement(element);
+		if (!elementOpt.isPresent() || ComparisonService.isDisabled(elementOpt.get())) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, "Invalid 'element' parameter. Valid options are: avgduration, percentile90, percentile95, percentile99");
 		}
+		if (!isValidMode(mode)) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, "Invalid 'mode' parameter. Valid options are: aggregate or points");
+		}
+		ComparisonEngine.Gate significanceGate;
+		try {
+			significanceGate = significanceSettings.gate(gate, minDiffMs, confidence);
+		} catch (IllegalArgumentException e) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
+		ComparisonService.ComparisonSpec spec = new ComparisonService.ComparisonSpec(scenario, baseline, elementOpt.get(), percentage, significanceGate);
+		if ("points".equals(mode)) {
+			return submit(workspace + "/" + scenario + " #" + baseline + " " + spec.element() + " (points)", callbackUrl,
+					() -> comparisonService.compareTimeSeries(workspace, spec, windowPercentage));
+		}
+		return submit(workspace + "/" + scenario + " #" + baseline + " " + spec.element(), callbackUrl,
+				() -> comparisonService.compare(workspace, spec));
+	}
 
-		// Process results and return response
-		if (AntalFel > 0) {
-			// Create a JSON payload for the POST request
-			JSONObject jsonDescription = new JSONObject();
-			jsonDescription.put("name", testname);
-			jsonDescription.put("description", "NeoLoadCompare:\n" + formatJsonObjectWithArrayAndMain(mainJson, "transactions"));
-			jsonDescription.put("qualityStatus", "FAILED");
-
-			// Send the HTTP POST request with the error details
-			doHttpPost(serverUrl + "/v3/workspaces/" + workspaceId + "/test-results/" + latestTestId, jsonDescription.toString(), Token);
-
-			return ResponseEntity.internalServerError()
-					.headers(headers)
-					.body(mainJson.toString(4));
-		}
-		// If no errors, return a success message with test details
-		// Create outer JSON object
-		JSONObject jsonObject = new JSONObject();
-		// Create inner "workspace" object
-		JSONObject workspaceObject = new JSONObject();
-		workspaceObject.put("name", workspace);
-		workspaceObject.put("id", workspaceId);
-		// Create inner "baseline" object
-		JSONObject baselineObject = new JSONObject();
-		baselineObject.put("testId", testId);
-		baselineObject.put("name", baseline);
-		JSONObject comparisonObject = new JSONObject();
-		comparisonObject.put("percentageDifference", percentage);
-		comparisonObject.put("element", validElement);
-		// Create inner "latestTest" object
-		JSONObject latestTestObject = new JSONObject();
-		latestTestObject.put("testId", latestTestId);
-		latestTestObject.put("name", testname);
-		// Adding nested objects to the main JSON object
-		jsonObject.put("workspace", workspaceObject);
-		jsonObject.put("baseline", baselineObject);
-		jsonObject.put("comparison", comparisonObject);
-		jsonObject.put("latestTest", latestTestObject);
-		// Add "status" field (string)
-		jsonObject.put("status", "Check against baseline OK!");
-
-		return ResponseEntity.ok()
-				.headers(headers)
-				.body(jsonObject.toString(4)
-				);
+	@PostMapping(value = "jobs/batch")
+	public ResponseEntity<String> submitBatchJob(@RequestBody String body, @RequestParam(required = false) String callbackUrl) {
+		try {
+			ComparisonJobService.validateCallbackUrl(callbackUrl);
+		} catch (IllegalArgumentException e) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
+		BatchRequest batchRequest;
+		try {
+			batchRequest = parseBatchRequest(body);
+		} catch (IllegalArgumentException e) {
+			return logAndRespondError(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
+		return submit(batchRequest.workspace() + " batch of " + batchRequest.specs().size(), callbackUrl,
+				() -> comparisonService.compareBatch(batchRequest.workspace(), batchRequest.specs()));
 	}
 
-	public String getValues(String jsonString, String value) throws JSONException {
-		JSONObject object = new JSONObject(jsonString);
-		return object.get(value).toString();
+	@GetMapping(value = "jobs")
+	public ResponseEntity<String> jobStats() {
+		return ResponseEntity.ok()
+				.headers(createHeaders())
+				.body(comparisonJobService.getStats().toString(4));
 	}
 
-	public static HashMap<String, String> getTransactionElements(String jsonString) throws JSONException {
-		HashMap<String, String> Transaction = new HashMap<String, String>();
-		JSONArray jsonArray = new JSONArray(jsonString);
-		for (int n = 1; n < jsonArray.length(); n++) {
-			JSONObject object = jsonArray.getJSONObject(n);
-			if (object.get("path").toString().contains("Init")) {
-				continue;
-			}
-			Transaction.put(object.get("name").toString(), object.get("id").toString());
+	@GetMapping(value = "jobs/{jobId}")
+	public ResponseEntity<String> getJob(@PathVariable String jobId) {
+		ComparisonJobService.Job job = comparisonJobService.get(jobId);
+		if (job == null) {
+			return ResponseEntity.notFound().headers(createHeaders()).build();
 		}
-		return Transaction;
+		return ResponseEntity.ok()
+				.headers(createHeaders())
+				.body(job.toJson().toString(4));
 	}
 
-	public static double checkProcent(String BaselineResultat, String CurrentResultat) throws JSONException {
-		double perIncre;
-		perIncre = ((Double.parseDouble(CurrentResultat) - Double.parseDouble(BaselineResultat)) / Double.parseDouble(BaselineResultat)) * 100;
-		return perIncre;
+	@DeleteMapping(value = "jobs/{jobId}")
+	public ResponseEntity<String> cancelJob(@PathVariable String jobId) {
+		ComparisonJobService.Job job = comparisonJobService.get(jobId);
+		if (job == null) {
+			return ResponseEntity.notFound().headers(createHeaders()).build();
+		}
+		if (!comparisonJobService.cancel(job)) {
+			return ResponseEntity.status(HttpStatus.CONFLICT)
+					.headers(createHeaders())
+					.body(job.toJson().toString(4));
+		}
+		return ResponseEntity.ok()
+				.headers(createHeaders())
+				.body(job.toJson().toString(4));
 	}
 
-	public String getlatestTestId(String jsonString, String Scenario) throws JSONException {
-		JSONArray jsonArray = new JSONArray(jsonString);
-		JSONObject object = jsonArray.getJSONObject(0);
-		if (object.get("scenario").toString().equals(Scenario)) {
-
-		} else {
-			return "1";
+	private ResponseEntity<String> submit(String description, String callbackUrl, Callable<ComparisonService.ComparisonResult> comparison) {
+		ComparisonJobService.Job job;
+		try {
+			job = comparisonJobService.submit(description, callbackUrl, comparison);
+		} catch (RejectedExecutionException e) {
+			colorLogger.logError("Comparison job queue is full, rejecting " + description);
+			HttpHeaders headers = createHeaders();
+			headers.add(HttpHeaders.RETRY_AFTER, "30");
+			return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+					.headers(headers)
+					.body("{\"error\":\"Comparison job queue is full, retry later\"}");
 		}
-		return object.get("id").toString();
+		HttpHeaders headers = createHeaders();
+		headers.add(HttpHeaders.LOCATION, "/jobs/" + job.getId());
+		return ResponseEntity.accepted()
+				.headers(headers)
+				.body(job.toJson().toString(4));
 	}
 
-	public static String getlatestName(String jsonString) throws JSONException {
-		JSONArray jsonArray = new JSONArray(jsonString);
-		JSONObject object = jsonArray.getJSONObject(0);
-		return object.get("name").toString();
+	private static boolean isValidMode(String mode) {
+		return mode == null || mode.equals("aggregate") || mode.equals("points");
 	}
 
-	public static String getId(String Name, String Scenario, String jsonString) throws JSONException {
-		JSONArray jsonArray = new JSONArray(jsonString);
-		for (int n = 0; n < jsonArray.length(); n++) {
-			java.util.logging.Logger log = java.util.logging.Logger.getLogger(NeoLoadCompareApplication.class.getName());
-			//log.info(jsonString);
-			JSONObject object = jsonArray.getJSONObject(n);
-			if (object.get("name").toString().equals(Name) && object.get("scenario").toString().equals(Scenario)) {
-				return object.get("id").toString();
-			}
+	private static boolean isValidPercentage(String percentage) {
+		try {
+			return Double.isFinite(Double.parseDouble(percentage));
+		} catch (NumberFormatException e) {
+			return false;
 		}
-		return "NOT FOUND";
 	}
 
-	public static String getWorkspaceId(String Name, String jsonString) throws JSONException {
-		JSONArray jsonArray = new JSONArray(jsonString);
-		for (int n = 0; n < jsonArray.length(); n++) {
-			JSONObject object = jsonArray.getJSONObject(n);
-			if (object.get("name").toString().equals(Name)) {
-				return object.get("id").toString();
-			}
-		}
-		return "NOT FOUND";
+	private record BatchRequest(String workspace, List<ComparisonService.ComparisonSpec> specs) {
 	}
 
-	public class ColorLogger {
-
-		private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger("");
-
-		public void logDebug(String logging) {
-			LOGGER.debug("\u001B[92m" + logging + "\u001B[0m");
+	private BatchRequest parseBatchRequest(String body) {
+		JSONObject request;
+		try {
+			request = new JSONObject(body);
+		} catch (JSONException e) {
+			throw new IllegalArgumentException("Invalid JSON body: " + e.getMessage());
+		}
+		String workspace = request.optString("workspace", null);
+		JSONArray comparisons = request.optJSONArray("comparisons");
+		if (workspace == null || comparisons == null || comparisons.isEmpty()) {
+			throw new IllegalArgumentException("Body must contain workspace and a non-empty comparisons array. Example: {\"workspace\":\"demo\",\"comparisons\":[{\"scenario\":\"demo_scenario\",\"baseline\":\"1\",\"element\":\"avgduration\",\"percentage\":\"10\"}]}");
 		}
 
-		public void logInfo(String logging) {
-			LOGGER.info("\u001B[93m" + logging + "\u001B[0m");
+		List<ComparisonService.ComparisonSpec> specs = new ArrayList<>();
+		for (int n = 0; n < comparisons.length(); n++) {
+			JSONObject comparison = comparisons.optJSONObject(n);
+			if (comparison == null) {
+				throw new IllegalArgumentException("comparisons[" + n + "] must be an object");
+			}
+			String scenario = comparison.optString("scenario", null);
+			String baseline = comparison.optString("baseline", null);
+			String element = comparison.optString("element", null);
+			String percentage = comparison.optString("percentage", null);
+			if (scenario == null || baseline == null || element == null || percentage == null) {
+				throw new IllegalArgumentException("comparisons[" + n + "] must contain scenario, baseline, element and percentage");
+			}
+			try {
+				Double.parseDouble(percentage);
+			} catch (NumberFormatException e) {
+				// Otherwise it would only fail after the data of every comparison has been fetched
+				throw new IllegalArgumentException("comparisons[" + n + "] has an invalid percentage: " + percentage);
+			}
+			Optional<String> elementOpt = ComparisonService.validateElement(element);
+			if (!elementOpt.isPresent() || ComparisonService.isDisabled(elementOpt.get())) {
+				throw new IllegalArgumentException("comparisons[" + n + "] has an invalid element. Valid options are: avgduration, percentile90, percentile95, percentile99");
+			}
+			ComparisonEngine.Gate significanceGate;
+			try {
+				significanceGate = significanceSettings.gate(comparison.optString("gate", null), comparison.optString("minDiffMs", null),
+						comparison.optString("confidence", null));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("comparisons[" + n + "]: " + e.getMessage());
+			}
+			specs.add(new ComparisonService.ComparisonSpec(scenario, baseline, elementOpt.get(), percentage, significanceGate));
 		}
+		return new BatchRequest(workspace, specs);
+	}
 
-		public void logError(String logging) {
-			LOGGER.error("\u001B[91m" + logging + "\u001B[0m");
+	private ResponseEntity<String> respond(ComparisonService.ComparisonResult result) {
+		if (result.status() == ComparisonService.Status.OK) {
+			return ResponseEntity.ok()
+					.headers(createHeaders())
+					.body(result.body().toString(4));
 		}
+		// Errors keep the compact {"error":"..."} format of logAndRespondError
+		String body = result.body().has("error") ? result.body().toString() : result.body().toString(4);
+		return ResponseEntity.internalServerError()
+				.headers(createHeaders())
+				.body(body);
 	}
 
 	// Helper methods for building headers, validating elements, and making API requests
@@ -394,10 +525,23 @@ public class NeoLoadCompareApplication {
 		return headers;
 	}
 	private ResponseEntity<String> logAndRespondError(String errorMessage) {
+		return logAndRespondError(HttpStatus.INTERNAL_SERVER_ERROR, errorMessage);
+	}
+
+	private ResponseEntity<String> logAndRespondError(HttpStatus status, String errorMessage) {
 		colorLogger.logError(errorMessage);
-		return ResponseEntity.internalServerError()
+		return ResponseEntity.status(status)
 				.headers(createHeaders())
-				.body("{\"error\":\"" + errorMessage + "\"}");
+				// Messages can quote the request, e.g. the example body of a batch
+				.body(new JSONObject().put("error", errorMessage).toString());
+	}
+
+	// StreamingResponseBody is only recognized when it is the declared body type, errors of a streamed endpoint need one too
+	private ResponseEntity<StreamingResponseBody> streamError(String errorMessage) {
+		ResponseEntity<String> error = logAndRespondError(errorMessage);
+		return ResponseEntity.status(error.getStatusCode())
+				.headers(error.getHeaders())
+				.body(outputStream -> outputStream.write(error.getBody().getBytes(StandardCharsets.UTF_8)));
 	}
 
 	private ResponseEntity<String> Respond(String Message) {
@@ -406,99 +550,4 @@ public class NeoLoadCompareApplication {
 				.body("{\"message\":\"" + Message + "\"}");
 	}
 
-	private Optional<String> validateElement(String element) {
-		Set<String> validElements = Set.of("avgduration", "avgDuration", "percentile90", "percentile95", "percentile99","no","nej", "false");
-		String lowerElement = element.toLowerCase();
-		if (lowerElement.contains("avgduration")) {
-			lowerElement = "avgDuration";
-		}
-		return validElements.contains(lowerElement) ? Optional.of(lowerElement) : Optional.empty();
-	}
-
-	private static final String CONTENT_TYPE = "application/json";
-	private static final String ACCEPT = "application/json";
-	private static final String AUTH_ERROR_MSG = "ERROR: Unauthorized - check API token";
-	private static final String UNAUTHORIZED_KEYWORD = "Unauthorized";
-
-	private CloseableHttpClient createHttpClient() {
-		try {
-			SSLContext sslContext = SSLContextBuilder.create()
-					.loadTrustMaterial(null, (TrustStrategy) (cert, authType) -> true)
-					.build();
-
-			return HttpClients.custom()
-					.setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
-					.setSSLContext(sslContext)
-					.build();
-		} catch (NoSuchAlgorithmException | KeyManagementException | KeyStoreException e) {
-			throw new RuntimeException("Failed to create SSL context for HTTP client", e);
-		}
-	}
-
-	public String doHttpGet(String url, String accountToken) throws IOException, URISyntaxException {
-		HttpUriRequest request = RequestBuilder.get()
-				.setUri(url)
-				.setHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE)
-				.setHeader(HttpHeaders.ACCEPT, ACCEPT)
-				.setHeader("accountToken", accountToken)
-				.build();
-
-		return executeRequest(request);
-	}
-
-	public String doHttpPost(String url, String body, String accountToken) throws IOException, URISyntaxException {
-		HttpUriRequest request = RequestBuilder.patch()
-				.setUri(url)
-				.setHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE)
-				.setHeader(HttpHeaders.ACCEPT, ACCEPT)
-				.setHeader("accountToken", accountToken)
-				.setEntity(new StringEntity(body, StandardCharsets.UTF_8))
-				.build();
-
-		return executeRequest(request);
-	}
-
-	private String executeRequest(HttpUriRequest request) throws IOException {
-		try (CloseableHttpClient httpClient = createHttpClient();
-			 CloseableHttpResponse response = httpClient.execute(request)) {
-
-			String result = EntityUtils.toString(response.getEntity());
-			if (result.contains(UNAUTHORIZED_KEYWORD)) {
-				colorLogger.logError(AUTH_ERROR_MSG);
-				throw new IOException(AUTH_ERROR_MSG);
-			}
-			return result;
-		}
-	}
-
-	public String formatJsonObjectWithArrayAndMain(JSONObject jsonObject, String arrayKey) {
-		StringBuilder result = new StringBuilder();
-
-		// Process key-value pairs from the main JSON object, excluding the array
-		for (String key : jsonObject.keySet()) {
-			if (!key.equals(arrayKey)) { // Skip the array
-				result.append("\"").append(key).append("\":\"")
-						.append(jsonObject.get(key)).append("\"\n");
-			}
-		}
-
-		// Check if the key exists and is a JSONArray
-		if (jsonObject.has(arrayKey) && jsonObject.get(arrayKey) instanceof JSONArray) {
-			JSONArray jsonArray = jsonObject.getJSONArray(arrayKey);
-
-			for (int i = 0; i < jsonArray.length(); i++) {
-				JSONObject arrayObject = jsonArray.getJSONObject(i);
-				result.append("\n");
-				// Process each key-value pair in the JSONObject
-				for (String arrayKeyItem : arrayObject.keySet()) {
-					result.append("\"").append(arrayKeyItem).append("\":\"")
-							.append(arrayObject.get(arrayKeyItem)).append("\"\n");
-				}
-				result.append("\n\n");
-			}
-		} else {
-			result.append("No valid JSONArray found for key: ").append(arrayKey).append("\n");
-		}
-		return result.toString().replace("\"", "").replace("."," : ").replace(": 0","");
-	}
 }
@@ -0,0 +1,76 @@
+package com.neoloadcompare;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Reports whether NeoLoad Web answers /v3/information, with the latency of the call and the NeoLoad Web version.
+ * The result is reused for neoload.health.cache-seconds so frequent probes do not each cost an upstream call.
+ * It is part of the readiness group and not of liveness, so an instance gets no traffic while NeoLoad Web does not
+ * answer, but is not restarted for it.
+ */
+@Component("neoload")
+public class NeoLoadHealthIndicator implements HealthIndicator {
+
+	private record CachedHealth(Health health, long expiresAtNanos) {
+	}
+
+	private final NeoLoadClient neoLoadClient;
+	private final long cacheNanos;
+	private volatile CachedHealth cached;
+
+	public NeoLoadHealthIndicator(NeoLoadClient neoLoadClient,
+								  @Value("${neoload.health.cache-seconds:10}") long cacheSeconds) {
+		this.neoLoadClient = neoLoadClient;
+		this.cacheNanos = Duration.ofSeconds(cacheSeconds).toNanos();
+	}
+
+	@Override
+	public Health health() {
+		CachedHealth current = cached;
+		if (current != null && System.nanoTime() - current.expiresAtNanos() < 0) {
+			return current.health();
+		}
+		Health health = check();
+		cached = new CachedHealth(health, System.nanoTime() + cacheNanos);
+		return health;
+	}
+
+	private Health check() {
+		long start = System.nanoTime();
+		try {
+			String information = neoLoadClient.getInformation();
+			long latencyMs = Duration.ofNanos(System.nanoTime() - start).toMillis();
+			Health.Builder builder = Health.up()
+					.withDetail("server", neoLoadClient.getServerUrl())
+					.withDetail("latencyMs", latencyMs);
+			try {
+				JSONObject object = new JSONObject(information);
+				// NeoLoad Web answers an invalid token with a message instead of its information
+				if (object.has("message")) {
+					return Health.down().withDetail("server", neoLoadClient.getServerUrl()).withDetail("error", object.optString("message")).build();
+				}
+				String version = object.optString("version", null);
+				if (version != null) {
+					builder.withDetail("version", version);
+				}
+			} catch (JSONException e) {
+				return Health.down().withDetail("server", neoLoadClient.getServerUrl()).withDetail("error", "Unexpected /v3/information response").build();
+			}
+			return builder.build();
+		} catch (IOException | RuntimeException e) {
+			return Health.down()
+					.withDetail("server", String.valueOf(neoLoadClient.getServerUrl()))
+					.withDetail("latencyMs", Duration.ofNanos(System.nanoTime() - start).toMillis())
+					.withDetail("error", String.valueOf(e.getMessage()))
+					.build();
+		}
+	}
+}
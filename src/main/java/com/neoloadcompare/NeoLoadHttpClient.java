@@ -0,0 +1,537 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.ssl.TrustStrategy;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.SSLContext;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Single, long-lived connection-pooled HTTP client shared by every call towards NeoLoad Web.
+ * Connections are kept alive between requests so a comparison only pays for the TLS handshake once per pooled connection.
+ * Every call has a deadline, idempotent calls are retried, and a {@link CircuitBreaker}, a rate limit and the
+ * concurrency permits are shared by every comparison in flight, so a slow or failing NeoLoad Web is not hammered by
+ * each of them separately.
+ */
+@Component
+public class NeoLoadHttpClient implements DisposableBean {
+
+	private static final String CONTENT_TYPE = "application/json";
+	private static final String ACCEPT = "application/json";
+	private static final String AUTH_ERROR_MSG = "ERROR: Unauthorized - check API token";
+	private static final Set<Integer> RETRYABLE_STATUS = Set.of(429, 502, 503, 504);
+
+	@FunctionalInterface
+	public interface ResponseBodyHandler<T> {
+		T handle(InputStream body) throws IOException;
+	}
+
+	private record GetKey(String url, String accountToken) {
+	}
+
+	/**
+	 * An error status from NeoLoad Web, with the "message" of the response in the exception message.
+	 */
+	public static class HttpStatusException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int statusCode;
+
+		HttpStatusException(int statusCode, String message) {
+			super(message);
+			this.statusCode = statusCode;
+		}
+
+		public int statusCode() {
+			return statusCode;
+		}
+
+		/**
+		 * @return whether the same request may succeed later, i.e. for 429 and 5xx
+		 */
+		public boolean retryable() {
+			return statusCode == 429 || statusCode >= 500;
+		}
+	}
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final Semaphore upstreamPermits;
+	private final int maxConcurrency;
+	private final MeterRegistry meterRegistry;
+	private final CircuitBreaker circuitBreaker;
+	// Aborts calls that have not completed within requestTimeoutMs, socket timeouts alone do not bound a slow body
+	private final ScheduledThreadPoolExecutor deadlines;
+	private final long requestTimeoutMs;
+	private final int retries;
+	private final long retryBackoffMs;
+	private final long retryMaxBackoffMs;
+	private final long intervalNanos;
+	private final AtomicLong nextSlotNanos = new AtomicLong();
+	private final SingleFlight<GetKey, String> inFlightGets;
+
+	public NeoLoadHttpClient(@Value("${neoload.http.max-total:50}") int maxTotal,
+							 @Value("${neoload.http.max-per-route:20}") int maxPerRoute,
+							 @Value("${neoload.http.keep-alive-ms:30000}") long keepAliveMs,
+							 @Value("${neoload.http.idle-evict-seconds:30}") long idleEvictSeconds,
+							 @Value("${neoload.http.connect-timeout-ms:5000}") int connectTimeoutMs,
+							 @Value("${neoload.http.socket-timeout-ms:60000}") int socketTimeoutMs,
+							 @Value("${neoload.http.connection-request-timeout-ms:10000}") int connectionRequestTimeoutMs,
+							 @Value("${neoload.http.request-timeout-ms:120000}") long requestTimeoutMs,
+							 @Value("${neoload.http.retries:2}") int retries,
+							 @Value("${neoload.http.retry-backoff-ms:200}") long retryBackoffMs,
+							 @Value("${neoload.http.retry-max-backoff-ms:5000}") long retryMaxBackoffMs,
+							 @Value("${neoload.upstream.max-concurrency:16}") int maxConcurrency,
+							 @Value("${neoload.upstream.max-requests-per-second:0}") double maxRequestsPerSecond,
+							 @Value("${neoload.upstream.circuit.failure-threshold:5}") int circuitFailureThreshold,
+							 @Value("${neoload.upstream.circuit.open-seconds:30}") long circuitOpenSeconds,
+							 MeterRegistry meterRegistry) {
+		this.maxConcurrency = maxConcurrency;
+		this.meterRegistry = meterRegistry;
+		this.requestTimeoutMs = requestTimeoutMs;
+		this.retries = retries;
+		this.retryBackoffMs = retryBackoffMs;
+		this.retryMaxBackoffMs = retryMaxBackoffMs;
+		this.intervalNanos = maxRequestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond) : 0;
+		this.inFlightGets = new SingleFlight<>("upstream", meterRegistry);
+		this.circuitBreaker = new CircuitBreaker(circuitFailureThreshold, TimeUnit.SECONDS.toMillis(circuitOpenSeconds));
+		this.deadlines = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "neoload-http-deadlines");
+			thread.setDaemon(true);
+			return thread;
+		});
+		deadlines.setRemoveOnCancelPolicy(true);
+		// Global cap on concurrent calls towards NeoLoad Web, shared by every comparison in flight
+		upstreamPermits = new Semaphore(maxConcurrency, true);
+
+		connectionManager = new PoolingHttpClientConnectionManager(createSocketFactoryRegistry());
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		// Re-validate connections that have been idle for a while before they are handed out again
+		connectionManager.setValidateAfterInactivity(2000);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMs)
+				.setSocketTimeout(socketTimeoutMs)
+				.setConnectionRequestTimeout(connectionRequestTimeoutMs)
+				.build();
+
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy((response, context) -> {
+					long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+					return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMs) : keepAliveMs;
+				})
+				.evictExpiredConnections()
+				.evictIdleConnections(idleEvictSeconds, TimeUnit.SECONDS)
+				.build();
+
+		Gauge.builder("neoload.http.pool.leased", connectionManager, manager -> manager.getTotalStats().getLeased()).register(meterRegistry);
+		Gauge.builder("neoload.http.pool.available", connectionManager, manager -> manager.getTotalStats().getAvailable()).register(meterRegistry);
+		Gauge.builder("neoload.http.pool.pending", connectionManager, manager -> manager.getTotalStats().getPending()).register(meterRegistry);
+		Gauge.builder("neoload.upstream.in.flight", upstreamPermits, permits -> maxConcurrency - permits.availablePermits()).register(meterRegistry);
+		Gauge.builder("neoload.upstream.queued", upstreamPermits, Semaphore::getQueueLength).register(meterRegistry);
+		Gauge.builder("neoload.upstream.circuit.state", circuitBreaker, breaker -> breaker.state().ordinal())
+				.description("0 closed, 1 open, 2 half-open")
+				.register(meterRegistry);
+	}
+
+	private static Registry<ConnectionSocketFactory> createSocketFactoryRegistry() {
+		try {
+			SSLContext sslContext = SSLContextBuilder.create()
+					.loadTrustMaterial(null, (TrustStrategy) (cert, authType) -> true)
+					.build();
+
+			return RegistryBuilder.<ConnectionSocketFactory>create()
+					.register("http", PlainConnectionSocketFactory.getSocketFactory())
+					.register("https", new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE))
+					.build();
+		} catch (NoSuchAlgorithmException | KeyManagementException | KeyStoreException e) {
+			throw new RuntimeException("Failed to create SSL context for HTTP client", e);
+		}
+	}
+
+	/**
+	 * @param uri the endpoint template, e.g. /v3/workspaces/{workspaceId}/test-results, used to tag metrics
+	 */
+	public String get(String uri, String url, String accountToken) throws IOException {
+		try {
+			// Identical GETs in flight, e.g. the same values for comparisons that share a baseline, share one call
+			return inFlightGets.execute(new GetKey(url, accountToken), () -> getOnce(uri, url, accountToken));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for an identical NeoLoad Web call");
+		}
+	}
+
+	private String getOnce(String uri, String url, String accountToken) throws IOException {
+		return call(uri, () -> RequestBuilder.get()
+						.setUri(url)
+						.setHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE)
+						.setHeader(HttpHeaders.ACCEPT, ACCEPT)
+						.setHeader("accountToken", accountToken)
+						.build(),
+				true, true, (response, statusCode) -> readBody(uri, url, response, statusCode));
+	}
+
+	/**
+	 * Not retried, a PATCH that timed out may still have been applied.
+	 *
+	 * @throws HttpStatusException when NeoLoad Web answers with an error status
+	 */
+	public String patch(String uri, String url, String body, String accountToken) throws IOException {
+		return call(uri, () -> RequestBuilder.patch()
+						.setUri(url)
+						.setHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE)
+						.setHeader(HttpHeaders.ACCEPT, ACCEPT)
+						.setHeader("accountToken", accountToken)
+						.setEntity(new StringEntity(body, StandardCharsets.UTF_8))
+						.build(),
+				false, false, (response, statusCode) -> {
+					if (statusCode >= 400) {
+						String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+						throw new HttpStatusException(statusCode, "HTTP " + statusCode + " from " + url + ": " + message(result));
+					}
+					return readBody(uri, url, response, statusCode);
+				});
+	}
+
+	/**
+	 * @return the "message" of a NeoLoad Web error response, or the whole response when it has none
+	 */
+	private static String message(String body) {
+		try {
+			return new JSONObject(body).optString("message", body);
+		} catch (JSONException e) {
+			return body;
+		}
+	}
+
+	/**
+	 * Reads the response body of a GET as a stream. The handler may stop reading early, the rest of the body is then
+	 * discarded together with the connection instead of being downloaded.
+	 * Only failures before the handler is called are retried, since the handler may already have consumed part of the
+	 * body.
+	 */
+	public <T> T get(String uri, String url, String accountToken, ResponseBodyHandler<T> handler) throws IOException {
+		return call(uri, () -> RequestBuilder.get()
+						.setUri(url)
+						.setHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE)
+						.setHeader(HttpHeaders.ACCEPT, ACCEPT)
+						.setHeader("accountToken", accountToken)
+						.build(),
+				true, false, (response, statusCode) -> {
+					if (statusCode >= 400) {
+						throw new IOException("HTTP " + statusCode + " from " + url + ": " + EntityUtils.toString(response.getEntity()));
+					}
+					CountingInputStream body = new CountingInputStream(response.getEntity().getContent());
+					T result = handler.handle(body);
+					if (body.read() == -1) {
+						// Fully read, closing the stream hands the connection back to the pool for reuse.
+						// Otherwise closing the response aborts the connection instead of draining the rest of the body.
+						body.close();
+					}
+					responseSize(uri).record(body.count);
+					return result;
+				});
+	}
+
+	private String readBody(String uri, String url, CloseableHttpResponse response, int statusCode) throws IOException {
+		byte[] content = EntityUtils.toByteArray(response.getEntity());
+		responseSize(uri).record(content.length);
+		String result = new String(content, StandardCharsets.UTF_8);
+		if (statusCode >= 500) {
+			throw new IOException("HTTP " + statusCode + " from " + url + ": " + result);
+		}
+		// Other error responses are returned, callers read the NeoLoad Web "message" from them
+		return result;
+	}
+
+	@FunctionalInterface
+	private interface Exchange<T> {
+		T handle(CloseableHttpResponse response, int statusCode) throws IOException;
+	}
+
+	/**
+	 * Makes the call through the circuit breaker, the rate limit and the concurrency permits, with a deadline for the
+	 * whole exchange. Idempotent calls are retried with jittered exponential backoff on I/O errors, 429 and 502-504,
+	 * honouring Retry-After. 401 and 403 are reported as an invalid token and never retried.
+	 *
+	 * @param retryBody whether a failure while reading the body may be retried
+	 */
+	private <T> T call(String uri, Supplier<HttpUriRequest> requestFactory, boolean idempotent, boolean retryBody, Exchange<T> exchange) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			// Built first, an invalid URL must not take the trial call of a half-open circuit
+			HttpUriRequest request = requestFactory.get();
+			if (!circuitBreaker.tryAcquire()) {
+				meterRegistry.counter("neoload.upstream.errors", "uri", uri, "reason", "circuit_open").increment();
+				throw new IOException("NeoLoad Web is unavailable after repeated failures, next try in " + circuitBreaker.retryInMillis() + " ms");
+			}
+			try {
+				pace();
+				acquirePermit();
+			} catch (InterruptedIOException e) {
+				circuitBreaker.release();
+				throw e;
+			}
+			Timer.Sample sample = Timer.start(meterRegistry);
+			String status = "IO_ERROR";
+			int statusCode = -1;
+			long retryAfterMs = 0;
+			// Every permitted call must end the trial of a half-open circuit, whatever it throws
+			boolean outcomeRecorded = false;
+			ScheduledFuture<?> deadline;
+			try {
+				deadline = deadlines.schedule(request::abort, requestTimeoutMs, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// Shutting down
+				upstreamPermits.release();
+				circuitBreaker.release();
+				throw e;
+			}
+			try (CloseableHttpResponse response = httpClient.execute(request)) {
+				statusCode = response.getStatusLine().getStatusCode();
+				status = String.valueOf(statusCode);
+				if (statusCode >= 500) {
+					circuitBreaker.failure();
+				} else {
+					circuitBreaker.success();
+				}
+				outcomeRecorded = true;
+				if (statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == HttpStatus.SC_FORBIDDEN) {
+					colorLogger.logError(AUTH_ERROR_MSG);
+					throw new HttpStatusException(statusCode, AUTH_ERROR_MSG);
+				}
+				if (!idempotent || attempt >= retries || !RETRYABLE_STATUS.contains(statusCode)) {
+					return exchange.handle(response, statusCode);
+				}
+				retryAfterMs = retryAfterMs(response);
+				EntityUtils.consumeQuietly(response.getEntity());
+			} catch (IOException e) {
+				if (statusCode < 0) {
+					circuitBreaker.failure();
+					outcomeRecorded = true;
+				}
+				IOException failure = e;
+				if (deadline.isDone() && !deadline.isCancelled()) {
+					status = "TIMEOUT";
+					failure = new IOException("No complete response from " + request.getURI().getPath() + " within " + requestTimeoutMs + " ms", e);
+				}
+				boolean bodyFailure = statusCode >= 0;
+				if (!idempotent || attempt >= retries || statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == HttpStatus.SC_FORBIDDEN
+						|| (bodyFailure && (!retryBody || statusCode >= 400))) {
+					throw failure;
+				}
+			} finally {
+				if (!outcomeRecorded) {
+					// A RuntimeException, e.g. from a connection pool that is shut down, says nothing about NeoLoad Web
+					circuitBreaker.release();
+				}
+				deadline.cancel(false);
+				upstreamPermits.release();
+				record(sample, request.getMethod(), uri, status);
+			}
+			meterRegistry.counter("neoload.upstream.retries", "uri", uri).increment();
+			backoff(attempt, retryAfterMs);
+		}
+	}
+
+	/**
+	 * Full jitter: a random delay up to retryBackoffMs * 2^attempt, at least Retry-After, at most retryMaxBackoffMs.
+	 */
+	private void backoff(int attempt, long retryAfterMs) throws InterruptedIOException {
+		long ceiling = Math.min(retryMaxBackoffMs, retryBackoffMs << Math.min(attempt, 20));
+		long delayMs = Math.min(retryMaxBackoffMs, Math.max(retryAfterMs, ThreadLocalRandom.current().nextLong(ceiling + 1)));
+		try {
+			Thread.sleep(delayMs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry a NeoLoad Web call");
+		}
+	}
+
+	private static long retryAfterMs(CloseableHttpResponse response) {
+		Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+		if (retryAfter == null) {
+			return 0;
+		}
+		try {
+			return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.getValue().trim()));
+		} catch (NumberFormatException e) {
+			// HTTP dates are not worth parsing, the backoff applies
+			return 0;
+		}
+	}
+
+	/**
+	 * Spaces calls neoload.upstream.max-requests-per-second apart, shared by every comparison in flight.
+	 */
+	private void pace() throws InterruptedIOException {
+		if (intervalNanos == 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		long slot = Math.max(now, nextSlotNanos.getAndAccumulate(now, (next, current) -> Math.max(next, current) + intervalNanos));
+		if (slot > now) {
+			Timer.Sample sample = Timer.start(meterRegistry);
+			try {
+				TimeUnit.NANOSECONDS.sleep(slot - now);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the NeoLoad Web rate limit");
+			} finally {
+				sample.stop(meterRegistry.timer("neoload.upstream.rate.wait"));
+			}
+		}
+	}
+
+	private void acquirePermit() throws InterruptedIOException {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		try {
+			upstreamPermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a NeoLoad Web permit");
+		} finally {
+			sample.stop(meterRegistry.timer("neoload.upstream.permit.wait"));
+		}
+	}
+
+	private void record(Timer.Sample sample, String method, String uri, String status) {
+		sample.stop(Timer.builder("neoload.upstream.requests")
+				.description("Calls towards NeoLoad Web per endpoint template")
+				.tags("method", method, "uri", uri, "status", status)
+				.publishPercentileHistogram()
+				.register(meterRegistry));
+		String reason = switch (status) {
+			case "IO_ERROR" -> "io_error";
+			case "TIMEOUT" -> "timeout";
+			case "401", "403" -> "unauthorized";
+			case "404" -> "not_found";
+			default -> status.startsWith("5") ? "server_error" : status.startsWith("4") ? "client_error" : null;
+		};
+		if (reason != null) {
+			meterRegistry.counter("neoload.upstream.errors", "uri", uri, "reason", reason).increment();
+		}
+	}
+
+	private DistributionSummary responseSize(String uri) {
+		return DistributionSummary.builder("neoload.upstream.response.size")
+				.description("Size of NeoLoad Web response bodies, bytes read for streamed responses")
+				.baseUnit("bytes")
+				.tag("uri", uri)
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+	}
+
+	public JSONObject getPoolStats() {
+		PoolStats total = connectionManager.getTotalStats();
+		JSONObject stats = new JSONObject();
+		stats.put("leased", total.getLeased());
+		stats.put("available", total.getAvailable());
+		stats.put("pending", total.getPending());
+		stats.put("max", total.getMax());
+		stats.put("maxPerRoute", connectionManager.getDefaultMaxPerRoute());
+
+		JSONArray routes = new JSONArray();
+		for (HttpRoute route : connectionManager.getRoutes()) {
+			PoolStats routeStats = connectionManager.getStats(route);
+			HttpHost target = route.getTargetHost();
+			JSONObject routeObject = new JSONObject();
+			routeObject.put("route", target.toURI());
+			routeObject.put("leased", routeStats.getLeased());
+			routeObject.put("available", routeStats.getAvailable());
+			routeObject.put("pending", routeStats.getPending());
+			routeObject.put("max", routeStats.getMax());
+			routes.put(routeObject);
+		}
+		stats.put("routes", routes);
+		stats.put("upstreamInFlight", maxConcurrency - upstreamPermits.availablePermits());
+		stats.put("upstreamQueued", upstreamPermits.getQueueLength());
+		stats.put("upstreamMaxConcurrency", maxConcurrency);
+		stats.put("circuit", circuitBreaker.state().name());
+		return stats;
+	}
+
+	@Override
+	public void destroy() throws IOException {
+		deadlines.shutdownNow();
+		httpClient.close();
+	}
+}
@@ -0,0 +1,64 @@
+package com.neoloadcompare;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull parser for the /points response of one element that adds every point to a {@link TimeSeriesSummary} as it is
+ * read, so the time series of a long test is never held in memory.
+ */
+public final class PointsScanner {
+
+	// The caller owns the stream
+	private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+			.disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+			.build();
+
+	private PointsScanner() {
+	}
+
+	/**
+	 * @return the number of points read
+	 */
+	public static int scan(InputStream inputStream, TimeSeriesSummary summary) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new IOException("Unexpected points response, expected a JSON array");
+			}
+			int points = 0;
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				long from = 0;
+				long to = 0;
+				double avgDuration = Double.NaN;
+				double count = 0;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.currentName();
+					JsonToken value = parser.nextToken();
+					if (value.isStructStart()) {
+						parser.skipChildren();
+						continue;
+					}
+					if (value == JsonToken.VALUE_NULL) {
+						continue;
+					}
+					switch (field) {
+						case "from" -> from = parser.getValueAsLong();
+						case "to" -> to = parser.getValueAsLong();
+						case "AVG_DURATION" -> avgDuration = parser.getValueAsDouble(Double.NaN);
+						case "COUNT" -> count = parser.getValueAsDouble(0);
+						default -> {
+						}
+					}
+				}
+				summary.add(from, to, avgDuration, count);
+				points++;
+			}
+			return points;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.neoloadcompare;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reference built from the recent TERMINATED tests of one scenario, used instead of a single baseline test.
+ * Every test is folded in once: its values are stored per transaction in one of maxRuns slots, so computing the
+ * reference for any set of folded tests only reads the stored values, O(transactions x runs), and never fetches the
+ * tests again. When all slots are taken the oldest test that is not needed any more gives up its slot.
+ * The reference of a transaction is the median of each element over the tests that contain it.
+ */
+public final class RollingBaseline {
+
+	/**
+	 * Spread of one element of one transaction over the tests of a reference.
+	 *
+	 * @param runs number of tests that have a value
+	 */
+	public record Spread(int runs, double median, double mean, double standardDeviation) {
+	}
+
+	private static final int ELEMENTS = ComparisonEngine.ELEMENTS.length;
+
+	private final String workspaceId;
+	private final String scenario;
+	private final TestResultScanner.Run[] runs;
+	// transaction -> values by slot and element, NaN when the test of the slot has no value
+	private final Map<String, double[]> values = new HashMap<>();
+
+	public RollingBaseline(String workspaceId, String scenario, int maxRuns) {
+		this.workspaceId = workspaceId;
+		this.scenario = scenario;
+		this.runs = new TestResultScanner.Run[maxRuns];
+	}
+
+	public String workspaceId() {
+		return workspaceId;
+	}
+
+	public String scenario() {
+		return scenario;
+	}
+
+	public int maxRuns() {
+		return runs.length;
+	}
+
+	public synchronized boolean contains(String testId) {
+		return slot(testId) >= 0;
+	}
+
+	/**
+	 * Stores the values of run. Takes a free slot, or else the slot of the oldest test that is not in keep.
+	 *
+	 * @param keep ids of the tests that must stay, at most maxRuns
+	 * @return false when every slot holds a test of keep
+	 */
+	public synchronized boolean fold(TestResultScanner.Run run, Map<String, TransactionValues> runValues, Collection<String> keep) {
+		if (slot(run.testId()) >= 0) {
+			return true;
+		}
+		int slot = -1;
+		for (int n = 0; n < runs.length; n++) {
+			if (runs[n] == null) {
+				slot = n;
+				break;
+			}
+			if (!keep.contains(runs[n].testId()) && (slot < 0 || runs[n].startDate() < runs[slot].startDate())) {
+				slot = n;
+			}
+		}
+		if (slot < 0) {
+			return false;
+		}
+		runs[slot] = run;
+		for (double[] transactionValues : values.values()) {
+			Arrays.fill(transactionValues, slot * ELEMENTS, (slot + 1) * ELEMENTS, Double.NaN);
+		}
+		for (Map.Entry<String, TransactionValues> entry : runValues.entrySet()) {
+			double[] transactionValues = values.computeIfAbsent(entry.getKey(), key -> {
+				double[] empty = new double[runs.length * ELEMENTS];
+				Arrays.fill(empty, Double.NaN);
+				return empty;
+			});
+			for (int element = 0; element < ELEMENTS; element++) {
+				transactionValues[slot * ELEMENTS + element] = entry.getValue().get(ComparisonEngine.ELEMENTS[element]);
+			}
+		}
+		values.values().removeIf(RollingBaseline::isEmpty);
+		return true;
+	}
+
+	/**
+	 * @param testIds folded tests to build the reference from, tests that are not folded are ignored
+	 * @return transaction -> median of every element over the tests, for transactions that are in any of the tests
+	 */
+	public synchronized Map<String, TransactionValues> reference(Collection<String> testIds) {
+		int[] slots = slots(testIds);
+		Map<String, TransactionValues> reference = new HashMap<>();
+		double[] column = new double[slots.length];
+		double[] medians = new double[ELEMENTS];
+		for (Map.Entry<String, double[]> entry : values.entrySet()) {
+			boolean inAnyRun = false;
+			for (int element = 0; element < ELEMENTS; element++) {
+				int size = collect(entry.getValue(), slots, element, column);
+				inAnyRun |= size > 0;
+				medians[element] = median(column, size);
+			}
+			if (inAnyRun) {
+				// Min, max and count are not part of the comparison and not kept
+				reference.put(entry.getKey(), new TransactionValues(medians[0], medians[1], medians[2], medians[3], medians[4],
+						Double.NaN, Double.NaN, 0));
+			}
+		}
+		return reference;
+	}
+
+	/**
+	 * @return transaction -> spread of element over the tests, in transaction name order
+	 */
+	public synchronized Map<String, Spread> spread(Collection<String> testIds, String element) {
+		int elementIdx = ComparisonEngine.elementIndex(element);
+		int[] slots = slots(testIds);
+		double[] column = new double[slots.length];
+		Map<String, Spread> spread = new TreeMap<>();
+		for (Map.Entry<String, double[]> entry : values.entrySet()) {
+			int size = collect(entry.getValue(), slots, elementIdx, column);
+			if (size == 0) {
+				continue;
+			}
+			// Welford, the reference holds few runs but their values can be large
+			double mean = 0;
+			double m2 = 0;
+			for (int n = 0; n < size; n++) {
+				double delta = column[n] - mean;
+				mean += delta / (n + 1);
+				m2 += delta * (column[n] - mean);
+			}
+			spread.put(entry.getKey(), new Spread(size, median(column, size), mean, size > 1 ? Math.sqrt(m2 / (size - 1)) : 0));
+		}
+		return spread;
+	}
+
+	/**
+	 * @return the folded tests, newest first
+	 */
+	public synchronized List<TestResultScanner.Run> runs() {
+		return Arrays.stream(runs)
+				.filter(run -> run != null)
+				.sorted((a, b) -> Long.compare(b.startDate(), a.startDate()))
+				.toList();
+	}
+
+	private int slot(String testId) {
+		for (int n = 0; n < runs.length; n++) {
+			if (runs[n] != null && runs[n].testId().equals(testId)) {
+				return n;
+			}
+		}
+		return -1;
+	}
+
+	private int[] slots(Collection<String> testIds) {
+		return testIds.stream().mapToInt(this::slot).filter(slot -> slot >= 0).toArray();
+	}
+
+	/**
+	 * Copies the values of element in slots that are not NaN to column.
+	 *
+	 * @return number of values copied
+	 */
+	private static int collect(double[] transactionValues, int[] slots, int element, double[] column) {
+		int size = 0;
+		for (int slot : slots) {
+			double value = transactionValues[slot * ELEMENTS + element];
+			if (!Double.isNaN(value)) {
+				column[size++] = value;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Sorts the first size values of column in place.
+	 */
+	private static double median(double[] column, int size) {
+		if (size == 0) {
+			return Double.NaN;
+		}
+		Arrays.sort(column, 0, size);
+		return size % 2 == 1 ? column[size / 2] : (column[size / 2 - 1] + column[size / 2]) / 2;
+	}
+
+	private static boolean isEmpty(double[] transactionValues) {
+		for (double value : transactionValues) {
+			if (!Double.isNaN(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public synchronized JSONObject toJson() {
+		JSONObject object = new JSONObject();
+		object.put("workspaceId", workspaceId);
+		object.put("scenario", scenario);
+		object.put("maxRuns", runs.length);
+		JSONArray slots = new JSONArray();
+		for (TestResultScanner.Run run : runs) {
+			if (run == null) {
+				slots.put(JSONObject.NULL);
+				continue;
+			}
+			JSONObject slot = new JSONObject();
+			slot.put("testId", run.testId());
+			slot.put("name", run.name());
+			slot.put("startDate", run.startDate());
+			slots.put(slot);
+		}
+		object.put("runs", slots);
+		JSONObject transactions = new JSONObject();
+		for (Map.Entry<String, double[]> entry : values.entrySet()) {
+			JSONArray transactionValues = new JSONArray();
+			// JSON has no NaN
+			for (double value : entry.getValue()) {
+				transactionValues.put(Double.isNaN(value) ? JSONObject.NULL : value);
+			}
+			transactions.put(entry.getKey(), transactionValues);
+		}
+		object.put("transactions", transactions);
+		return object;
+	}
+
+	/**
+	 * @return the rolling baseline or null when it was stored with a different maxRuns
+	 */
+	public static RollingBaseline fromJson(JSONObject object, int maxRuns) {
+		if (object.getInt("maxRuns") != maxRuns) {
+			return null;
+		}
+		RollingBaseline rollingBaseline = new RollingBaseline(object.getString("workspaceId"), object.getString("scenario"), maxRuns);
+		JSONArray slots = object.getJSONArray("runs");
+		for (int n = 0; n < Math.min(maxRuns, slots.length()); n++) {
+			JSONObject slot = slots.optJSONObject(n);
+			if (slot != null) {
+				rollingBaseline.runs[n] = new TestResultScanner.Run(slot.getString("testId"), slot.optString("name"),
+						rollingBaseline.scenario, slot.optLong("startDate"));
+			}
+		}
+		JSONObject transactions = object.getJSONObject("transactions");
+		for (String transaction : transactions.keySet()) {
+			JSONArray stored = transactions.getJSONArray(transaction);
+			double[] transactionValues = new double[maxRuns * ELEMENTS];
+			for (int n = 0; n < transactionValues.length; n++) {
+				transactionValues[n] = stored.optDouble(n);
+			}
+			rollingBaseline.values.put(transaction, transactionValues);
+		}
+		return rollingBaseline;
+	}
+}
@@ -0,0 +1,134 @@
+package com.neoloadcompare;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Persistent {@link RollingBaseline} per (workspace id, scenario), so the tests folded into it are not fetched again
+ * after a restart. Each one is stored as JSON in neoload.data-dir/rolling-baselines/{workspaceId}/ and rewritten
+ * whenever a test is folded in.
+ */
+@Component
+public class RollingBaselineStore {
+
+	private record Key(String workspaceId, String scenario) {
+	}
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final Map<Key, RollingBaseline> rollingBaselines = new ConcurrentHashMap<>();
+	private final Path directory;
+	private final int maxRuns;
+	private final int defaultRuns;
+
+	public RollingBaselineStore(@Value("${neoload.data-dir:${user.home}/.neoloadcompare}") String dataDir,
+								@Value("${neoload.rolling.max-runs:20}") int maxRuns,
+								@Value("${neoload.rolling.default-runs:5}") int defaultRuns) {
+		this.directory = Path.of(dataDir, "rolling-baselines");
+		this.maxRuns = maxRuns;
+		this.defaultRuns = defaultRuns;
+	}
+
+	public int maxRuns() {
+		return maxRuns;
+	}
+
+	public int defaultRuns() {
+		return defaultRuns;
+	}
+
+	/**
+	 * @return the rolling baseline of the scenario, loaded from disk or empty
+	 */
+	public RollingBaseline get(String workspaceId, String scenario) {
+		return rollingBaselines.computeIfAbsent(new Key(workspaceId, scenario), key -> load(key));
+	}
+
+	public void save(RollingBaseline rollingBaseline) {
+		Path file = file(new Key(rollingBaseline.workspaceId(), rollingBaseline.scenario()));
+		Path tmp = null;
+		try {
+			Files.createDirectories(file.getParent());
+			// Unique, two comparisons of the scenario may fold tests in at once
+			tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			Files.writeString(tmp, rollingBaseline.toJson().toString(), StandardCharsets.UTF_8);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// Only the next restart is affected, it folds the tests in again
+			colorLogger.logError("Failed to write rolling baseline " + file + ": " + e.getMessage());
+			deleteQuietly(tmp);
+		}
+	}
+
+	private void deleteQuietly(Path tmp) {
+		if (tmp == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(tmp);
+		} catch (IOException e) {
+			colorLogger.logError("Failed to delete " + tmp + ": " + e.getMessage());
+		}
+	}
+
+	public void removeWorkspace(String workspaceId) {
+		rollingBaselines.keySet().removeIf(key -> key.workspaceId().equals(workspaceId));
+		delete(directory.resolve(encode(workspaceId)));
+	}
+
+	public void clear() {
+		rollingBaselines.clear();
+		delete(directory);
+	}
+
+	private RollingBaseline load(Key key) {
+		Path file = file(key);
+		if (Files.exists(file)) {
+			try {
+				RollingBaseline rollingBaseline = RollingBaseline.fromJson(new JSONObject(Files.readString(file, StandardCharsets.UTF_8)), maxRuns);
+				if (rollingBaseline != null) {
+					return rollingBaseline;
+				}
+				colorLogger.logInfo("Rebuilding rolling baseline " + file + ", neoload.rolling.max-runs has changed");
+			} catch (IOException | RuntimeException e) {
+				colorLogger.logError("Ignoring unreadable rolling baseline " + file + ": " + e.getMessage());
+			}
+		}
+		return new RollingBaseline(key.workspaceId(), key.scenario(), maxRuns);
+	}
+
+	private Path file(Key key) {
+		return directory.resolve(encode(key.workspaceId())).resolve(encode(key.scenario()) + ".json");
+	}
+
+	private static String encode(String name) {
+		return URLEncoder.encode(name, StandardCharsets.UTF_8);
+	}
+
+	private void delete(Path path) {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(path)) {
+			paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(p -> {
+				try {
+					Files.delete(p);
+				} catch (IOException e) {
+					colorLogger.logError("Failed to delete " + p + ": " + e.getMessage());
+				}
+			});
+		} catch (IOException e) {
+			colorLogger.logError("Failed to delete " + path + ": " + e.getMessage());
+		}
+	}
+}
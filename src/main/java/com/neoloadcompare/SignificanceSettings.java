@@ -0,0 +1,46 @@
+package com.neoloadcompare;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Defaults of the significance gate (gate=significance), used when a request does not set minDiffMs or confidence.
+ *
+ * @param minDiffMs  absolute floor of a failing increase in milliseconds
+ * @param confidence confidence of the one-sided test that the latest test is slower
+ */
+@Component
+public record SignificanceSettings(double minDiffMs, double confidence) {
+
+	// @Value on the constructor only, see TimeSeriesSettings
+	public SignificanceSettings(@Value("${neoload.significance.min-diff-ms:5}") double minDiffMs,
+								@Value("${neoload.significance.confidence:0.99}") double confidence) {
+		this.minDiffMs = minDiffMs;
+		this.confidence = confidence;
+	}
+
+	/**
+	 * @param gate       null or "percentage" for no gate, "significance" for the gate
+	 * @param minDiffMs  null for the default
+	 * @param confidence null for the default
+	 * @return the gate or null
+	 * @throws IllegalArgumentException when a parameter is invalid
+	 */
+	public ComparisonEngine.Gate gate(String gate, String minDiffMs, String confidence) {
+		if (gate == null || gate.equals("percentage")) {
+			if (minDiffMs != null || confidence != null) {
+				throw new IllegalArgumentException("minDiffMs and confidence require gate=significance");
+			}
+			return null;
+		}
+		if (!gate.equals("significance")) {
+			throw new IllegalArgumentException("Invalid 'gate' parameter. Valid options are: percentage or significance");
+		}
+		try {
+			return new ComparisonEngine.Gate(minDiffMs == null ? this.minDiffMs : Double.parseDouble(minDiffMs),
+					confidence == null ? this.confidence : Double.parseDouble(confidence));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("minDiffMs and confidence must be numbers");
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Collapses identical concurrent calls into one: the first caller for a key runs the call, every caller that arrives
+ * while it is in flight waits for and gets the same result or exception. Nothing is kept once the call completes.
+ * When the running call was interrupted, e.g. because its job was cancelled, the waiting callers run it again
+ * themselves instead of failing.
+ */
+public final class SingleFlight<K, V> {
+
+	@FunctionalInterface
+	public interface Call<V> {
+		V call() throws IOException, InterruptedException;
+	}
+
+	private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final Counter leaders;
+	private final Counter collapsed;
+
+	/**
+	 * @param name tag of the neoload.singleflight.calls counter
+	 */
+	public SingleFlight(String name, MeterRegistry meterRegistry) {
+		leaders = Counter.builder("neoload.singleflight.calls")
+				.description("Calls that ran (leader) or waited for an identical call in flight (collapsed)")
+				.tags("name", name, "role", "leader")
+				.register(meterRegistry);
+		collapsed = Counter.builder("neoload.singleflight.calls")
+				.description("Calls that ran (leader) or waited for an identical call in flight (collapsed)")
+				.tags("name", name, "role", "collapsed")
+				.register(meterRegistry);
+	}
+
+	public V execute(K key, Call<V> call) throws IOException, InterruptedException {
+		while (true) {
+			CompletableFuture<V> future = new CompletableFuture<>();
+			CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+			if (running == null) {
+				leaders.increment();
+				return lead(key, future, call);
+			}
+			collapsed.increment();
+			try {
+				return running.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+					continue;
+				}
+				if (cause instanceof IOException ioException) {
+					throw ioException;
+				}
+				if (cause instanceof RuntimeException runtimeException) {
+					throw runtimeException;
+				}
+				if (cause instanceof Error error) {
+					throw error;
+				}
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	private V lead(K key, CompletableFuture<V> future, Call<V> call) throws IOException, InterruptedException {
+		try {
+			V result = call.call();
+			future.complete(result);
+			return result;
+		} catch (IOException | InterruptedException | RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+}
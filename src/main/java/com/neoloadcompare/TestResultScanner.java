@@ -0,0 +1,156 @@
+package com.neoloadcompare;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull parser for a page of the test-results list that reads the response as it arrives and stops as soon as both the
+ * latest test (the first entry, since the list is sorted by -startDate) and the baseline have been found.
+ * Only id, name, scenario, startDate and status of each entry are materialized, everything else is skipped.
+ * The list is requested with status=TERMINATED, entries with another status are skipped all the same because the
+ * values of a test that is still running or failed to start cannot be compared.
+ */
+public final class TestResultScanner {
+
+	/**
+	 * @param latestTestId   id of the first TERMINATED entry or null if there is none
+	 * @param baselineTestId id of the entry matching the baseline name and scenario or "NOT FOUND"
+	 * @param scanned        number of entries read before the scan stopped
+	 */
+	public record TestResultLookup(String latestTestId, String latestName, String latestScenario, String baselineTestId,
+								   int scanned) {
+
+		public boolean baselineFound() {
+			return !baselineTestId.equals("NOT FOUND");
+		}
+	}
+
+	/**
+	 * @param startDate epoch milliseconds, 0 when the entry has none
+	 */
+	public record Run(String testId, String name, String scenario, long startDate) {
+	}
+
+	/**
+	 * @param latest  the first TERMINATED entry of the page or null if there is none
+	 * @param runs    the entries of the scenario in list order, at most the requested number
+	 * @param scanned number of entries read before the scan stopped
+	 * @param before  true when the scan stopped at an entry that started before the requested range
+	 */
+	public record ScenarioRuns(Run latest, List<Run> runs, int scanned, boolean before) {
+	}
+
+	// The caller owns the stream, closing it here would drain the rest of a response we have stopped reading
+	private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+			.disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+			.build();
+
+	private record Entry(Run run, boolean terminated) {
+	}
+
+	private TestResultScanner() {
+	}
+
+	public static TestResultLookup scan(InputStream inputStream, String baselineName, String scenario) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new IOException("Unexpected test-results response, expected a JSON array");
+			}
+			String latestTestId = null;
+			String latestName = null;
+			String latestScenario = null;
+			int scanned = 0;
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				Entry entry = readEntry(parser);
+				scanned++;
+				if (!entry.terminated()) {
+					continue;
+				}
+				Run run = entry.run();
+				if (latestTestId == null) {
+					latestTestId = run.testId();
+					latestName = run.name();
+					latestScenario = run.scenario();
+				}
+				if (baselineName.equals(run.name()) && scenario.equals(run.scenario())) {
+					return new TestResultLookup(latestTestId, latestName, latestScenario, run.testId(), scanned);
+				}
+			}
+			return new TestResultLookup(latestTestId, latestName, latestScenario, "NOT FOUND", scanned);
+		}
+	}
+
+	/**
+	 * Collects the entries of one scenario and stops once limit of them have been read.
+	 */
+	public static ScenarioRuns scanRuns(InputStream inputStream, String scenario, int limit) throws IOException {
+		return scanRuns(inputStream, scenario, limit, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Collects the entries of one scenario that started between fromMs and toMs, inclusive. Since the list is sorted
+	 * by -startDate the scan stops at the first entry that started before fromMs, or once limit entries have been read.
+	 */
+	public static ScenarioRuns scanRuns(InputStream inputStream, String scenario, int limit, long fromMs, long toMs) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new IOException("Unexpected test-results response, expected a JSON array");
+			}
+			Run latest = null;
+			List<Run> runs = new ArrayList<>();
+			int scanned = 0;
+			while (runs.size() < limit && parser.nextToken() == JsonToken.START_OBJECT) {
+				Entry entry = readEntry(parser);
+				scanned++;
+				if (!entry.terminated()) {
+					continue;
+				}
+				Run run = entry.run();
+				if (latest == null) {
+					latest = run;
+				}
+				if (run.startDate() < fromMs) {
+					return new ScenarioRuns(latest, runs, scanned, true);
+				}
+				if (scenario.equals(run.scenario()) && run.startDate() <= toMs) {
+					runs.add(run);
+				}
+			}
+			return new ScenarioRuns(latest, runs, scanned, false);
+		}
+	}
+
+	private static Entry readEntry(JsonParser parser) throws IOException {
+		String id = null;
+		String name = null;
+		String scenario = null;
+		long startDate = 0;
+		String status = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			JsonToken value = parser.nextToken();
+			if (value.isStructStart()) {
+				parser.skipChildren();
+				continue;
+			}
+			switch (field) {
+				case "id" -> id = parser.getValueAsString();
+				case "name" -> name = parser.getValueAsString();
+				case "scenario" -> scenario = parser.getValueAsString();
+				case "startDate" -> startDate = parser.getValueAsLong();
+				case "status" -> status = parser.getValueAsString();
+				default -> {
+				}
+			}
+		}
+		// An entry without a status is taken as TERMINATED, as the list was requested with that filter
+		return new Entry(new Run(id, name, scenario, startDate), status == null || status.equals("TERMINATED"));
+	}
+}
@@ -0,0 +1,319 @@
+package com.neoloadcompare;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Local copy of the element list and values of TERMINATED tests, which never change once fetched.
+ * Every test is one columnar snapshot file in neoload.data-dir/snapshots/{workspaceId}/: a dictionary of
+ * (transaction, element id) followed by one primitive column per value, read back with a memory-mapped buffer.
+ * The files of all workspaces together are capped at neoload.snapshots.max-mb, the least recently read ones are
+ * deleted first. The last read time is the modification time of the file, so the order survives a restart.
+ * <p>
+ * File layout, little endian:
+ * <pre>
+ * int magic, int version, int transactions, int dictionary bytes
+ * per transaction: short name length, name (UTF-8), short element id length, element id (UTF-8)
+ * padding to a multiple of 8
+ * double[transactions] per column of {@link #DOUBLE_COLUMNS}
+ * long[transactions] count
+ * </pre>
+ */
+@Component
+public class TestSnapshotStore {
+
+	/**
+	 * @param elements transaction name -> element id
+	 * @param values   transaction name -> values
+	 */
+	public record TestSnapshot(Map<String, String> elements, Map<String, TransactionValues> values) {
+	}
+
+	private record Entry(long size, long lastAccess) {
+	}
+
+	private static final int MAGIC = 0x4E4C4353;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+	private static final String[] DOUBLE_COLUMNS = {"avgDuration", "percentile50", "percentile90", "percentile95", "percentile99", "minDuration", "maxDuration"};
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final Map<Path, Entry> files = new ConcurrentHashMap<>();
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final Path directory;
+	private final boolean enabled;
+	private final long maxBytes;
+
+	public TestSnapshotStore(@Value("${neoload.data-dir:${user.home}/.neoloadcompare}") String dataDir,
+							 @Value("${neoload.snapshots.enabled:true}") boolean enabled,
+							 @Value("${neoload.snapshots.max-mb:512}") long maxMb) {
+		this.directory = Path.of(dataDir, "snapshots");
+		this.enabled = enabled;
+		this.maxBytes = maxMb * 1024 * 1024;
+		if (enabled) {
+			index();
+		}
+	}
+
+	/**
+	 * @return the snapshot of the test or null when it is not stored
+	 */
+	public TestSnapshot read(String workspaceId, String testId) {
+		if (!enabled) {
+			return null;
+		}
+		Path file = file(workspaceId, testId);
+		Entry entry = files.get(file);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			TestSnapshot snapshot = decode(buffer.order(ByteOrder.LITTLE_ENDIAN));
+			long now = System.currentTimeMillis();
+			files.computeIfPresent(file, (key, current) -> new Entry(current.size(), now));
+			Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+			hits.incrementAndGet();
+			return snapshot;
+		} catch (IOException | RuntimeException e) {
+			colorLogger.logError("Dropping unreadable snapshot " + file + ": " + e.getMessage());
+			remove(file);
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	public boolean contains(String workspaceId, String testId) {
+		return enabled && files.containsKey(file(workspaceId, testId));
+	}
+
+	/**
+	 * Stores a complete test: values must hold a value for every transaction of elements.
+	 */
+	public void write(String workspaceId, String testId, Map<String, String> elements, Map<String, TransactionValues> values) {
+		if (!enabled || contains(workspaceId, testId) || !values.keySet().containsAll(elements.keySet())) {
+			return;
+		}
+		Path file = file(workspaceId, testId);
+		Path tmp = null;
+		try {
+			ByteBuffer buffer = encode(elements, values);
+			Files.createDirectories(file.getParent());
+			// Unique, two comparisons may store the same test at once
+			tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			if (files.put(file, new Entry(buffer.capacity(), System.currentTimeMillis())) == null) {
+				totalBytes.addAndGet(buffer.capacity());
+			}
+			evict();
+		} catch (IOException | IllegalArgumentException e) {
+			// The snapshot is an optimization, the test is fetched from NeoLoad Web again next time
+			colorLogger.logError("Failed to write snapshot " + file + ": " + e.getMessage());
+			deleteQuietly(tmp);
+		}
+	}
+
+	private void deleteQuietly(Path tmp) {
+		if (tmp == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(tmp);
+		} catch (IOException e) {
+			colorLogger.logError("Failed to delete " + tmp + ": " + e.getMessage());
+		}
+	}
+
+	public void removeWorkspace(String workspaceId) {
+		Path workspaceDirectory = directory.resolve(encode(workspaceId));
+		files.keySet().stream().filter(file -> file.startsWith(workspaceDirectory)).toList().forEach(this::remove);
+	}
+
+	public void clear() {
+		files.keySet().stream().toList().forEach(this::remove);
+	}
+
+	public JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("enabled", enabled);
+		stats.put("size", files.size());
+		stats.put("bytes", totalBytes.get());
+		stats.put("maxBytes", maxBytes);
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		stats.put("evictions", evictions.get());
+		return stats;
+	}
+
+	static ByteBuffer encode(Map<String, String> elements, Map<String, TransactionValues> values) {
+		List<String> transactions = new ArrayList<>(elements.keySet());
+		List<byte[]> dictionary = new ArrayList<>();
+		int dictionaryBytes = 0;
+		for (String transaction : transactions) {
+			byte[] name = transaction.getBytes(StandardCharsets.UTF_8);
+			byte[] elementId = elements.get(transaction).getBytes(StandardCharsets.UTF_8);
+			if (name.length > Short.MAX_VALUE || elementId.length > Short.MAX_VALUE) {
+				throw new IllegalArgumentException("Transaction name too long: " + transaction);
+			}
+			dictionary.add(name);
+			dictionary.add(elementId);
+			dictionaryBytes += 4 + name.length + elementId.length;
+		}
+		int columnsOffset = align(HEADER_BYTES + dictionaryBytes);
+		int n = transactions.size();
+		ByteBuffer buffer = ByteBuffer.allocate(columnsOffset + (DOUBLE_COLUMNS.length + 1) * 8 * n).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(dictionaryBytes);
+		for (byte[] bytes : dictionary) {
+			buffer.putShort((short) bytes.length).put(bytes);
+		}
+		buffer.position(columnsOffset);
+		for (String column : DOUBLE_COLUMNS) {
+			for (String transaction : transactions) {
+				buffer.putDouble(value(values.get(transaction), column));
+			}
+		}
+		for (String transaction : transactions) {
+			buffer.putLong(values.get(transaction).count());
+		}
+		return buffer.flip();
+	}
+
+	static TestSnapshot decode(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("not a snapshot of version " + VERSION);
+		}
+		int n = buffer.getInt(8);
+		int dictionaryBytes = buffer.getInt(12);
+		int columnsOffset = align(HEADER_BYTES + dictionaryBytes);
+		if (n < 0 || buffer.limit() != columnsOffset + (DOUBLE_COLUMNS.length + 1) * 8 * n) {
+			throw new IOException("truncated snapshot");
+		}
+		String[] transactions = new String[n];
+		Map<String, String> elements = new HashMap<>();
+		buffer.position(HEADER_BYTES);
+		for (int id = 0; id < n; id++) {
+			transactions[id] = string(buffer);
+			elements.put(transactions[id], string(buffer));
+		}
+		DoubleBuffer[] columns = new DoubleBuffer[DOUBLE_COLUMNS.length];
+		for (int column = 0; column < columns.length; column++) {
+			columns[column] = buffer.slice(columnsOffset + column * 8 * n, 8 * n).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		}
+		LongBuffer counts = buffer.slice(columnsOffset + DOUBLE_COLUMNS.length * 8 * n, 8 * n).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+		Map<String, TransactionValues> values = new HashMap<>();
+		for (int id = 0; id < n; id++) {
+			values.put(transactions[id], new TransactionValues(columns[0].get(id), columns[1].get(id), columns[2].get(id),
+					columns[3].get(id), columns[4].get(id), columns[5].get(id), columns[6].get(id), counts.get(id)));
+		}
+		return new TestSnapshot(elements, values);
+	}
+
+	private static String string(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static double value(TransactionValues values, String column) {
+		return switch (column) {
+			case "minDuration" -> values.minDuration();
+			case "maxDuration" -> values.maxDuration();
+			default -> values.get(column);
+		};
+	}
+
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	/**
+	 * Deletes the least recently read snapshots until the store is within maxBytes.
+	 */
+	private synchronized void evict() {
+		while (totalBytes.get() > maxBytes && !files.isEmpty()) {
+			Path oldest = null;
+			long oldestAccess = Long.MAX_VALUE;
+			for (Map.Entry<Path, Entry> entry : files.entrySet()) {
+				if (entry.getValue().lastAccess() < oldestAccess) {
+					oldest = entry.getKey();
+					oldestAccess = entry.getValue().lastAccess();
+				}
+			}
+			remove(oldest);
+			evictions.incrementAndGet();
+		}
+	}
+
+	private void remove(Path file) {
+		Entry entry = files.remove(file);
+		if (entry != null) {
+			totalBytes.addAndGet(-entry.size());
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			colorLogger.logError("Failed to delete snapshot " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void index() {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(directory, 2)) {
+			paths.filter(path -> path.getFileName().toString().endsWith(".snapshot")).forEach(file -> {
+				try {
+					long size = Files.size(file);
+					files.put(file, new Entry(size, Files.getLastModifiedTime(file).toMillis()));
+					totalBytes.addAndGet(size);
+				} catch (IOException e) {
+					colorLogger.logError("Ignoring snapshot " + file + ": " + e.getMessage());
+				}
+			});
+		} catch (IOException e) {
+			colorLogger.logError("Failed to index snapshots in " + directory + ": " + e.getMessage());
+		}
+		colorLogger.logInfo("Found " + files.size() + " test snapshots (" + totalBytes.get() / 1024 + " KB) in " + directory);
+		evict();
+	}
+
+	private Path file(String workspaceId, String testId) {
+		return directory.resolve(encode(workspaceId)).resolve(encode(testId) + ".snapshot");
+	}
+
+	private static String encode(String name) {
+		return URLEncoder.encode(name, StandardCharsets.UTF_8);
+	}
+}
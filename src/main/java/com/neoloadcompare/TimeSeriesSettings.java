@@ -0,0 +1,39 @@
+package com.neoloadcompare;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings of the time-series (mode=points) comparison.
+ *
+ * @param warmupPercent     part of the test at the start that is not compared
+ * @param cooldownPercent   part of the test at the end that is not compared
+ * @param windowSeconds     minimum window length, windows get longer when the steady state would need more than
+ *                          maxWindows
+ * @param maxWindows        bound of the number of windows per transaction and test
+ * @param minWindowCount    windows with fewer requests are not considered for the worst window
+ * @param relativeAccuracy  relative accuracy of the percentiles
+ * @param maxBuckets        bound of the sketch size per transaction and test
+ */
+@Component
+public record TimeSeriesSettings(int warmupPercent, int cooldownPercent, long windowSeconds, int maxWindows,
+								 double minWindowCount, double relativeAccuracy, int maxBuckets) {
+
+	// @Value goes on the constructor only: on the record components it would also land on the final fields, which
+	// Spring AOT then tries to inject
+	public TimeSeriesSettings(@Value("${neoload.timeseries.warmup-percent:10}") int warmupPercent,
+							  @Value("${neoload.timeseries.cooldown-percent:5}") int cooldownPercent,
+							  @Value("${neoload.timeseries.window-seconds:60}") long windowSeconds,
+							  @Value("${neoload.timeseries.max-windows:360}") int maxWindows,
+							  @Value("${neoload.timeseries.min-window-count:30}") double minWindowCount,
+							  @Value("${neoload.timeseries.relative-accuracy:0.01}") double relativeAccuracy,
+							  @Value("${neoload.timeseries.max-buckets:1024}") int maxBuckets) {
+		this.warmupPercent = warmupPercent;
+		this.cooldownPercent = cooldownPercent;
+		this.windowSeconds = windowSeconds;
+		this.maxWindows = maxWindows;
+		this.minWindowCount = minWindowCount;
+		this.relativeAccuracy = relativeAccuracy;
+		this.maxBuckets = maxBuckets;
+	}
+}
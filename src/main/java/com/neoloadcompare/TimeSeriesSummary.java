@@ -0,0 +1,115 @@
+package com.neoloadcompare;
+
+/**
+ * Constant-memory summary of the /points time series of one transaction in one test.
+ * Only the steady state is kept, i.e. the test without its warm-up and cool-down. It is cut into fixed windows that
+ * each keep the count-weighted mean and variance of AVG_DURATION (Welford), and every point also goes into a
+ * {@link DurationSketch}. Memory depends on the number of windows and sketch buckets, not on the test length.
+ */
+public final class TimeSeriesSummary {
+
+	/**
+	 * How the steady state of a test is cut into windows, the same for every transaction of the test.
+	 *
+	 * @param steadyFromMs start of the steady state, offset from the test start
+	 * @param steadyToMs   end of the steady state, offset from the test start
+	 */
+	public record Layout(long steadyFromMs, long steadyToMs, long windowMs, int windows) {
+
+		public static Layout of(long durationMs, TimeSeriesSettings settings) {
+			long steadyFromMs = durationMs * settings.warmupPercent() / 100;
+			long steadyToMs = durationMs - durationMs * settings.cooldownPercent() / 100;
+			long steadyMs = Math.max(1, steadyToMs - steadyFromMs);
+			long windowMs = Math.max(settings.windowSeconds() * 1000L, (steadyMs + settings.maxWindows() - 1) / settings.maxWindows());
+			int windows = (int) Math.max(1, (steadyMs + windowMs - 1) / windowMs);
+			return new Layout(steadyFromMs, steadyToMs, windowMs, windows);
+		}
+	}
+
+	/**
+	 * @param fromMs start of the window, offset from the test start
+	 * @param mean   count-weighted mean of AVG_DURATION in the window
+	 */
+	public record Window(long fromMs, long toMs, double mean, double standardDeviation, double count) {
+	}
+
+	private final Layout layout;
+	private final double[] weights;
+	private final double[] means;
+	private final double[] m2;
+	private final DurationSketch steadyState;
+
+	public TimeSeriesSummary(Layout layout, TimeSeriesSettings settings) {
+		this.layout = layout;
+		this.weights = new double[layout.windows()];
+		this.means = new double[layout.windows()];
+		this.m2 = new double[layout.windows()];
+		this.steadyState = new DurationSketch(settings.relativeAccuracy(), settings.maxBuckets());
+	}
+
+	/**
+	 * Adds one point. Points without requests or without a duration are ignored.
+	 *
+	 * @param fromMs      start of the point, offset from the test start
+	 * @param avgDuration AVG_DURATION of the point
+	 * @param count       COUNT of the point, used as weight
+	 */
+	public void add(long fromMs, long toMs, double avgDuration, double count) {
+		if (!(count > 0) || Double.isNaN(avgDuration)) {
+			return;
+		}
+		long middle = fromMs + (toMs - fromMs) / 2;
+		if (middle < layout.steadyFromMs() || middle >= layout.steadyToMs()) {
+			return;
+		}
+		int window = (int) Math.min(layout.windows() - 1, (middle - layout.steadyFromMs()) / layout.windowMs());
+		weights[window] += count;
+		double delta = avgDuration - means[window];
+		means[window] += delta * count / weights[window];
+		m2[window] += count * delta * (avgDuration - means[window]);
+		steadyState.add(avgDuration, count);
+	}
+
+	public Layout layout() {
+		return layout;
+	}
+
+	/**
+	 * @param element one of {@link ComparisonEngine#ELEMENTS}
+	 * @return the element over the steady state: the count-weighted mean for avgDuration, otherwise the percentile of
+	 * the point durations weighted by count; NaN when the steady state has no points
+	 */
+	public double steadyState(String element) {
+		return switch (element) {
+			case "avgDuration" -> steadyState.mean();
+			case "percentile50" -> steadyState.quantile(0.50);
+			case "percentile90" -> steadyState.quantile(0.90);
+			case "percentile95" -> steadyState.quantile(0.95);
+			case "percentile99" -> steadyState.quantile(0.99);
+			default -> throw new IllegalArgumentException("Unknown element: " + element);
+		};
+	}
+
+	public double steadyStateCount() {
+		return steadyState.totalWeight();
+	}
+
+	/**
+	 * @param minCount windows with fewer requests are ignored
+	 * @return the window with the highest mean, or null when no window has enough requests
+	 */
+	public Window worstWindow(double minCount) {
+		int worst = -1;
+		for (int window = 0; window < weights.length; window++) {
+			if (weights[window] >= minCount && (worst < 0 || means[window] > means[worst])) {
+				worst = window;
+			}
+		}
+		if (worst < 0) {
+			return null;
+		}
+		long fromMs = layout.steadyFromMs() + worst * layout.windowMs();
+		return new Window(fromMs, Math.min(layout.steadyToMs(), fromMs + layout.windowMs()), means[worst],
+				Math.sqrt(m2[worst] / weights[worst]), weights[worst]);
+	}
+}
@@ -0,0 +1,41 @@
+package com.neoloadcompare;
+
+import org.json.JSONObject;
+
+/**
+ * The aggregated values of one transaction in one test, as returned by /elements/{id}/values.
+ * Missing values are NaN.
+ */
+public record TransactionValues(double avgDuration, double percentile50, double percentile90, double percentile95,
+								double percentile99, double minDuration, double maxDuration, long count) {
+
+	public static TransactionValues fromJson(String jsonString) {
+		return fromJson(new JSONObject(jsonString));
+	}
+
+	public static TransactionValues fromJson(JSONObject object) {
+		return new TransactionValues(
+				object.optDouble("avgDuration"),
+				object.optDouble("percentile50"),
+				object.optDouble("percentile90"),
+				object.optDouble("percentile95"),
+				object.optDouble("percentile99"),
+				object.optDouble("minDuration"),
+				object.optDouble("maxDuration"),
+				object.optLong("count"));
+	}
+
+	/**
+	 * @param element one of avgDuration, percentile90, percentile95 or percentile99
+	 */
+	public double get(String element) {
+		return switch (element) {
+			case "avgDuration" -> avgDuration;
+			case "percentile50" -> percentile50;
+			case "percentile90" -> percentile90;
+			case "percentile95" -> percentile95;
+			case "percentile99" -> percentile99;
+			default -> throw new IllegalArgumentException("Unknown element: " + element);
+		};
+	}
+}
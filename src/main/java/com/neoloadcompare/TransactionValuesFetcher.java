@@ -0,0 +1,126 @@
+package com.neoloadcompare;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches /elements/{id}/values, or any other per-element data, for every transaction of one or more tests
+ * concurrently.
+ * Each fetch runs on its own virtual thread; the number of fetches in flight for one comparison is capped by
+ * neoload.compare.parallelism and the total towards NeoLoad Web by the shared {@link NeoLoadHttpClient}.
+ * Values that are already cached are returned without a call to NeoLoad Web, and the values of every test that was
+ * fetched completely are stored in the {@link TestSnapshotStore}.
+ */
+@Component
+public class TransactionValuesFetcher implements DisposableBean {
+
+	public record FetchResult<T>(Map<String, T> values, Map<String, String> errors) {
+	}
+
+	@FunctionalInterface
+	public interface ElementFetch<T> {
+		T fetch(String testId, String elementId) throws Exception;
+	}
+
+	private record FetchTask(String testId, String transaction, String elementId) {
+	}
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final NeoLoadClient neoLoadClient;
+	private final TestSnapshotStore testSnapshotStore;
+	private final int parallelism;
+	private final long timeoutSeconds;
+
+	public TransactionValuesFetcher(NeoLoadClient neoLoadClient, TestSnapshotStore testSnapshotStore,
+									@Value("${neoload.compare.parallelism:8}") int parallelism,
+									@Value("${neoload.compare.timeout-seconds:300}") long timeoutSeconds) {
+		this.neoLoadClient = neoLoadClient;
+		this.testSnapshotStore = testSnapshotStore;
+		this.parallelism = parallelism;
+		this.timeoutSeconds = timeoutSeconds;
+	}
+
+	/**
+	 * Fetches the values of every transaction of every test, all tests at once.
+	 *
+	 * @param elementsByTestId testId -> (transaction name -> element id)
+	 * @return testId -> fetched values and per-transaction errors; transactions that failed or did not finish
+	 * before the comparison deadline are reported in errors instead of values
+	 */
+	public Map<String, FetchResult<TransactionValues>> fetchValues(String workspaceId, Map<String, Map<String, String>> elementsByTestId) throws InterruptedException {
+		Map<String, FetchResult<TransactionValues>> results = fetch(elementsByTestId, (testId, elementId) -> neoLoadClient.getValues(workspaceId, testId, elementId));
+		for (Map.Entry<String, FetchResult<TransactionValues>> result : results.entrySet()) {
+			// Values NeoLoad Web answered with an error for are in errors, so only checked values are persisted
+			if (result.getValue().errors().isEmpty()) {
+				testSnapshotStore.write(workspaceId, result.getKey(), elementsByTestId.get(result.getKey()), result.getValue().values());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Runs fetch for every transaction of every test with the same parallelism and deadline as {@link #fetchValues}.
+	 */
+	public <T> Map<String, FetchResult<T>> fetch(Map<String, Map<String, String>> elementsByTestId, ElementFetch<T> fetch) throws InterruptedException {
+		Semaphore permits = new Semaphore(parallelism);
+		List<FetchTask> tasks = new ArrayList<>();
+		List<Callable<T>> callables = new ArrayList<>();
+		for (Map.Entry<String, Map<String, String>> test : elementsByTestId.entrySet()) {
+			for (Map.Entry<String, String> transaction : test.getValue().entrySet()) {
+				FetchTask task = new FetchTask(test.getKey(), transaction.getKey(), transaction.getValue());
+				tasks.add(task);
+				callables.add(() -> {
+					permits.acquire();
+					try {
+						return fetch.fetch(task.testId(), task.elementId());
+					} finally {
+						permits.release();
+					}
+				});
+			}
+		}
+
+		// invokeAll cancels every task that has not completed when the deadline is reached
+		List<Future<T>> futures = executor.invokeAll(callables, timeoutSeconds, TimeUnit.SECONDS);
+
+		Map<String, FetchResult<T>> results = new LinkedHashMap<>();
+		for (String testId : elementsByTestId.keySet()) {
+			results.put(testId, new FetchResult<>(new HashMap<>(), new HashMap<>()));
+		}
+		for (int i = 0; i < tasks.size(); i++) {
+			FetchTask task = tasks.get(i);
+			FetchResult<T> result = results.get(task.testId());
+			try {
+				result.values().put(task.transaction(), futures.get(i).get());
+			} catch (CancellationException e) {
+				result.errors().put(task.transaction(), "Deadline of " + timeoutSeconds + "s exceeded");
+			} catch (ExecutionException e) {
+				String message = e.getCause().getClass().getSimpleName() + ": " + e.getCause().getMessage();
+				colorLogger.logError("Failed to fetch transaction '" + task.transaction() + "' in test " + task.testId() + " - " + message);
+				result.errors().put(task.transaction(), message);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+}
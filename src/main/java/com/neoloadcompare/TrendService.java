@@ -0,0 +1,180 @@
+package com.neoloadcompare;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * One element of every transaction over many tests of a scenario.
+ * The tests are fetched concurrently, at most neoload.trend.parallel-tests at a time on top of the per-test
+ * parallelism of {@link TransactionValuesFetcher}, so tests that are cached or stored as a snapshot are read without
+ * calling NeoLoad Web and tests fetched here are cached for the next comparison. Every test is written as one NDJSON
+ * line as soon as it is done, in completion order, and the per-transaction series in test order follow at the end.
+ */
+@Service
+public class TrendService {
+
+	private record TestTrend(TestResultScanner.Run run, Map<String, TransactionValues> values, Map<String, String> errors) {
+	}
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final NeoLoadClient neoLoadClient;
+	private final TransactionValuesFetcher transactionValuesFetcher;
+	private final int parallelTests;
+	private final int maxTests;
+
+	public TrendService(NeoLoadClient neoLoadClient, TransactionValuesFetcher transactionValuesFetcher,
+						@Value("${neoload.trend.parallel-tests:4}") int parallelTests,
+						@Value("${neoload.trend.max-tests:500}") int maxTests) {
+		this.neoLoadClient = neoLoadClient;
+		this.transactionValuesFetcher = transactionValuesFetcher;
+		this.parallelTests = parallelTests;
+		this.maxTests = maxTests;
+	}
+
+	public int maxTests() {
+		return maxTests;
+	}
+
+	/**
+	 * @return the tests newest first, at most tests of them
+	 */
+	public List<TestResultScanner.Run> findTests(String workspaceId, String scenario, int tests, long fromMs, long toMs) throws IOException {
+		return neoLoadClient.findRecentRuns(workspaceId, scenario, tests, fromMs, toMs).runs();
+	}
+
+	/**
+	 * Writes the trend as NDJSON: a "tests" line, one "test" line per test in completion order and a final "series"
+	 * line with transaction -> values in the order of the "tests" line, null where a test has no value.
+	 *
+	 * @param validElement one of {@link ComparisonEngine#ELEMENTS}
+	 */
+	public void stream(String workspaceId, String scenario, String validElement, List<TestResultScanner.Run> runs, OutputStream outputStream) throws IOException {
+		JSONObject header = new JSONObject();
+		header.put("type", "tests");
+		header.put("scenario", scenario);
+		header.put("element", validElement);
+		JSONArray tests = new JSONArray();
+		for (TestResultScanner.Run run : runs) {
+			tests.put(run(run));
+		}
+		header.put("tests", tests);
+		writeLine(outputStream, header);
+
+		Map<String, TestTrend> trends = new HashMap<>();
+		Semaphore permits = new Semaphore(parallelTests);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			CompletionService<TestTrend> completionService = new ExecutorCompletionService<>(executor);
+			for (TestResultScanner.Run run : runs) {
+				completionService.submit(() -> {
+					permits.acquire();
+					try {
+						return fetch(workspaceId, run);
+					} finally {
+						permits.release();
+					}
+				});
+			}
+			try {
+				for (int n = 0; n < runs.size(); n++) {
+					TestTrend trend = completionService.take().get();
+					trends.put(trend.run().testId(), trend);
+					writeLine(outputStream, testLine(trend, validElement));
+				}
+			} catch (IOException e) {
+				// The client went away, nobody is waiting for the remaining tests
+				executor.shutdownNow();
+				throw e;
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new IOException("Trend interrupted", e);
+			} catch (ExecutionException e) {
+				executor.shutdownNow();
+				throw new IOException("Trend failed", e.getCause());
+			}
+		}
+		writeLine(outputStream, seriesLine(runs, trends, validElement));
+	}
+
+	private TestTrend fetch(String workspaceId, TestResultScanner.Run run) throws InterruptedException {
+		Map<String, String> elements;
+		try {
+			elements = neoLoadClient.getTransactionElements(workspaceId, run.testId());
+		} catch (IOException | RuntimeException e) {
+			colorLogger.logError("Failed to fetch elements of test " + run.testId() + " - " + e.getMessage());
+			return new TestTrend(run, Map.of(), Map.of("elements", e.getClass().getSimpleName() + ": " + e.getMessage()));
+		}
+		TransactionValuesFetcher.FetchResult<TransactionValues> result = transactionValuesFetcher.fetchValues(workspaceId, Map.of(run.testId(), elements))
+				.get(run.testId());
+		return new TestTrend(run, result.values(), result.errors());
+	}
+
+	private static JSONObject testLine(TestTrend trend, String validElement) {
+		JSONObject line = run(trend.run());
+		line.put("type", "test");
+		JSONObject values = new JSONObject();
+		for (Map.Entry<String, TransactionValues> entry : new TreeMap<>(trend.values()).entrySet()) {
+			double value = entry.getValue().get(validElement);
+			// JSON has no NaN, a transaction without the element is left out
+			if (!Double.isNaN(value)) {
+				values.put(entry.getKey(), ComparisonEngine.round(value));
+			}
+		}
+		line.put("values", values);
+		if (!trend.errors().isEmpty()) {
+			line.put("errors", new JSONObject(trend.errors()));
+		}
+		return line;
+	}
+
+	private static JSONObject seriesLine(List<TestResultScanner.Run> runs, Map<String, TestTrend> trends, String validElement) {
+		TreeSet<String> transactions = new TreeSet<>();
+		for (TestTrend trend : trends.values()) {
+			transactions.addAll(trend.values().keySet());
+		}
+		JSONObject series = new JSONObject();
+		for (String transaction : transactions) {
+			JSONArray values = new JSONArray();
+			for (TestResultScanner.Run run : runs) {
+				TransactionValues transactionValues = trends.get(run.testId()).values().get(transaction);
+				double value = transactionValues == null ? Double.NaN : transactionValues.get(validElement);
+				values.put(Double.isNaN(value) ? JSONObject.NULL : ComparisonEngine.round(value));
+			}
+			series.put(transaction, values);
+		}
+		JSONObject line = new JSONObject();
+		line.put("type", "series");
+		line.put("transactions", series);
+		return line;
+	}
+
+	private static JSONObject run(TestResultScanner.Run run) {
+		JSONObject object = new JSONObject();
+		object.put("testId", run.testId());
+		object.put("name", run.name());
+		object.put("startDate", run.startDate());
+		return object;
+	}
+
+	private static void writeLine(OutputStream outputStream, JSONObject line) throws IOException {
+		outputStream.write((line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+		outputStream.flush();
+	}
+}
@@ -0,0 +1,226 @@
+package com.neoloadcompare;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.json.JSONObject;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the verdicts of comparisons back to NeoLoad Web in the background, so a comparison answers as soon as its
+ * verdict is computed. The verdicts of a test are merged: the PATCH sets qualityStatus FAILED when any verdict of the
+ * test is failed and PASSED otherwise, with every verdict in the description. A verdict replaces the earlier one of
+ * the same comparison, so repeating a comparison does not grow the description and every PATCH carries the complete
+ * state of the test, which makes retrying it safe.
+ * <p>
+ * Verdicts that arrive within neoload.writeback.delay-ms of each other go out in one PATCH, and at most one PATCH per
+ * test is in flight. A PATCH that failed with an I/O error, 429 or 5xx is retried with exponential backoff up to
+ * neoload.writeback.max-attempts times; one that NeoLoad Web rejected with another 4xx is dropped right away.
+ * The verdicts of a test are remembered for neoload.writeback.retention-minutes after its last verdict.
+ */
+@Service
+public class WriteBackOutbox implements DisposableBean {
+
+	public record Verdict(boolean failed, JSONObject body) {
+	}
+
+	private record TestKey(String workspaceId, String testId) {
+	}
+
+	/**
+	 * Verdicts of one test. dirty means they changed since the last successful PATCH; whenever dirty is set and no
+	 * PATCH is in flight, a flush is scheduled.
+	 */
+	private static final class TestState {
+		final TestKey key;
+		final Map<String, Verdict> verdicts = new TreeMap<>();
+		String name;
+		boolean dirty;
+		boolean inFlight;
+		int attempts;
+
+		TestState(TestKey key) {
+			this.key = key;
+		}
+	}
+
+	private final ColorLogger colorLogger = new ColorLogger();
+	private final NeoLoadClient neoLoadClient;
+	private final MeterRegistry meterRegistry;
+	private final Cache<TestKey, TestState> tests;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "write-back-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ExecutorService patches = Executors.newVirtualThreadPerTaskExecutor();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final long delayMs;
+	private final int maxAttempts;
+	private final long retryBackoffMs;
+
+	public WriteBackOutbox(NeoLoadClient neoLoadClient, MeterRegistry meterRegistry,
+						   @Value("${neoload.writeback.delay-ms:200}") long delayMs,
+						   @Value("${neoload.writeback.max-attempts:5}") int maxAttempts,
+						   @Value("${neoload.writeback.retry-backoff-ms:1000}") long retryBackoffMs,
+						   @Value("${neoload.writeback.retention-minutes:1440}") long retentionMinutes,
+						   @Value("${neoload.writeback.max-tests:10000}") long maxTests) {
+		this.neoLoadClient = neoLoadClient;
+		this.meterRegistry = meterRegistry;
+		this.delayMs = delayMs;
+		this.maxAttempts = maxAttempts;
+		this.retryBackoffMs = retryBackoffMs;
+		tests = Caffeine.newBuilder()
+				.expireAfterAccess(Duration.ofMinutes(retentionMinutes))
+				.maximumSize(maxTests)
+				.build();
+		Gauge.builder("neoload.writeback.pending", pending, AtomicInteger::get)
+				.description("Tests with verdicts that are not yet written back to NeoLoad Web")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Queues a verdict for the test, replacing the verdict of the same comparison.
+	 *
+	 * @param comparison identifies the comparison, e.g. its mode, baseline, element and percentage
+	 * @param testName   sent as name, which NeoLoad Web requires in the PATCH
+	 */
+	public void submit(String workspaceId, String testId, String testName, String comparison, Verdict verdict) {
+		TestState state = tests.get(new TestKey(workspaceId, testId), TestState::new);
+		synchronized (state) {
+			state.name = testName;
+			state.verdicts.put(comparison, verdict);
+			if (!state.dirty) {
+				state.dirty = true;
+				pending.incrementAndGet();
+				if (!state.inFlight) {
+					schedule(state, delayMs);
+				}
+			}
+		}
+	}
+
+	private void schedule(TestState state, long delay) {
+		if (scheduler.isShutdown()) {
+			// Shutting down, destroy flushes what is pending once
+			return;
+		}
+		scheduler.schedule(() -> patches.execute(() -> flush(state)), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void flush(TestState state) {
+		String body;
+		synchronized (state) {
+			if (!state.dirty || state.inFlight) {
+				return;
+			}
+			body = patchBody(state);
+			state.dirty = false;
+			state.inFlight = true;
+		}
+		pending.decrementAndGet();
+		Timer.Sample sample = Timer.start(meterRegistry);
+		try {
+			neoLoadClient.patchTestResult(state.key.workspaceId(), state.key.testId(), body);
+			count("success");
+			synchronized (state) {
+				state.inFlight = false;
+				state.attempts = 0;
+				if (state.dirty) {
+					schedule(state, delayMs);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// A 4xx other than 429, e.g. for a deleted test, fails the same way every time
+			boolean rejected = e instanceof NeoLoadHttpClient.HttpStatusException statusException && !statusException.retryable();
+			synchronized (state) {
+				state.inFlight = false;
+				state.attempts++;
+				if (rejected) {
+					count("dropped");
+					colorLogger.logError("NeoLoad Web rejected the write-back of test " + state.key.testId() + ": " + e.getMessage());
+					state.attempts = 0;
+					if (state.dirty) {
+						schedule(state, delayMs);
+					}
+				} else if (state.attempts < maxAttempts) {
+					count("retry");
+					colorLogger.logError("Write-back of test " + state.key.testId() + " failed, attempt " + state.attempts + " of " + maxAttempts + ": " + e.getMessage());
+					if (!state.dirty) {
+						state.dirty = true;
+						pending.incrementAndGet();
+					}
+					schedule(state, Math.min(retryBackoffMs << (state.attempts - 1), TimeUnit.MINUTES.toMillis(5)));
+				} else {
+					count("dropped");
+					colorLogger.logError("Giving up write-back of test " + state.key.testId() + " after " + maxAttempts + " attempts: " + e.getMessage());
+					state.attempts = 0;
+					if (state.dirty) {
+						schedule(state, delayMs);
+					}
+				}
+			}
+		} finally {
+			sample.stop(Timer.builder("neoloadcompare.phase")
+					.description("Time spent per comparison phase")
+					.tag("phase", "write_back")
+					.publishPercentileHistogram()
+					.register(meterRegistry));
+		}
+	}
+
+	private static String patchBody(TestState state) {
+		boolean failed = false;
+		StringBuilder description = new StringBuilder(256 * (state.verdicts.size() + 1)).append("NeoLoadCompare:\n");
+		for (Verdict verdict : state.verdicts.values()) {
+			failed |= verdict.failed();
+			ComparisonService.appendDescription(description, verdict.body(), "transactions");
+		}
+		JSONObject jsonDescription = new JSONObject();
+		jsonDescription.put("name", state.name);
+		jsonDescription.put("description", description.toString());
+		jsonDescription.put("qualityStatus", failed ? "FAILED" : "PASSED");
+		return jsonDescription.toString();
+	}
+
+	private void count(String result) {
+		meterRegistry.counter("neoload.writeback.patches", "result", result).increment();
+	}
+
+	/**
+	 * @return the number of tests with verdicts that are not yet written back
+	 */
+	public int pending() {
+		return pending.get();
+	}
+
+	/**
+	 * Writes back what is still pending, once and without waiting for the delay, so verdicts are not lost on a
+	 * regular shutdown.
+	 */
+	@Override
+	public void destroy() throws InterruptedException {
+		scheduler.shutdownNow();
+		for (TestState state : tests.asMap().values()) {
+			patches.execute(() -> flush(state));
+		}
+		patches.shutdown();
+		if (!patches.awaitTermination(30, TimeUnit.SECONDS)) {
+			colorLogger.logError(pending.get() + " write-backs to NeoLoad Web were not done before shutdown");
+		}
+	}
+}
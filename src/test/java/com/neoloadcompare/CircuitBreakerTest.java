@@ -0,0 +1,89 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+	@Test
+	void opensAfterConsecutiveFailures() {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(3, 60_000);
+		for (int n = 0; n < 2; n++) {
+			assertThat(circuitBreaker.tryAcquire()).isTrue();
+			circuitBreaker.failure();
+		}
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+		circuitBreaker.success();
+		for (int n = 0; n < 2; n++) {
+			assertThat(circuitBreaker.tryAcquire()).isTrue();
+			circuitBreaker.failure();
+		}
+		assertThat(circuitBreaker.state()).as("a success resets the count").isEqualTo(CircuitBreaker.State.CLOSED);
+
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+		circuitBreaker.failure();
+
+		assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(circuitBreaker.tryAcquire()).isFalse();
+		assertThat(circuitBreaker.retryInMillis()).isBetween(1L, 60_000L);
+	}
+
+	@Test
+	void halfOpenLetsOneTrialThrough() throws InterruptedException {
+		CircuitBreaker circuitBreaker = open(new CircuitBreaker(1, 20));
+		Thread.sleep(30);
+
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+		assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+		assertThat(circuitBreaker.tryAcquire()).as("second caller during the trial").isFalse();
+
+		circuitBreaker.success();
+
+		assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+		assertThat(circuitBreaker.retryInMillis()).isZero();
+	}
+
+	@Test
+	void failedTrialOpensAgain() throws InterruptedException {
+		CircuitBreaker circuitBreaker = open(new CircuitBreaker(5, 20));
+		Thread.sleep(30);
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+
+		circuitBreaker.failure();
+
+		assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(circuitBreaker.tryAcquire()).isFalse();
+	}
+
+	@Test
+	void releasedTrialLetsTheNextOneThrough() throws InterruptedException {
+		CircuitBreaker circuitBreaker = open(new CircuitBreaker(1, 20));
+		Thread.sleep(30);
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+
+		circuitBreaker.release();
+
+		assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+	}
+
+	@Test
+	void disabledWithoutThreshold() {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(0, 60_000);
+		for (int n = 0; n < 100; n++) {
+			assertThat(circuitBreaker.tryAcquire()).isTrue();
+			circuitBreaker.failure();
+		}
+		assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+	}
+
+	private static CircuitBreaker open(CircuitBreaker circuitBreaker) {
+		while (circuitBreaker.state() != CircuitBreaker.State.OPEN) {
+			circuitBreaker.tryAcquire();
+			circuitBreaker.failure();
+		}
+		return circuitBreaker;
+	}
+}
@@ -0,0 +1,156 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class ComparisonEngineTest {
+
+	private static final int AVG_DURATION = ComparisonEngine.elementIndex("avgDuration");
+
+	static TransactionValues values(double avgDuration) {
+		return values(avgDuration, 1000);
+	}
+
+	static TransactionValues values(double avgDuration, long count) {
+		return new TransactionValues(avgDuration, avgDuration * 0.9, avgDuration * 1.3, avgDuration * 1.5, avgDuration * 2, 1, avgDuration * 5, count);
+	}
+
+	@Test
+	void snapshotAlignsBothTestsOnTransactionName() {
+		ComparisonEngine.Snapshot snapshot = ComparisonEngine.snapshot(
+				Map.of("b", values(100), "a", values(200)),
+				Map.of("c", values(300), "a", values(210)));
+
+		assertThat(snapshot.size()).isEqualTo(3);
+		assertThat(snapshot.transaction(0)).isEqualTo("a");
+		assertThat(snapshot.baseline(AVG_DURATION, 0)).isEqualTo(200);
+		assertThat(snapshot.latest(AVG_DURATION, 0)).isEqualTo(210);
+		assertThat(snapshot.inLatest(1)).isFalse();
+		assertThat(snapshot.latest(AVG_DURATION, 1)).isNaN();
+		assertThat(snapshot.inBaseline(2)).isFalse();
+		assertThat(snapshot.comparable(2)).isFalse();
+	}
+
+	@Test
+	void failsTransactionsWhoseRoundedIncreaseIsAboveTheThreshold() {
+		ComparisonEngine.Snapshot snapshot = ComparisonEngine.snapshot(
+				Map.of("a", values(100), "b", values(100), "c", values(100), "d", values(100)),
+				Map.of("a", values(110), "b", values(110.4), "c", values(111), "d", values(90)));
+
+		ComparisonEngine.Outcome outcome = ComparisonEngine.compare(snapshot, AVG_DURATION, 10);
+
+		assertThat(outcome.failed()).containsExactly(2);
+		assertThat(outcome.compared()).isEqualTo(4);
+		assertThat(outcome.anomalies()).isZero();
+		assertThat(outcome.passed()).isFalse();
+	}
+
+	@Test
+	void skipsMissingValuesAndTheAllUserPathsSummary() {
+		ComparisonEngine.Snapshot snapshot = ComparisonEngine.snapshot(
+				Map.of("<all-userpaths>", values(100), "a", values(100), "b", values(Double.NaN)),
+				Map.of("<all-userpaths>", values(500), "b", values(500), "new", values(500)));
+
+		ComparisonEngine.Outcome outcome = ComparisonEngine.compare(snapshot, AVG_DURATION, 10);
+
+		assertThat(outcome.passed()).isTrue();
+		assertThat(outcome.compared()).isZero();
+		assertThat(outcome.anomalies()).isEqualTo(2);
+	}
+
+	@Test
+	void increaseIsRoundedHalfEven() {
+		assertThat(ComparisonEngine.increase(200, 221)).isEqualTo(10);
+		assertThat(ComparisonEngine.increase(200, 223)).isEqualTo(12);
+		assertThat(ComparisonEngine.increase(100, 50)).isEqualTo(-50);
+	}
+
+	@Test
+	void normalQuantileMatchesTheStandardNormalDistribution() {
+		assertThat(ComparisonEngine.normalQuantile(0.5)).isCloseTo(0, within(1e-9));
+		assertThat(ComparisonEngine.normalQuantile(0.9)).isCloseTo(1.2815515655446004, within(1e-8));
+		assertThat(ComparisonEngine.normalQuantile(0.975)).isCloseTo(1.959963984540054, within(1e-8));
+		assertThat(ComparisonEngine.normalQuantile(0.99)).isCloseTo(2.3263478740408408, within(1e-8));
+		assertThat(ComparisonEngine.normalQuantile(0.01)).isCloseTo(-2.3263478740408408, within(1e-8));
+		assertThat(ComparisonEngine.normalQuantile(0.001)).isCloseTo(-3.090232306167813, within(1e-8));
+		assertThat(ComparisonEngine.normalQuantile(0.9999)).isCloseTo(3.719016485455709, within(1e-7));
+	}
+
+	@Test
+	void gateRejectsInvalidParameters() {
+		assertThatThrownBy(() -> new ComparisonEngine.Gate(-1, 0.99)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new ComparisonEngine.Gate(Double.NaN, 0.99)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new ComparisonEngine.Gate(5, 1)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new ComparisonEngine.Gate(5, 0.4)).isInstanceOf(IllegalArgumentException.class);
+		assertThat(new ComparisonEngine.Gate(0, 0.5).zCritical()).isCloseTo(0, within(1e-9));
+	}
+
+	@Test
+	void gateSuppressesIncreasesBelowTheFloor() {
+		ComparisonEngine.Snapshot snapshot = ComparisonEngine.snapshot(
+				Map.of("fast", values(10, 100_000), "slow", values(1000, 100_000)),
+				Map.of("fast", values(14, 100_000), "slow", values(1400, 100_000)));
+
+		ComparisonEngine.Outcome outcome = ComparisonEngine.compare(snapshot, AVG_DURATION, 10, new ComparisonEngine.Gate(5, 0.99));
+
+		assertThat(outcome.failed()).containsExactly(1);
+		assertThat(outcome.suppressed()).isEqualTo(1);
+	}
+
+	@Test
+	void gateSuppressesIncreasesThatAreNotSignificant() {
+		// Spread (p90 - p50) / 1.2816 = 31 ms per test: 20 ms is noise with 5 samples and significant with 1000
+		ComparisonEngine.Snapshot snapshot = ComparisonEngine.snapshot(
+				Map.of("few", values(100, 5), "many", values(100, 1000)),
+				Map.of("few", values(120, 5), "many", values(120, 1000)));
+		ComparisonEngine.Gate gate = new ComparisonEngine.Gate(5, 0.99);
+
+		ComparisonEngine.Outcome outcome = ComparisonEngine.compare(snapshot, AVG_DURATION, 10, gate);
+
+		assertThat(outcome.failed()).containsExactly(1);
+		assertThat(outcome.suppressed()).isEqualTo(1);
+		assertThat(ComparisonEngine.zScore(snapshot, AVG_DURATION, 0)).isLessThan(gate.zCritical());
+		assertThat(ComparisonEngine.zScore(snapshot, AVG_DURATION, 1)).isGreaterThan(gate.zCritical());
+	}
+
+	@Test
+	void zScoreUsesTheSpreadOfBothTests() {
+		ComparisonEngine.Snapshot snapshot = ComparisonEngine.snapshot(Map.of("a", values(100, 50)), Map.of("a", values(120, 200)));
+
+		double baselineSd = (130 - 90) / 1.2815515655446004;
+		double latestSd = (156 - 108) / 1.2815515655446004;
+		double expected = 20 / Math.sqrt(baselineSd * baselineSd / 50 + latestSd * latestSd / 200);
+		assertThat(ComparisonEngine.zScore(snapshot, AVG_DURATION, 0)).isCloseTo(expected, within(1e-6));
+	}
+
+	@Test
+	void gateWithoutCountsOnlyAppliesTheFloor() {
+		// A rolling baseline has no counts
+		ComparisonEngine.Snapshot snapshot = ComparisonEngine.snapshot(
+				Map.of("a", values(100, 0), "b", values(10, 0)),
+				Map.of("a", values(120, 5), "b", values(12, 5)));
+
+		ComparisonEngine.Outcome outcome = ComparisonEngine.compare(snapshot, AVG_DURATION, 10, new ComparisonEngine.Gate(5, 0.99));
+
+		assertThat(ComparisonEngine.zScore(snapshot, AVG_DURATION, 0)).isNaN();
+		assertThat(outcome.failed()).containsExactly(0);
+		assertThat(outcome.suppressed()).isEqualTo(1);
+	}
+
+	@Test
+	void gateOnPercentiles() {
+		ComparisonEngine.Snapshot snapshot = ComparisonEngine.snapshot(Map.of("a", values(100, 100)), Map.of("a", values(115, 100)));
+		ComparisonEngine.Gate gate = new ComparisonEngine.Gate(5, 0.99);
+
+		// The standard error of a high percentile is larger than the one of the mean
+		assertThat(ComparisonEngine.zScore(snapshot, ComparisonEngine.elementIndex("percentile99"), 0))
+				.isLessThan(ComparisonEngine.zScore(snapshot, AVG_DURATION, 0));
+		assertThat(ComparisonEngine.compare(snapshot, AVG_DURATION, 10, gate).passed()).isFalse();
+		assertThat(ComparisonEngine.compare(snapshot, ComparisonEngine.elementIndex("percentile99"), 10, gate).passed()).isTrue();
+	}
+}
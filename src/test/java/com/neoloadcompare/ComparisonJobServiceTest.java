@@ -0,0 +1,198 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ComparisonJobServiceTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private ComparisonJobService jobService;
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		if (jobService != null) {
+			jobService.destroy();
+		}
+	}
+
+	// One worker and one queue slot
+	private ComparisonJobService jobService(long retentionMinutes, int maxRetained) {
+		jobService = new ComparisonJobService(1, 1, retentionMinutes, maxRetained, new SimpleMeterRegistry());
+		return jobService;
+	}
+
+	private Callable<ComparisonService.ComparisonResult> blocked(CountDownLatch started, AtomicBoolean interrupted) {
+		return () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+				throw e;
+			}
+			return new ComparisonService.ComparisonResult(ComparisonService.Status.OK, new JSONObject());
+		};
+	}
+
+	private static Callable<ComparisonService.ComparisonResult> ok() {
+		return () -> new ComparisonService.ComparisonResult(ComparisonService.Status.OK, new JSONObject());
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + 5_000_000_000L;
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	void acceptsAbsoluteHttpCallbackUrls() {
+		assertThatCode(() -> ComparisonJobService.validateCallbackUrl(null)).doesNotThrowAnyException();
+		assertThatCode(() -> ComparisonJobService.validateCallbackUrl("http://ci.example.com:8080/hooks/neoload?job=1")).doesNotThrowAnyException();
+		assertThatCode(() -> ComparisonJobService.validateCallbackUrl("HTTPS://ci.example.com/hooks")).doesNotThrowAnyException();
+	}
+
+	@Test
+	void rejectsOtherCallbackUrls() {
+		for (String callbackUrl : new String[]{"", "/hooks/neoload", "ci.example.com/hooks", "ftp://ci.example.com/hooks", "file:///etc/passwd", "http://ci example.com", "http:/hooks"}) {
+			assertThatThrownBy(() -> ComparisonJobService.validateCallbackUrl(callbackUrl))
+					.as(callbackUrl)
+					.isInstanceOf(IllegalArgumentException.class);
+		}
+	}
+
+	@Test
+	void jobsBeyondTheQueueCapacityAreRejected() throws Exception {
+		ComparisonJobService jobService = jobService(60, 100);
+		CountDownLatch started = new CountDownLatch(1);
+		ComparisonJobService.Job running = jobService.submit("running", null, blocked(started, new AtomicBoolean()));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		ComparisonJobService.Job queued = jobService.submit("queued", null, ok());
+
+		assertThatThrownBy(() -> jobService.submit("rejected", null, ok()))
+				.isInstanceOf(RejectedExecutionException.class);
+
+		assertThat(running.getStatus()).isEqualTo(ComparisonJobService.JobStatus.RUNNING);
+		assertThat(queued.getStatus()).isEqualTo(ComparisonJobService.JobStatus.QUEUED);
+		JSONObject stats = jobService.getStats();
+		assertThat(stats.getInt("queued")).isEqualTo(1);
+		assertThat(stats.getInt("running")).isEqualTo(1);
+		// The rejected job is not kept for polling
+		assertThat(stats.getInt("retained")).isEqualTo(2);
+
+		release.countDown();
+		await(() -> queued.getStatus() == ComparisonJobService.JobStatus.DONE);
+		assertThat(running.getStatus()).isEqualTo(ComparisonJobService.JobStatus.DONE);
+		assertThat(queued.toJson().getString("verdict")).isEqualTo("OK");
+	}
+
+	@Test
+	void cancelledQueuedJobFreesItsSlotAndNeverRuns() throws Exception {
+		ComparisonJobService jobService = jobService(60, 100);
+		CountDownLatch started = new CountDownLatch(1);
+		jobService.submit("running", null, blocked(started, new AtomicBoolean()));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		AtomicBoolean ran = new AtomicBoolean();
+		ComparisonJobService.Job queued = jobService.submit("queued", null, () -> {
+			ran.set(true);
+			return new ComparisonService.ComparisonResult(ComparisonService.Status.OK, new JSONObject());
+		});
+
+		assertThat(jobService.cancel(queued)).isTrue();
+
+		assertThat(queued.getStatus()).isEqualTo(ComparisonJobService.JobStatus.CANCELLED);
+		assertThat(jobService.getStats().getInt("queued")).isZero();
+		// The slot is free again right away
+		ComparisonJobService.Job next = jobService.submit("next", null, ok());
+		release.countDown();
+		await(() -> next.getStatus() == ComparisonJobService.JobStatus.DONE);
+		assertThat(ran).isFalse();
+		assertThat(queued.toJson().has("verdict")).isFalse();
+		assertThat(jobService.cancel(queued)).isFalse();
+	}
+
+	@Test
+	void cancelledRunningJobIsInterrupted() throws Exception {
+		ComparisonJobService jobService = jobService(60, 100);
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean interrupted = new AtomicBoolean();
+		ComparisonJobService.Job running = jobService.submit("running", null, blocked(started, interrupted));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(jobService.cancel(running)).isTrue();
+
+		await(interrupted::get);
+		await(() -> jobService.getStats().getInt("running") == 0);
+		assertThat(running.getStatus()).isEqualTo(ComparisonJobService.JobStatus.CANCELLED);
+		assertThat(running.toJson().has("verdict")).isFalse();
+		assertThat(running.toJson().has("finished")).isTrue();
+		// The worker is free for the next job
+		ComparisonJobService.Job next = jobService.submit("next", null, ok());
+		await(() -> next.getStatus() == ComparisonJobService.JobStatus.DONE);
+	}
+
+	@Test
+	void cancellingADoneJobIsRefused() throws Exception {
+		ComparisonJobService jobService = jobService(60, 100);
+		ComparisonJobService.Job job = jobService.submit("done", null, ok());
+		await(() -> job.getStatus() == ComparisonJobService.JobStatus.DONE);
+
+		assertThat(jobService.cancel(job)).isFalse();
+		assertThat(job.getStatus()).isEqualTo(ComparisonJobService.JobStatus.DONE);
+	}
+
+	@Test
+	void finishedJobsAreEvictedAfterTheRetention() throws Exception {
+		ComparisonJobService jobService = jobService(0, 100);
+		ComparisonJobService.Job done = jobService.submit("done", null, ok());
+		await(() -> done.getStatus() == ComparisonJobService.JobStatus.DONE);
+		CountDownLatch started = new CountDownLatch(1);
+		ComparisonJobService.Job running = jobService.submit("running", null, blocked(started, new AtomicBoolean()));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		Thread.sleep(5);
+
+		jobService.evictFinishedJobs();
+
+		assertThat(jobService.get(done.getId())).isNull();
+		// Unfinished jobs are kept whatever the retention
+		assertThat(jobService.get(running.getId())).isSameAs(running);
+	}
+
+	@Test
+	void oldestFinishedJobsAreEvictedBeyondMaxRetained() throws Exception {
+		ComparisonJobService jobService = jobService(60, 2);
+		ComparisonJobService.Job[] jobs = new ComparisonJobService.Job[3];
+		for (int n = 0; n < jobs.length; n++) {
+			ComparisonJobService.Job job = jobService.submit("job " + n, null, ok());
+			await(() -> job.getStatus() == ComparisonJobService.JobStatus.DONE);
+			jobs[n] = job;
+			Thread.sleep(5);
+		}
+		CountDownLatch started = new CountDownLatch(1);
+		ComparisonJobService.Job running = jobService.submit("running", null, blocked(started, new AtomicBoolean()));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		jobService.evictFinishedJobs();
+
+		assertThat(jobService.get(jobs[0].getId())).isNull();
+		assertThat(jobService.get(jobs[1].getId())).isSameAs(jobs[1]);
+		assertThat(jobService.get(jobs[2].getId())).isSameAs(jobs[2]);
+		assertThat(jobService.get(running.getId())).isSameAs(running);
+		assertThat(jobService.getStats().getInt("retained")).isEqualTo(3);
+	}
+}
@@ -0,0 +1,451 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ComparisonServiceTest {
+
+	private static final String WORKSPACE = "ws";
+	private static final String SCENARIO = "Scenario1";
+	private static final String LATEST_VALUES = "/v3/workspaces/ws/test-results/latest/elements/";
+
+	@TempDir
+	Path dataDir;
+
+	private MockNeoLoadWeb neoLoadWeb;
+	private MockNeoLoadWeb.Clients clients;
+	private NeoLoadHttpClient httpClient;
+	private TransactionValuesFetcher fetcher;
+	private WriteBackOutbox outbox;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		neoLoadWeb = new MockNeoLoadWeb();
+		neoLoadWeb.addOldest("latest", "#2", SCENARIO);
+		neoLoadWeb.addOldest("baseline", "#1", SCENARIO);
+		clients = neoLoadWeb.clients(dataDir);
+		httpClient = clients.httpClient();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		if (outbox != null) {
+			outbox.destroy();
+		}
+		if (fetcher != null) {
+			fetcher.destroy();
+		}
+		httpClient.destroy();
+		neoLoadWeb.close();
+	}
+
+	/**
+	 * A service against the stub server. Write-backs go out right away and are not retried.
+	 */
+	private ComparisonService service(boolean allowIncomplete) {
+		return service(allowIncomplete, 0);
+	}
+
+	/**
+	 * @param writeBackDelayMs time verdicts of a test wait for each other before they are written back
+	 */
+	private ComparisonService service(boolean allowIncomplete, long writeBackDelayMs) {
+		NeoLoadClient client = clients.client(httpClient);
+		fetcher = new TransactionValuesFetcher(client, clients.snapshotStore(), 4, 30);
+		outbox = new WriteBackOutbox(client, clients.meterRegistry(), writeBackDelayMs, 1, 10, 60, 100);
+		return new ComparisonService(client, fetcher, clients.meterRegistry(), new TimeSeriesSettings(10, 5, 60, 360, 30, 0.01, 1024),
+				new RollingBaselineStore(dataDir.toString(), 20, 5), outbox, allowIncomplete);
+	}
+
+	private static ComparisonService.ComparisonSpec spec(String element, String percentage) {
+		return spec("1", element, percentage);
+	}
+
+	private static ComparisonService.ComparisonSpec spec(String baseline, String element, String percentage) {
+		return new ComparisonService.ComparisonSpec(SCENARIO, baseline, element, percentage, null);
+	}
+
+	private void failLatestValues(String elementId, int status) {
+		neoLoadWeb.respond(LATEST_VALUES + elementId + "/values", status, "{\"message\":\"Element values not available\"}");
+	}
+
+	private static List<String> notCompared(ComparisonService.ComparisonResult result) {
+		JSONArray fetchErrors = result.body().optJSONArray("fetchErrors");
+		return fetchErrors == null ? List.of() : fetchErrors.toList().stream().map(fetchError -> (String) ((Map<?, ?>) fetchError).get("transaction")).toList();
+	}
+
+	/**
+	 * @return the PATCH bodies sent to NeoLoad Web once every write-back is done
+	 */
+	private List<JSONObject> writtenBack() throws InterruptedException {
+		outbox.destroy();
+		outbox = null;
+		return neoLoadWeb.patches().stream().map(JSONObject::new).toList();
+	}
+
+	@Test
+	void comparisonOfEveryTransactionIsOk() throws Exception {
+		ComparisonService.ComparisonResult result = service(false).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.OK);
+		assertThat(result.body().getString("status")).isEqualTo("Check against baseline OK!");
+		assertThat(result.body().has("fetchErrors")).isFalse();
+	}
+
+	@Test
+	void transactionThatFailedToLoadMakesTheComparisonIncomplete() throws Exception {
+		failLatestValues("e2", 404);
+
+		ComparisonService.ComparisonResult result = service(false).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.INCOMPLETE);
+		assertThat(notCompared(result)).containsExactly("Search");
+		assertThat(result.body().getString("status")).startsWith("Check against baseline INCOMPLETE, 1 transactions");
+	}
+
+	@Test
+	void comparisonWithoutAnyValuesIsIncomplete() throws Exception {
+		failLatestValues("e1", 503);
+		failLatestValues("e2", 404);
+
+		ComparisonService.ComparisonResult result = service(false).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.INCOMPLETE);
+		assertThat(notCompared(result)).containsExactlyInAnyOrder("Login", "Search");
+	}
+
+	@Test
+	void incompleteComparisonIsOkWhenAllowed() throws Exception {
+		failLatestValues("e2", 404);
+
+		ComparisonService.ComparisonResult result = service(true).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.OK);
+		assertThat(notCompared(result)).containsExactly("Search");
+	}
+
+	@Test
+	void failedTransactionWinsOverMissingValues() throws Exception {
+		neoLoadWeb.respond(LATEST_VALUES + "e1/values", 200, MockNeoLoadWeb.values(150));
+		failLatestValues("e2", 404);
+
+		ComparisonService.ComparisonResult result = service(false).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.FAILED);
+		assertThat(result.body().getJSONArray("transactions").getJSONObject(0).getString("transaction")).isEqualTo("Login");
+		assertThat(notCompared(result)).containsExactly("Search");
+	}
+
+	@Test
+	void completeComparisonIsWrittenBackAsPassed() throws Exception {
+		service(false).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		List<JSONObject> patches = writtenBack();
+		assertThat(patches).hasSize(1);
+		assertThat(patches.getFirst().getString("qualityStatus")).isEqualTo("PASSED");
+		assertThat(patches.getFirst().getString("description")).contains("info:Check against baseline OK\n").doesNotContain("fetchErrors");
+	}
+
+	@Test
+	void incompleteComparisonIsNotWrittenBackAsPassed() throws Exception {
+		failLatestValues("e2", 404);
+
+		service(false).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		JSONObject patch = writtenBack().getFirst();
+		assertThat(patch.getString("qualityStatus")).isEqualTo("FAILED");
+		assertThat(patch.getString("description")).contains(
+				"info:Check against baseline INCOMPLETE",
+				"fetchErrors:\n",
+				"transaction:Search\n",
+				"testId:latest\n",
+				"Element values not available");
+	}
+
+	@Test
+	void allowedIncompleteComparisonIsNotWrittenBackAsPassedEither() throws Exception {
+		failLatestValues("e2", 404);
+
+		ComparisonService.ComparisonResult result = service(true).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.OK);
+		JSONObject patch = writtenBack().getFirst();
+		assertThat(patch.getString("qualityStatus")).isEqualTo("FAILED");
+		assertThat(patch.getString("description")).contains("transaction:Search\n");
+	}
+
+	@Test
+	void failedComparisonKeepsItsFetchErrorsInTheDescription() throws Exception {
+		neoLoadWeb.respond(LATEST_VALUES + "e1/values", 200, MockNeoLoadWeb.values(150));
+		failLatestValues("e2", 404);
+
+		service(false).compare(WORKSPACE, spec("avgDuration", "10"));
+
+		String description = writtenBack().getFirst().getString("description");
+		assertThat(description.indexOf("transaction:Login\n")).isLessThan(description.indexOf("fetchErrors:\n"));
+		assertThat(description.substring(description.indexOf("fetchErrors:\n"))).contains("transaction:Search\n");
+	}
+
+	private long requests(String path) {
+		return neoLoadWeb.requests().stream().filter(request -> request.startsWith(path)).count();
+	}
+
+	private static List<String> statuses(ComparisonService.ComparisonResult result) {
+		JSONArray results = result.body().getJSONArray("results");
+		return results.toList().stream().map(specResult -> (String) ((Map<?, ?>) specResult).get("status")).toList();
+	}
+
+	@Test
+	void batchFetchesEveryTestOnce() throws Exception {
+		neoLoadWeb.addOldest("older", "#0", SCENARIO);
+
+		ComparisonService.ComparisonResult result = service(false).compareBatch(WORKSPACE, List.of(
+				spec("1", "avgDuration", "10"),
+				spec("1", "percentile90", "10"),
+				spec("1", "percentile99", "10"),
+				spec("0", "avgDuration", "10")));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.OK);
+		assertThat(statuses(result)).containsExactly("OK", "OK", "OK", "OK");
+		for (String testId : new String[]{"latest", "baseline", "older"}) {
+			for (String elementId : new String[]{"e1", "e2"}) {
+				assertThat(requests("/v3/workspaces/ws/test-results/" + testId + "/elements/" + elementId + "/values"))
+						.as(testId + " " + elementId)
+						.isEqualTo(1);
+			}
+		}
+	}
+
+	@Test
+	void failedSpecMakesTheBatchFailed() throws Exception {
+		neoLoadWeb.respond(LATEST_VALUES + "e1/values", 200, MockNeoLoadWeb.values(150));
+
+		ComparisonService.ComparisonResult result = service(false).compareBatch(WORKSPACE, List.of(
+				spec("1", "avgDuration", "10"),
+				spec("1", "avgDuration", "100"),
+				spec("9", "avgDuration", "10")));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.FAILED);
+		assertThat(statuses(result)).containsExactly("FAILED", "OK", "ERROR");
+		assertThat(result.body().getInt("ok")).isEqualTo(1);
+		assertThat(result.body().getInt("failed")).isEqualTo(1);
+		assertThat(result.body().getInt("incomplete")).isZero();
+		assertThat(result.body().getInt("errors")).isEqualTo(1);
+	}
+
+	@Test
+	void errorWinsOverIncompleteInTheBatch() throws Exception {
+		failLatestValues("e2", 404);
+
+		ComparisonService.ComparisonResult result = service(false).compareBatch(WORKSPACE, List.of(
+				spec("1", "avgDuration", "10"),
+				spec("9", "avgDuration", "10")));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.ERROR);
+		assertThat(statuses(result)).containsExactly("INCOMPLETE", "ERROR");
+		assertThat(result.body().getInt("incomplete")).isEqualTo(1);
+		assertThat(result.body().getInt("errors")).isEqualTo(1);
+	}
+
+	@Test
+	void incompleteSpecMakesTheBatchIncomplete() throws Exception {
+		failLatestValues("e2", 404);
+
+		ComparisonService.ComparisonResult result = service(false).compareBatch(WORKSPACE, List.of(
+				spec("1", "avgDuration", "10"),
+				spec("1", "percentile90", "10")));
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.INCOMPLETE);
+		assertThat(statuses(result)).containsExactly("INCOMPLETE", "INCOMPLETE");
+		assertThat(result.body().getInt("ok")).isZero();
+		assertThat(result.body().getInt("incomplete")).isEqualTo(2);
+	}
+
+	@Test
+	void batchVerdictsOfTheLatestTestAreWrittenBackOnce() throws Exception {
+		neoLoadWeb.respond(LATEST_VALUES + "e1/values", 200, MockNeoLoadWeb.values(150));
+
+		service(false, 60_000).compareBatch(WORKSPACE, List.of(
+				spec("1", "avgDuration", "10"),
+				spec("1", "percentile90", "10"),
+				spec("1", "percentile99", "100")));
+
+		List<JSONObject> patches = writtenBack();
+		assertThat(patches).hasSize(1);
+		assertThat(patches.getFirst().getString("qualityStatus")).isEqualTo("FAILED");
+		assertThat(patches.getFirst().getString("description")).contains(
+				"element:avgDuration\n", "element:percentile90\n", "info:Check against baseline OK\n", "element:percentile99\n");
+	}
+
+	private ComparisonService.ComparisonResult compareTimeSeries() throws Exception {
+		return service(false).compareTimeSeries(WORKSPACE, spec("avgDuration", "10"), "25");
+	}
+
+	@Test
+	void steadyTimeSeriesIsOk() throws Exception {
+		ComparisonService.ComparisonResult result = compareTimeSeries();
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.OK);
+		assertThat(result.body().getJSONObject("comparison").getString("mode")).isEqualTo("points");
+		assertThat(writtenBack().getFirst().getString("qualityStatus")).isEqualTo("PASSED");
+	}
+
+	@Test
+	void degradingWindowFailsTheTimeSeries() throws Exception {
+		double[] latest = MockNeoLoadWeb.constant(100);
+		// Three points of the window from 420 s to 480 s, the steady state only goes up 6%
+		latest[42] = latest[43] = latest[44] = 200;
+		neoLoadWeb.respond(LATEST_VALUES + "e2/points", 200, MockNeoLoadWeb.points(latest));
+
+		ComparisonService.ComparisonResult result = compareTimeSeries();
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.FAILED);
+		JSONObject failure = result.body().getJSONArray("transactions").getJSONObject(0);
+		assertThat(failure.getString("transaction")).isEqualTo("Search");
+		assertThat(failure.getString("reason")).isEqualTo("window");
+		assertThat(failure.getString("worstWindow")).isEqualTo("420s-480s");
+		assertThat(failure.getString("worstWindowIncrease")).isEqualTo("50.0%");
+	}
+
+	@Test
+	void transactionWithoutPointsInTheSteadyStateMakesTheTimeSeriesIncomplete() throws Exception {
+		neoLoadWeb.respond(LATEST_VALUES + "e2/points", 200, "[]");
+
+		ComparisonService.ComparisonResult result = compareTimeSeries();
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.INCOMPLETE);
+		assertThat(result.body().getJSONArray("fetchErrors").getJSONObject(0).getString("error")).isEqualTo("No points in the steady state");
+		assertThat(writtenBack().getFirst().getString("qualityStatus")).isEqualTo("FAILED");
+	}
+
+	@Test
+	void pointsThatFailedToLoadMakeTheTimeSeriesIncomplete() throws Exception {
+		neoLoadWeb.respond(LATEST_VALUES + "e1/points", 404, "{\"message\":\"Not Found\"}");
+
+		ComparisonService.ComparisonResult result = compareTimeSeries();
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.INCOMPLETE);
+		assertThat(notCompared(result)).containsExactly("Login");
+	}
+
+	@Test
+	void transactionsOfOnlyOneTestMakeTheTimeSeriesIncomplete() throws Exception {
+		neoLoadWeb.respond("/v3/workspaces/ws/test-results/latest/elements", 200, "[{\"id\":\"all\",\"name\":\"<all transactions>\",\"path\":[]},"
+				+ "{\"id\":\"e1\",\"name\":\"Login\",\"path\":[\"Actions\",\"Login\"]},"
+				+ "{\"id\":\"e3\",\"name\":\"Checkout\",\"path\":[\"Actions\",\"Checkout\"]}]");
+
+		ComparisonService.ComparisonResult result = compareTimeSeries();
+
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.INCOMPLETE);
+		JSONArray fetchErrors = result.body().getJSONArray("fetchErrors");
+		assertThat(fetchErrors.length()).isEqualTo(2);
+		assertThat(fetchErrors.getJSONObject(0).getString("transaction")).isEqualTo("Search");
+		assertThat(fetchErrors.getJSONObject(0).getString("error")).isEqualTo("Transaction not found in latest test");
+		assertThat(fetchErrors.getJSONObject(1).getString("transaction")).isEqualTo("Checkout");
+		assertThat(fetchErrors.getJSONObject(1).getString("testId")).isEqualTo("baseline");
+		assertThat(fetchErrors.getJSONObject(1).getString("error")).isEqualTo("Transaction not found in baseline test");
+	}
+
+	@Test
+	void missingElementValueMakesTheComparisonIncomplete() {
+		TransactionValues values = new TransactionValues(100, 90, Double.NaN, 150, 200, 1, 500, 100);
+		ComparisonService.TestData data = new ComparisonService.TestData(WORKSPACE, WORKSPACE, "1", "baseline", "latest", "#2",
+				Map.of("Login", values), Map.of(), Map.of("Login", values), Map.of());
+
+		ComparisonService service = new ComparisonService(null, null, new SimpleMeterRegistry(), null, null, null, false);
+
+		assertThat(service.evaluate(data, "avgDuration", "10").status()).isEqualTo(ComparisonService.Status.OK);
+		ComparisonService.ComparisonResult result = service.evaluate(data, "percentile90", "10");
+		assertThat(result.status()).isEqualTo(ComparisonService.Status.INCOMPLETE);
+		assertThat(notCompared(result)).containsExactly("Login", "Login");
+	}
+
+	private static String description(JSONObject jsonObject) {
+		StringBuilder description = new StringBuilder();
+		ComparisonService.appendDescription(description, jsonObject, "transactions");
+		return description.toString();
+	}
+
+	private static JSONObject transaction(String name, double baselineValue, double latestValue) {
+		JSONObject transaction = new JSONObject();
+		transaction.put("transaction", name);
+		transaction.put("baselineValue", String.valueOf(baselineValue));
+		transaction.put("latestValue", String.valueOf(latestValue));
+		transaction.put("increase", ComparisonEngine.increase(baselineValue, latestValue) + "%");
+		return transaction;
+	}
+
+	@Test
+	void descriptionDropsTheZeroDecimalOfWholeNumbersOnly() {
+		JSONObject result = new JSONObject();
+		result.put("percentage", "50.0%");
+		result.put("confidence", 0.99);
+		result.put("minDiffMs", 5.0);
+		result.put("server", "10.0.0.140");
+		result.put("version", "4.0.1");
+		result.put("ratio", "1.05");
+
+		assertThat(description(result)).contains(
+				"percentage:50%\n",
+				"confidence:0.99\n",
+				"minDiffMs:5\n",
+				"server:10.0.0.140\n",
+				"version:4.0.1\n",
+				"ratio:1.05\n");
+	}
+
+	@Test
+	void descriptionHasABlockPerTransaction() {
+		JSONObject result = new JSONObject();
+		result.put("element", "avgDuration");
+		result.put("transactions", new JSONArray()
+				.put(new JSONObject().put("transaction", "Login"))
+				.put(transaction("Search", 140.0, 175.0)));
+
+		String description = description(result);
+
+		assertThat(description).startsWith("element:avgDuration\n\ntransaction:Login\n\n\n");
+		assertThat(description.substring(description.indexOf("\n\n\n") + 3)).contains(
+				"transaction:Search\n",
+				"baselineValue:140\n",
+				"latestValue:175\n",
+				"increase:25%\n");
+		assertThat(description).endsWith("\n\n").doesNotContain("\"");
+	}
+
+	@Test
+	void descriptionWritesNestedObjectsWithoutQuotes() {
+		JSONObject result = new JSONObject();
+		result.put("latestTest", new JSONObject().put("name", "Release 1.0"));
+		result.put("gate", new JSONObject().put("confidence", 0.99));
+
+		assertThat(description(result)).contains(
+				"latestTest:{name:Release 1.0}\n",
+				"gate:{confidence:0.99}\n");
+	}
+
+	@Test
+	void descriptionListsFetchErrorsAfterTheTransactions() {
+		JSONObject result = new JSONObject();
+		result.put("transactions", new JSONArray().put(new JSONObject().put("transaction", "Login")));
+		result.put("fetchErrors", new JSONArray().put(new JSONObject().put("error", "Deadline of 300.0s exceeded")));
+
+		assertThat(description(result)).isEqualTo("\ntransaction:Login\n\n\n\nfetchErrors:\n\nerror:Deadline of 300.0s exceeded\n\n\n");
+	}
+
+	@Test
+	void descriptionOfAResultWithoutTransactionsEndsWithAnEmptyLine() {
+		assertThat(description(new JSONObject().put("info", "Check against baseline OK"))).isEqualTo("info:Check against baseline OK\n\n");
+	}
+}
@@ -0,0 +1,101 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class DurationSketchTest {
+
+	private static final double ACCURACY = 0.01;
+
+	@Test
+	void quantilesAreWithinTheRelativeAccuracy() {
+		DurationSketch sketch = new DurationSketch(ACCURACY, 2048);
+		for (int value = 1; value <= 10_000; value++) {
+			sketch.add(value, 1);
+		}
+
+		for (double quantile : new double[]{0.01, 0.5, 0.9, 0.95, 0.99}) {
+			double expected = quantile * 10_000;
+			assertThat(sketch.quantile(quantile)).as("q%s", quantile).isCloseTo(expected, within(expected * ACCURACY + 1));
+		}
+		assertThat(sketch.quantile(1)).isCloseTo(10_000, within(10_000 * ACCURACY));
+		assertThat(sketch.mean()).isCloseTo(5000.5, within(1e-9));
+		assertThat(sketch.totalWeight()).isEqualTo(10_000);
+	}
+
+	@Test
+	void weightCountsAsRepeatedValues() {
+		DurationSketch weighted = new DurationSketch(ACCURACY, 2048);
+		DurationSketch repeated = new DurationSketch(ACCURACY, 2048);
+		for (int value = 10; value <= 1000; value += 10) {
+			weighted.add(value, value);
+			for (int n = 0; n < value; n++) {
+				repeated.add(value, 1);
+			}
+		}
+
+		for (double quantile : new double[]{0.1, 0.5, 0.9, 0.99}) {
+			assertThat(weighted.quantile(quantile)).isEqualTo(repeated.quantile(quantile));
+		}
+		assertThat(weighted.mean()).isCloseTo(repeated.mean(), within(1e-6));
+	}
+
+	@Test
+	void mergeEqualsAddingEverythingToOneSketch() {
+		DurationSketch low = new DurationSketch(ACCURACY, 2048);
+		DurationSketch high = new DurationSketch(ACCURACY, 2048);
+		DurationSketch all = new DurationSketch(ACCURACY, 2048);
+		for (int value = 1; value <= 1000; value++) {
+			(value <= 500 ? low : high).add(value * 3.7, 2);
+			all.add(value * 3.7, 2);
+		}
+
+		high.merge(low);
+
+		for (double quantile : new double[]{0.01, 0.25, 0.5, 0.9, 0.99}) {
+			assertThat(high.quantile(quantile)).isEqualTo(all.quantile(quantile));
+		}
+		assertThat(high.totalWeight()).isEqualTo(all.totalWeight());
+	}
+
+	@Test
+	void bucketsAreBoundedAndOnlyLowQuantilesLoseAccuracy() {
+		DurationSketch sketch = new DurationSketch(ACCURACY, 64);
+		for (int value = 1; value <= 100_000; value++) {
+			sketch.add(value, 1);
+		}
+
+		// 64 buckets of 2% span about a factor 3.6, everything below ~28000 is collapsed into the lowest bucket
+		assertThat(sketch.bucketCount()).isLessThanOrEqualTo(64);
+		assertThat(sketch.quantile(0.99)).isCloseTo(99_000, within(99_000 * ACCURACY + 1));
+		assertThat(sketch.quantile(0.5)).isCloseTo(50_000, within(50_000 * ACCURACY + 1));
+		assertThat(sketch.quantile(0.1)).isGreaterThan(20_000);
+	}
+
+	@Test
+	void emptySketchAndZeroValues() {
+		DurationSketch sketch = new DurationSketch(ACCURACY, 2048);
+		assertThat(sketch.quantile(0.5)).isNaN();
+		assertThat(sketch.mean()).isNaN();
+
+		sketch.add(0, 3);
+		sketch.add(100, 1);
+		sketch.add(Double.NaN, 5);
+		sketch.add(100, 0);
+
+		assertThat(sketch.totalWeight()).isEqualTo(4);
+		assertThat(sketch.quantile(0.5)).isZero();
+		assertThat(sketch.quantile(0.99)).isCloseTo(100, within(100 * ACCURACY));
+	}
+
+	@Test
+	void sketchesWithDifferentAccuracyDoNotMerge() {
+		DurationSketch sketch = new DurationSketch(0.01, 2048);
+		sketch.add(1, 1);
+		assertThatThrownBy(() -> sketch.merge(new DurationSketch(0.02, 2048)))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+}
@@ -0,0 +1,327 @@
+package com.neoloadcompare;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal NeoLoad Web v3 API for tests with the single workspace "ws". Test results are kept newest first and can be
+ * changed while a test runs, every element has the same values and points unless a response is set for the path, and
+ * PATCH bodies are recorded. {@link #clients} builds the clients of the application against it.
+ */
+class MockNeoLoadWeb implements AutoCloseable {
+
+	record Response(int status, String body) {
+	}
+
+	private static final String INFORMATION = "/v3/information";
+	private static final String WORKSPACES = "/v3/workspaces";
+	private static final Pattern TEST_RESULTS = Pattern.compile("/v3/workspaces/[^/]+/test-results");
+	private static final Pattern TEST_RESULT = Pattern.compile("/v3/workspaces/[^/]+/test-results/([^/]+)");
+	private static final Pattern ELEMENTS = Pattern.compile("/v3/workspaces/[^/]+/test-results/[^/]+/elements");
+	private static final Pattern VALUES = Pattern.compile("/v3/workspaces/[^/]+/test-results/[^/]+/elements/[^/]+/values");
+	private static final Pattern POINTS = Pattern.compile("/v3/workspaces/[^/]+/test-results/[^/]+/elements/[^/]+/points");
+
+	/**
+	 * Duration of every test result.
+	 */
+	static final long DURATION_MS = 600_000;
+
+	private final HttpServer server;
+	private final List<JSONObject> testResults = new CopyOnWriteArrayList<>();
+	private final Map<String, Response> responses = new ConcurrentHashMap<>();
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+	private final List<String> patches = new CopyOnWriteArrayList<>();
+	private final Deque<Response> patchResponses = new ArrayDeque<>(List.of(new Response(200, "{}")));
+
+	MockNeoLoadWeb() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	String url() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * @param dataDir data directory of the baseline index and the test snapshots
+	 */
+	Clients clients(Path dataDir) {
+		return new Clients(dataDir);
+	}
+
+	/**
+	 * Builds clients of this server with small pools and short timeouts. Settings that tests vary are named, the
+	 * defaults do not retry and keep the circuit closed for a few failures.
+	 */
+	final class Clients {
+		private final Path dataDir;
+		private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		private int retries;
+		private long retryBackoffMs = 10;
+		private int circuitFailureThreshold = 5;
+		private int circuitOpenSeconds = 30;
+		private boolean snapshots;
+		private int pageSize = 50;
+
+		private Clients(Path dataDir) {
+			this.dataDir = dataDir;
+		}
+
+		Clients meterRegistry(MeterRegistry meterRegistry) {
+			this.meterRegistry = meterRegistry;
+			return this;
+		}
+
+		/**
+		 * @param retryBackoffMs backoff before the first retry, at most 5 times as long before a later one
+		 */
+		Clients retries(int retries, long retryBackoffMs) {
+			this.retries = retries;
+			this.retryBackoffMs = retryBackoffMs;
+			return this;
+		}
+
+		Clients circuit(int failureThreshold, int openSeconds) {
+			this.circuitFailureThreshold = failureThreshold;
+			this.circuitOpenSeconds = openSeconds;
+			return this;
+		}
+
+		Clients snapshots(boolean snapshots) {
+			this.snapshots = snapshots;
+			return this;
+		}
+
+		Clients pageSize(int pageSize) {
+			this.pageSize = pageSize;
+			return this;
+		}
+
+		MeterRegistry meterRegistry() {
+			return meterRegistry;
+		}
+
+		NeoLoadHttpClient httpClient() {
+			return new NeoLoadHttpClient(10, 10, 30_000, 30, 1000, 5000, 1000, 5000, retries, retryBackoffMs, retryBackoffMs * 5,
+					4, 0, circuitFailureThreshold, circuitOpenSeconds, meterRegistry);
+		}
+
+		NeoLoadCache cache() {
+			return new NeoLoadCache(60, 100, 60, 100, 1000, meterRegistry);
+		}
+
+		TestSnapshotStore snapshotStore() {
+			return new TestSnapshotStore(dataDir.toString(), snapshots, 16);
+		}
+
+		/**
+		 * A client with its own cache, snapshot store and baseline index, which reads what an earlier client wrote
+		 * to the data directory as after a restart.
+		 */
+		NeoLoadClient client(NeoLoadHttpClient httpClient) {
+			return client(httpClient, cache(), snapshotStore());
+		}
+
+		NeoLoadClient client(NeoLoadHttpClient httpClient, NeoLoadCache cache, TestSnapshotStore snapshotStore) {
+			MockEnvironment env = new MockEnvironment()
+					.withProperty("Server", url())
+					.withProperty("Token", "token");
+			return new NeoLoadClient(httpClient, cache, new BaselineIndex(dataDir.toString()), snapshotStore, env, pageSize);
+		}
+	}
+
+	/**
+	 * Adds a TERMINATED test as the newest one.
+	 */
+	void addNewest(String testId, String name, String scenario) {
+		testResults.addFirst(testResult(testId, name, scenario));
+	}
+
+	/**
+	 * Adds a TERMINATED test as the oldest one.
+	 */
+	void addOldest(String testId, String name, String scenario) {
+		testResults.add(testResult(testId, name, scenario));
+	}
+
+	void remove(String testId) {
+		testResults.removeIf(testResult -> testResult.getString("id").equals(testId));
+	}
+
+	/**
+	 * Answers GET requests for path with status and body instead of the regular response.
+	 */
+	void respond(String path, int status, String body) {
+		responses.put(path, new Response(status, body));
+	}
+
+	void respondToPatch(int status, String body) {
+		respondToPatch(new Response(status, body));
+	}
+
+	/**
+	 * Answers the next PATCH requests with responses in order, the last one also answers every later PATCH.
+	 */
+	synchronized void respondToPatch(Response... responses) {
+		patchResponses.clear();
+		patchResponses.addAll(List.of(responses));
+	}
+
+	private synchronized Response nextPatchResponse() {
+		return patchResponses.size() > 1 ? patchResponses.poll() : patchResponses.peek();
+	}
+
+	/**
+	 * @return path and query of every request in arrival order
+	 */
+	List<String> requests() {
+		return requests;
+	}
+
+	List<String> patches() {
+		return patches;
+	}
+
+	private static JSONObject testResult(String testId, String name, String scenario) {
+		JSONObject testResult = new JSONObject();
+		testResult.put("id", testId);
+		testResult.put("name", name);
+		testResult.put("scenario", scenario);
+		testResult.put("status", "TERMINATED");
+		testResult.put("startDate", 1_700_000_000_000L);
+		testResult.put("duration", DURATION_MS);
+		return testResult;
+	}
+
+	static String values(double avgDuration) {
+		JSONObject values = new JSONObject();
+		for (String key : new String[]{"avgDuration", "percentile50", "percentile90", "percentile95", "percentile99", "minDuration", "maxDuration"}) {
+			values.put(key, avgDuration);
+		}
+		values.put("count", 100);
+		return values.toString();
+	}
+
+	/**
+	 * @param avgDurations AVG_DURATION of consecutive points of the same length that cover the test, each with
+	 *                     COUNT 100
+	 */
+	static String points(double... avgDurations) {
+		JSONArray points = new JSONArray();
+		long stepMs = DURATION_MS / avgDurations.length;
+		for (int n = 0; n < avgDurations.length; n++) {
+			JSONObject point = new JSONObject();
+			point.put("from", n * stepMs);
+			point.put("to", (n + 1) * stepMs);
+			point.put("AVG_DURATION", avgDurations[n]);
+			point.put("COUNT", 100);
+			points.put(point);
+		}
+		return points.toString();
+	}
+
+	/**
+	 * @return 60 points of 10 seconds with the same AVG_DURATION
+	 */
+	static double[] constant(double avgDuration) {
+		double[] avgDurations = new double[60];
+		Arrays.fill(avgDurations, avgDuration);
+		return avgDurations;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			String path = exchange.getRequestURI().getPath();
+			String query = exchange.getRequestURI().getRawQuery();
+			requests.add(query == null ? path : path + "?" + query);
+			if (exchange.getRequestMethod().equals("PATCH")) {
+				patches.add(body);
+				Response patchResponse = nextPatchResponse();
+				send(exchange, patchResponse.status(), patchResponse.body());
+				return;
+			}
+			Response response = responses.get(path);
+			if (response != null) {
+				send(exchange, response.status(), response.body());
+				return;
+			}
+			Matcher matcher;
+			if (path.equals(INFORMATION)) {
+				send(exchange, 200, "{\"front_url\":\"" + url() + "\",\"version\":\"4.12.0\"}");
+			} else if (path.equals(WORKSPACES)) {
+				send(exchange, 200, "[{\"id\":\"ws\",\"name\":\"ws\"}]");
+			} else if (TEST_RESULTS.matcher(path).matches()) {
+				Map<String, String> parameters = parameters(query);
+				int offset = Integer.parseInt(parameters.getOrDefault("offset", "0"));
+				int limit = Integer.parseInt(parameters.getOrDefault("limit", "50"));
+				List<JSONObject> snapshot = List.copyOf(testResults);
+				send(exchange, 200, new JSONArray(snapshot.subList(Math.min(offset, snapshot.size()), Math.min(offset + limit, snapshot.size()))).toString());
+			} else if ((matcher = TEST_RESULT.matcher(path)).matches()) {
+				String testId = matcher.group(1);
+				JSONObject testResult = testResults.stream().filter(candidate -> candidate.getString("id").equals(testId)).findFirst().orElse(null);
+				send(exchange, testResult == null ? 404 : 200, testResult == null ? "{\"message\":\"Not Found\"}" : testResult.toString());
+			} else if (ELEMENTS.matcher(path).matches()) {
+				send(exchange, 200, "[{\"id\":\"all\",\"name\":\"<all transactions>\",\"path\":[]},"
+						+ "{\"id\":\"e1\",\"name\":\"Login\",\"path\":[\"Actions\",\"Login\"]},"
+						+ "{\"id\":\"e2\",\"name\":\"Search\",\"path\":[\"Actions\",\"Search\"]}]");
+			} else if (VALUES.matcher(path).matches()) {
+				send(exchange, 200, values(100));
+			} else if (POINTS.matcher(path).matches()) {
+				send(exchange, 200, points(constant(100)));
+			} else {
+				send(exchange, 404, "{\"message\":\"Not Found\"}");
+			}
+		}
+	}
+
+	private static Map<String, String> parameters(String query) {
+		Map<String, String> parameters = new ConcurrentHashMap<>();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				int separator = parameter.indexOf('=');
+				if (separator > 0) {
+					parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+				}
+			}
+		}
+		return parameters;
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream outputStream = exchange.getResponseBody()) {
+			outputStream.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
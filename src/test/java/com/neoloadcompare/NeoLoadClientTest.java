@@ -0,0 +1,151 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NeoLoadClientTest {
+
+	private static final String WORKSPACE = "ws";
+	private static final String SCENARIO = "Scenario1";
+	private static final int PAGE_SIZE = 3;
+
+	@TempDir
+	Path dataDir;
+
+	private MockNeoLoadWeb neoLoadWeb;
+	private MockNeoLoadWeb.Clients clients;
+	private NeoLoadHttpClient httpClient;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		neoLoadWeb = new MockNeoLoadWeb();
+		clients = neoLoadWeb.clients(dataDir).pageSize(PAGE_SIZE);
+		httpClient = clients.httpClient();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		httpClient.destroy();
+		neoLoadWeb.close();
+	}
+
+	private NeoLoadClient client() {
+		return clients.client(httpClient);
+	}
+
+	/**
+	 * t0 is the newest test, t{count - 1} the oldest.
+	 */
+	private void addTests(int count) {
+		for (int n = 0; n < count; n++) {
+			neoLoadWeb.addOldest("t" + n, "run" + n, SCENARIO);
+		}
+	}
+
+	private List<String> testResultPages() {
+		return neoLoadWeb.requests().stream()
+				.filter(request -> request.contains("/test-results?"))
+				.map(request -> request.substring(request.indexOf("offset=")))
+				.toList();
+	}
+
+	@Test
+	void pagesUntilTheBaselineIsFound() throws Exception {
+		addTests(8);
+
+		TestResultScanner.TestResultLookup lookup = client().findTestResults(WORKSPACE, "run6", SCENARIO);
+
+		assertThat(lookup.latestTestId()).isEqualTo("t0");
+		assertThat(lookup.baselineTestId()).isEqualTo("t6");
+		assertThat(lookup.scanned()).isEqualTo(7);
+		assertThat(testResultPages()).containsExactly("offset=0", "offset=3", "offset=6");
+	}
+
+	@Test
+	void missingBaselineScansTheWholeList() throws Exception {
+		addTests(8);
+
+		TestResultScanner.TestResultLookup lookup = client().findTestResults(WORKSPACE, "unknown", SCENARIO);
+
+		assertThat(lookup.baselineFound()).isFalse();
+		assertThat(lookup.latestTestId()).isEqualTo("t0");
+		assertThat(lookup.scanned()).isEqualTo(8);
+		assertThat(testResultPages()).containsExactly("offset=0", "offset=3", "offset=6");
+	}
+
+	@Test
+	void baselineOfTheOtherScenarioIsIgnored() throws Exception {
+		addTests(2);
+		neoLoadWeb.addNewest("other", "run1", "Scenario2");
+
+		TestResultScanner.TestResultLookup lookup = client().findTestResults(WORKSPACE, "run1", SCENARIO);
+
+		assertThat(lookup.latestTestId()).isEqualTo("other");
+		assertThat(lookup.baselineTestId()).isEqualTo("t1");
+	}
+
+	@Test
+	void rememberedBaselineIsOnlyVerified() throws Exception {
+		addTests(8);
+		client().findTestResults(WORKSPACE, "run6", SCENARIO);
+		neoLoadWeb.requests().clear();
+
+		// A new client reads the index written by the first one, as after a restart
+		TestResultScanner.TestResultLookup lookup = client().findTestResults(WORKSPACE, "run6", SCENARIO);
+
+		assertThat(lookup.latestTestId()).isEqualTo("t0");
+		assertThat(lookup.baselineTestId()).isEqualTo("t6");
+		assertThat(testResultPages()).containsExactly("offset=0");
+		assertThat(neoLoadWeb.requests()).contains("/v3/workspaces/ws/test-results/t6");
+	}
+
+	@Test
+	void rememberedBaselineThatIsGoneIsScannedFor() throws Exception {
+		addTests(8);
+		NeoLoadClient client = client();
+		client.findTestResults(WORKSPACE, "run6", SCENARIO);
+		neoLoadWeb.remove("t6");
+		neoLoadWeb.addOldest("t9", "run6", SCENARIO);
+		neoLoadWeb.requests().clear();
+
+		TestResultScanner.TestResultLookup lookup = client.findTestResults(WORKSPACE, "run6", SCENARIO);
+
+		assertThat(lookup.baselineTestId()).isEqualTo("t9");
+		assertThat(testResultPages()).containsExactly("offset=0", "offset=3", "offset=6");
+		assertThat(new BaselineIndex(dataDir.toString()).get(WORKSPACE, SCENARIO, "run6")).isEqualTo("t9");
+	}
+
+	@Test
+	void rememberedBaselineThatIsGoneIsForgotten() throws Exception {
+		addTests(8);
+		NeoLoadClient client = client();
+		client.findTestResults(WORKSPACE, "run6", SCENARIO);
+		neoLoadWeb.remove("t6");
+
+		TestResultScanner.TestResultLookup lookup = client.findTestResults(WORKSPACE, "run6", SCENARIO);
+
+		assertThat(lookup.baselineFound()).isFalse();
+		assertThat(new BaselineIndex(dataDir.toString()).size()).isZero();
+	}
+
+	@Test
+	void newerTestWithTheBaselineNameReplacesTheRememberedOne() throws Exception {
+		addTests(8);
+		NeoLoadClient client = client();
+		client.findTestResults(WORKSPACE, "run6", SCENARIO);
+		neoLoadWeb.addNewest("rerun", "run6", SCENARIO);
+
+		TestResultScanner.TestResultLookup lookup = client.findTestResults(WORKSPACE, "run6", SCENARIO);
+
+		assertThat(lookup.latestTestId()).isEqualTo("rerun");
+		assertThat(lookup.baselineTestId()).isEqualTo("rerun");
+		assertThat(new BaselineIndex(dataDir.toString()).get(WORKSPACE, SCENARIO, "run6")).isEqualTo("rerun");
+	}
+}
@@ -0,0 +1,135 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NeoLoadCompareApplicationTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private NeoLoadCompareApplication application;
+
+	@BeforeEach
+	void setUp() {
+		application = new NeoLoadCompareApplication();
+		// One worker and one queue slot
+		application.comparisonJobService = new ComparisonJobService(1, 1, 60, 100, new SimpleMeterRegistry());
+		application.significanceSettings = new SignificanceSettings(5, 0.99);
+	}
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		application.comparisonJobService.destroy();
+	}
+
+	private ResponseEntity<String> submitJob(String percentage, String mode, String windowPercentage) {
+		return application.submitJob("demo", "scenario", "1", percentage, "avgduration", null, mode, windowPercentage, null, null, null);
+	}
+
+	private static String error(ResponseEntity<String> response) {
+		return new JSONObject(response.getBody()).getString("error");
+	}
+
+	@Test
+	void jobWithAnInvalidPercentageIsRejectedBeforeItIsQueued() {
+		for (String percentage : new String[]{"ten", "", "10%", "NaN", "Infinity"}) {
+			ResponseEntity<String> response = submitJob(percentage, null, null);
+
+			assertThat(response.getStatusCode()).as(percentage).isEqualTo(HttpStatus.BAD_REQUEST);
+			assertThat(error(response)).startsWith("Invalid 'percentage' parameter");
+		}
+		ResponseEntity<String> response = submitJob("10", "points", "x");
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(error(response)).startsWith("Invalid 'windowPercentage' parameter");
+
+		assertThat(application.comparisonJobService.getStats().getInt("retained")).isZero();
+	}
+
+	@Test
+	void jobWithAnInvalidElementModeOrGateIsABadRequest() {
+		assertThat(application.submitJob("demo", "scenario", "1", "10", "median", null, null, null, null, null, null).getStatusCode())
+				.isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(submitJob("10", "average", null).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(application.submitJob("demo", "scenario", "1", "10", "avgduration", null, null, null, "bogus", null, null).getStatusCode())
+				.isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(application.submitJob("demo", "scenario", "1", "10", "avgduration", "ftp://ci.example.com", null, null, null, null, null).getStatusCode())
+				.isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	@Test
+	void fullQueueIsAnsweredWithTooManyRequestsAndRetryAfter() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		application.comparisonJobService.submit("running", null, () -> {
+			started.countDown();
+			release.await();
+			return new ComparisonService.ComparisonResult(ComparisonService.Status.OK, new JSONObject());
+		});
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		ResponseEntity<String> queued = submitJob("10", null, null);
+		ResponseEntity<String> rejected = submitJob("10", null, null);
+
+		assertThat(queued.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+		String jobId = new JSONObject(queued.getBody()).getString("jobId");
+		assertThat(queued.getHeaders().getFirst(HttpHeaders.LOCATION)).isEqualTo("/jobs/" + jobId);
+		assertThat(rejected.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+		assertThat(rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("30");
+		assertThat(error(rejected)).contains("queue is full");
+	}
+
+	@Test
+	void invalidBatchIsABadRequest() throws Exception {
+		String[] bodies = {
+				"not json",
+				"{\"workspace\":\"demo\",\"comparisons\":[]}",
+				"{\"comparisons\":[{\"scenario\":\"s\",\"baseline\":\"1\",\"element\":\"avgduration\",\"percentage\":\"10\"}]}",
+				"{\"workspace\":\"demo\",\"comparisons\":[\"s\"]}",
+				"{\"workspace\":\"demo\",\"comparisons\":[{\"scenario\":\"s\",\"baseline\":\"1\",\"element\":\"avgduration\"}]}",
+				"{\"workspace\":\"demo\",\"comparisons\":[{\"scenario\":\"s\",\"baseline\":\"1\",\"element\":\"avgduration\",\"percentage\":\"ten\"}]}",
+				"{\"workspace\":\"demo\",\"comparisons\":[{\"scenario\":\"s\",\"baseline\":\"1\",\"element\":\"median\",\"percentage\":\"10\"}]}",
+				"{\"workspace\":\"demo\",\"comparisons\":[{\"scenario\":\"s\",\"baseline\":\"1\",\"element\":\"avgduration\",\"percentage\":\"10\",\"gate\":\"bogus\"}]}"};
+		for (String body : bodies) {
+			// comparisonService is not set, a request that got past validation would throw
+			ResponseEntity<String> response = application.NeoLoadCompareBatch(body);
+			ResponseEntity<String> job = application.submitBatchJob(body, null);
+
+			assertThat(response.getStatusCode()).as(body).isEqualTo(HttpStatus.BAD_REQUEST);
+			assertThat(error(response)).as(body).isNotEmpty();
+			assertThat(job.getStatusCode()).as(body).isEqualTo(HttpStatus.BAD_REQUEST);
+		}
+		assertThat(error(application.NeoLoadCompareBatch("{\"workspace\":\"demo\",\"comparisons\":[{\"scenario\":\"s\",\"baseline\":\"1\",\"element\":\"avgduration\",\"percentage\":\"10\"},"
+				+ "{\"scenario\":\"s\",\"baseline\":\"1\",\"element\":\"avgduration\",\"percentage\":\"x\"}]}")))
+				.isEqualTo("comparisons[1] has an invalid percentage: x");
+		assertThat(application.comparisonJobService.getStats().getInt("retained")).isZero();
+	}
+
+	@Test
+	void trendIsCappedAtMaxTests() throws Exception {
+		// Checked before NeoLoad Web is called, the client is not needed
+		application.trendService = new TrendService(null, null, 4, 5);
+
+		for (int tests : new int[]{0, 6}) {
+			ResponseEntity<StreamingResponseBody> response = application.trend("demo", "scenario", null, tests, null, null);
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			response.getBody().writeTo(body);
+
+			assertThat(response.getStatusCode()).as("tests=" + tests).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+			assertThat(new JSONObject(body.toString(StandardCharsets.UTF_8)).getString("error"))
+					.isEqualTo("Invalid 'tests' parameter, must be between 1 and 5");
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.neoloadcompare;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NeoLoadHealthIndicatorTest {
+
+	private static final String INFORMATION = "/v3/information";
+
+	@TempDir
+	Path dataDir;
+
+	private MockNeoLoadWeb neoLoadWeb;
+	private NeoLoadHttpClient httpClient;
+	private NeoLoadClient client;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		neoLoadWeb = new MockNeoLoadWeb();
+		MockNeoLoadWeb.Clients clients = neoLoadWeb.clients(dataDir);
+		httpClient = clients.httpClient();
+		client = clients.client(httpClient);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		httpClient.destroy();
+		neoLoadWeb.close();
+	}
+
+	private long informationRequests() {
+		return neoLoadWeb.requests().stream().filter(INFORMATION::equals).count();
+	}
+
+	private static ResponseEntity<String> healthcheck(NeoLoadHealthIndicator indicator) {
+		NeoLoadCompareApplication application = new NeoLoadCompareApplication();
+		application.neoLoadHealthIndicator = indicator;
+		return application.healthcheck();
+	}
+
+	@Test
+	void reachableNeoLoadWebIsUp() {
+		NeoLoadHealthIndicator indicator = new NeoLoadHealthIndicator(client, 10);
+
+		Health health = indicator.health();
+
+		assertThat(health.getStatus()).isEqualTo(Status.UP);
+		assertThat(health.getDetails()).containsEntry("version", "4.12.0").containsEntry("server", neoLoadWeb.url()).containsKey("latencyMs");
+		ResponseEntity<String> response = healthcheck(indicator);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(new JSONObject(response.getBody()).getString("status")).isEqualTo("ok");
+		assertThat(new JSONObject(response.getBody()).getJSONObject("neoload").getString("version")).isEqualTo("4.12.0");
+	}
+
+	@Test
+	void serverErrorIsDownAndAnsweredWith503() {
+		neoLoadWeb.respond(INFORMATION, 503, "{\"message\":\"Service Unavailable\"}");
+		NeoLoadHealthIndicator indicator = new NeoLoadHealthIndicator(client, 10);
+
+		Health health = indicator.health();
+
+		assertThat(health.getStatus()).isEqualTo(Status.DOWN);
+		assertThat(health.getDetails()).containsKeys("server", "latencyMs", "error");
+		ResponseEntity<String> response = healthcheck(indicator);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+		JSONObject body = new JSONObject(response.getBody());
+		assertThat(body.getString("status")).isEqualTo("down");
+		assertThat(body.getJSONObject("neoload").has("error")).isTrue();
+	}
+
+	@Test
+	void unreachableNeoLoadWebIsDown() {
+		neoLoadWeb.close();
+		NeoLoadHealthIndicator indicator = new NeoLoadHealthIndicator(client, 10);
+
+		Health health = indicator.health();
+
+		assertThat(health.getStatus()).isEqualTo(Status.DOWN);
+		assertThat(health.getDetails()).containsEntry("server", neoLoadWeb.url()).containsKey("error");
+		assertThat(healthcheck(indicator).getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+	}
+
+	@Test
+	void invalidTokenIsDown() {
+		neoLoadWeb.respond(INFORMATION, 200, "{\"message\":\"Invalid token\"}");
+
+		Health health = new NeoLoadHealthIndicator(client, 10).health();
+
+		assertThat(health.getStatus()).isEqualTo(Status.DOWN);
+		assertThat(health.getDetails()).containsEntry("error", "Invalid token");
+	}
+
+	@Test
+	void resultIsReusedUntilTheCacheExpires() throws Exception {
+		neoLoadWeb.respond(INFORMATION, 503, "{\"message\":\"Service Unavailable\"}");
+		NeoLoadHealthIndicator indicator = new NeoLoadHealthIndicator(client, 1);
+
+		assertThat(indicator.health().getStatus()).isEqualTo(Status.DOWN);
+		neoLoadWeb.respond(INFORMATION, 200, "{\"version\":\"4.12.0\"}");
+		for (int n = 0; n < 5; n++) {
+			assertThat(indicator.health().getStatus()).isEqualTo(Status.DOWN);
+			assertThat(healthcheck(indicator).getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		assertThat(informationRequests()).isEqualTo(1);
+
+		Thread.sleep(1100);
+
+		assertThat(indicator.health().getStatus()).isEqualTo(Status.UP);
+		assertThat(informationRequests()).isEqualTo(2);
+	}
+
+	@Test
+	void withoutCachingEveryProbeCallsNeoLoadWeb() {
+		NeoLoadHealthIndicator indicator = new NeoLoadHealthIndicator(client, 0);
+
+		indicator.health();
+		indicator.health();
+
+		assertThat(informationRequests()).isEqualTo(2);
+	}
+}
@@ -0,0 +1,100 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NeoLoadHttpClientTest {
+
+	private static final String PATH = "/v3/information";
+
+	@TempDir
+	Path dataDir;
+
+	private MockNeoLoadWeb neoLoadWeb;
+	private NeoLoadHttpClient httpClient;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		neoLoadWeb = new MockNeoLoadWeb();
+		neoLoadWeb.respond(PATH, 200, "{\"version\":\"4.0\"}");
+		// The circuit opens after 2 failures and lets a trial through right away
+		httpClient = neoLoadWeb.clients(dataDir).retries(1, 1).circuit(2, 0).httpClient();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		httpClient.destroy();
+		neoLoadWeb.close();
+	}
+
+	private String get() throws IOException {
+		return httpClient.get(PATH, neoLoadWeb.url() + PATH, "token");
+	}
+
+	private String circuit() {
+		return httpClient.getPoolStats().getString("circuit");
+	}
+
+	private void openCircuit() {
+		neoLoadWeb.respond(PATH, 503, "{\"message\":\"Service Unavailable\"}");
+		assertThatThrownBy(this::get).isInstanceOf(IOException.class).hasMessageContaining("503");
+		assertThat(circuit()).isEqualTo("OPEN");
+		neoLoadWeb.respond(PATH, 200, "{\"version\":\"4.0\"}");
+	}
+
+	@Test
+	void retriesServerErrorsAndOpensTheCircuit() throws IOException {
+		openCircuit();
+		assertThat(neoLoadWeb.requests()).hasSize(2);
+
+		assertThat(get()).contains("4.0");
+		assertThat(circuit()).isEqualTo("CLOSED");
+	}
+
+	@Test
+	void clientErrorsAreReturnedAndNotRetried() throws IOException {
+		neoLoadWeb.respond(PATH, 404, "{\"message\":\"Not Found\"}");
+
+		assertThat(get()).contains("Not Found");
+		assertThat(neoLoadWeb.requests()).hasSize(1);
+		assertThat(circuit()).isEqualTo("CLOSED");
+	}
+
+	@Test
+	void invalidTokenIsNotRetried() {
+		neoLoadWeb.respond(PATH, 401, "{}");
+
+		assertThatThrownBy(this::get).isInstanceOf(IOException.class).hasMessageContaining("Unauthorized");
+		assertThat(neoLoadWeb.requests()).hasSize(1);
+	}
+
+	@Test
+	void invalidUrlDoesNotTakeTheTrialCall() throws IOException {
+		openCircuit();
+
+		assertThatThrownBy(() -> httpClient.get(PATH, neoLoadWeb.url() + "/v3/in formation", "token")).isInstanceOf(IllegalArgumentException.class);
+
+		assertThat(get()).contains("4.0");
+		assertThat(circuit()).isEqualTo("CLOSED");
+	}
+
+	@Test
+	void callRejectedDuringShutdownEndsTheTrialCall() throws IOException {
+		openCircuit();
+		httpClient.destroy();
+
+		for (int n = 0; n < 2; n++) {
+			assertThatThrownBy(this::get).as("call %d", n).isInstanceOf(RejectedExecutionException.class);
+		}
+		assertThat(httpClient.getPoolStats().getInt("upstreamInFlight")).isZero();
+	}
+}
@@ -0,0 +1,79 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PointsScannerTest {
+
+	private static TimeSeriesSummary summary() {
+		return new TimeSeriesSummary(TimeSeriesSummary.Layout.of(MockNeoLoadWeb.DURATION_MS, TimeSeriesSummaryTest.SETTINGS), TimeSeriesSummaryTest.SETTINGS);
+	}
+
+	private static InputStream json(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void everyPointGoesIntoTheSummary() throws IOException {
+		TimeSeriesSummary summary = summary();
+
+		int points = PointsScanner.scan(json(MockNeoLoadWeb.points(MockNeoLoadWeb.constant(100))), summary);
+
+		assertThat(points).isEqualTo(60);
+		assertThat(summary.steadyState("avgDuration")).isEqualTo(100);
+		// 51 points of 10 s in the steady state from 60 s to 570 s
+		assertThat(summary.steadyStateCount()).isEqualTo(5100);
+	}
+
+	@Test
+	void nullsUnknownFieldsAndNestedValuesAreSkipped() throws IOException {
+		TimeSeriesSummary summary = summary();
+
+		int points = PointsScanner.scan(json("""
+				[{"from": 100000, "to": 110000, "AVG_DURATION": null, "COUNT": 50},
+				 {"from": 110000, "to": 120000, "AVG_DURATION": 200.5, "COUNT": 40, "MAX_DURATION": 900, "tags": {"a": [1, {"b": 2}]}},
+				 {"tags": [], "to": 130000, "COUNT": 10, "AVG_DURATION": 100.5, "from": 120000}]
+				"""), summary);
+
+		assertThat(points).isEqualTo(3);
+		assertThat(summary.steadyStateCount()).isEqualTo(50);
+		assertThat(summary.steadyState("avgDuration")).isEqualTo((200.5 * 40 + 100.5 * 10) / 50);
+	}
+
+	@Test
+	void emptySeriesHasNoSteadyState() throws IOException {
+		TimeSeriesSummary summary = summary();
+
+		assertThat(PointsScanner.scan(json("[]"), summary)).isZero();
+		assertThat(summary.steadyState("avgDuration")).isNaN();
+	}
+
+	@Test
+	void errorBodyIsRejected() {
+		assertThatThrownBy(() -> PointsScanner.scan(json("{\"message\":\"Not Found\"}"), summary()))
+				.isInstanceOf(IOException.class)
+				.hasMessageContaining("expected a JSON array");
+	}
+
+	@Test
+	void streamIsLeftOpenForTheCaller() throws IOException {
+		boolean[] closed = {false};
+		InputStream inputStream = new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+
+		PointsScanner.scan(inputStream, summary());
+
+		assertThat(closed[0]).isFalse();
+	}
+}
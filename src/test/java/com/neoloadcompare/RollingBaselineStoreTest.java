@@ -0,0 +1,55 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RollingBaselineStoreTest {
+
+	@TempDir
+	Path dataDir;
+
+	@Test
+	void savedRollingBaselineIsLoadedAfterARestart() {
+		RollingBaselineStore store = new RollingBaselineStore(dataDir.toString(), 3, 2);
+		RollingBaseline rollingBaseline = store.get("ws", "Scenario/1");
+		rollingBaseline.fold(new TestResultScanner.Run("t1", "run1", "Scenario/1", 1), Map.of("Login", ComparisonEngineTest.values(100)), Set.of());
+		store.save(rollingBaseline);
+
+		RollingBaseline loaded = new RollingBaselineStore(dataDir.toString(), 3, 2).get("ws", "Scenario/1");
+
+		assertThat(loaded.contains("t1")).isTrue();
+		assertThat(loaded.reference(List.of("t1")).get("Login").avgDuration()).isEqualTo(100);
+		assertThat(new RollingBaselineStore(dataDir.toString(), 4, 2).get("ws", "Scenario/1").runs()).as("other max-runs").isEmpty();
+	}
+
+	@Test
+	void concurrentSavesLeaveOneCompleteFile() throws Exception {
+		RollingBaselineStore store = new RollingBaselineStore(dataDir.toString(), 20, 5);
+		RollingBaseline rollingBaseline = store.get("ws", "Scenario1");
+		try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+			for (int n = 0; n < 200; n++) {
+				TestResultScanner.Run run = new TestResultScanner.Run("t" + n, "run" + n, "Scenario1", n);
+				executor.submit(() -> {
+					rollingBaseline.fold(run, Map.of("Login", ComparisonEngineTest.values(100)), Set.of());
+					store.save(rollingBaseline);
+				});
+			}
+		}
+
+		try (Stream<Path> files = Files.list(dataDir.resolve("rolling-baselines").resolve("ws"))) {
+			assertThat(files.map(file -> file.getFileName().toString())).containsExactly("Scenario1.json");
+		}
+		assertThat(new RollingBaselineStore(dataDir.toString(), 20, 5).get("ws", "Scenario1").runs()).hasSize(20);
+	}
+}
@@ -0,0 +1,108 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RollingBaselineTest {
+
+	private static TestResultScanner.Run run(int n) {
+		return new TestResultScanner.Run("t" + n, "run" + n, "Scenario1", 1_700_000_000_000L + n * 3_600_000L);
+	}
+
+	private static Map<String, TransactionValues> values(double login, double search) {
+		return Map.of("Login", ComparisonEngineTest.values(login), "Search", ComparisonEngineTest.values(search));
+	}
+
+	private static List<String> testIds(RollingBaseline rollingBaseline) {
+		return rollingBaseline.runs().stream().map(TestResultScanner.Run::testId).toList();
+	}
+
+	@Test
+	void foldEvictsTheOldestTestThatIsNotKept() {
+		RollingBaseline rollingBaseline = new RollingBaseline("ws", "Scenario1", 3);
+		for (int n = 1; n <= 3; n++) {
+			assertThat(rollingBaseline.fold(run(n), values(n * 100, 10), Set.of())).isTrue();
+		}
+
+		// t1 is the oldest but still needed, t2 gives up its slot
+		assertThat(rollingBaseline.fold(run(4), values(400, 10), Set.of("t1", "t3", "t4"))).isTrue();
+
+		assertThat(testIds(rollingBaseline)).containsExactly("t4", "t3", "t1");
+		assertThat(rollingBaseline.contains("t2")).isFalse();
+		assertThat(rollingBaseline.reference(List.of("t2"))).isEmpty();
+	}
+
+	@Test
+	void foldFailsWhenEverySlotIsKept() {
+		RollingBaseline rollingBaseline = new RollingBaseline("ws", "Scenario1", 2);
+		rollingBaseline.fold(run(1), values(100, 10), Set.of());
+		rollingBaseline.fold(run(2), values(200, 10), Set.of());
+
+		assertThat(rollingBaseline.fold(run(3), values(300, 10), Set.of("t1", "t2", "t3"))).isFalse();
+		assertThat(rollingBaseline.fold(run(2), values(999, 10), Set.of("t1", "t2"))).as("already folded").isTrue();
+		assertThat(rollingBaseline.reference(List.of("t2")).get("Login").avgDuration()).isEqualTo(200);
+	}
+
+	@Test
+	void evictedSlotDoesNotKeepValuesOfTransactionsTheNewTestLacks() {
+		RollingBaseline rollingBaseline = new RollingBaseline("ws", "Scenario1", 1);
+		rollingBaseline.fold(run(1), values(100, 10), Set.of());
+		rollingBaseline.fold(run(2), Map.of("Login", ComparisonEngineTest.values(200)), Set.of());
+
+		assertThat(rollingBaseline.reference(List.of("t2"))).containsOnlyKeys("Login");
+	}
+
+	@Test
+	void referenceIsTheMedianOverTheTestsThatHaveTheTransaction() {
+		RollingBaseline rollingBaseline = new RollingBaseline("ws", "Scenario1", 5);
+		rollingBaseline.fold(run(1), values(100, 10), Set.of());
+		rollingBaseline.fold(run(2), values(300, 20), Set.of());
+		rollingBaseline.fold(run(3), values(200, Double.NaN), Set.of());
+		rollingBaseline.fold(run(4), Map.of("Login", ComparisonEngineTest.values(1000)), Set.of());
+
+		Map<String, TransactionValues> reference = rollingBaseline.reference(List.of("t1", "t2", "t3", "unknown"));
+
+		assertThat(reference.get("Login").avgDuration()).isEqualTo(200);
+		assertThat(reference.get("Login").percentile90()).isCloseTo(260, within(1e-9));
+		assertThat(reference.get("Search").avgDuration()).isEqualTo(15);
+		assertThat(rollingBaseline.reference(List.of("t1", "t2", "t3", "t4")).get("Login").avgDuration()).isEqualTo(250);
+	}
+
+	@Test
+	void spreadOverTheTests() {
+		RollingBaseline rollingBaseline = new RollingBaseline("ws", "Scenario1", 5);
+		rollingBaseline.fold(run(1), values(100, 10), Set.of());
+		rollingBaseline.fold(run(2), values(200, 10), Set.of());
+		rollingBaseline.fold(run(3), values(600, 10), Set.of());
+
+		Map<String, RollingBaseline.Spread> spread = rollingBaseline.spread(List.of("t1", "t2", "t3"), "avgDuration");
+
+		assertThat(spread).containsOnlyKeys("Login", "Search");
+		RollingBaseline.Spread login = spread.get("Login");
+		assertThat(login.runs()).isEqualTo(3);
+		assertThat(login.median()).isEqualTo(200);
+		assertThat(login.mean()).isCloseTo(300, within(1e-9));
+		assertThat(login.standardDeviation()).isCloseTo(Math.sqrt(70_000), within(1e-9));
+		assertThat(spread.get("Search").standardDeviation()).isZero();
+		assertThat(rollingBaseline.spread(List.of("t1"), "avgDuration").get("Login").standardDeviation()).isZero();
+	}
+
+	@Test
+	void jsonRoundTrip() {
+		RollingBaseline rollingBaseline = new RollingBaseline("ws", "Scenario1", 3);
+		rollingBaseline.fold(run(1), values(100, 10), Set.of());
+		rollingBaseline.fold(run(2), values(200, Double.NaN), Set.of());
+
+		RollingBaseline restored = RollingBaseline.fromJson(rollingBaseline.toJson(), 3);
+
+		assertThat(restored.runs()).isEqualTo(rollingBaseline.runs());
+		assertThat(restored.reference(List.of("t1", "t2"))).isEqualTo(rollingBaseline.reference(List.of("t1", "t2")));
+		assertThat(RollingBaseline.fromJson(rollingBaseline.toJson(), 4)).as("other max-runs").isNull();
+	}
+}
@@ -0,0 +1,31 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SignificanceSettingsTest {
+
+	private final SignificanceSettings settings = new SignificanceSettings(5, 0.99);
+
+	@Test
+	void noGateUnlessRequested() {
+		assertThat(settings.gate(null, null, null)).isNull();
+		assertThat(settings.gate("percentage", null, null)).isNull();
+	}
+
+	@Test
+	void requestOverridesTheDefaults() {
+		assertThat(settings.gate("significance", null, null)).isEqualTo(new ComparisonEngine.Gate(5, 0.99));
+		assertThat(settings.gate("significance", "20", "0.95")).isEqualTo(new ComparisonEngine.Gate(20, 0.95));
+	}
+
+	@Test
+	void rejectsInvalidParameters() {
+		assertThatThrownBy(() -> settings.gate(null, "20", null)).hasMessageContaining("require gate=significance");
+		assertThatThrownBy(() -> settings.gate("bayes", null, null)).hasMessageContaining("Invalid 'gate' parameter");
+		assertThatThrownBy(() -> settings.gate("significance", "fast", null)).hasMessageContaining("must be numbers");
+		assertThatThrownBy(() -> settings.gate("significance", null, "1.5")).isInstanceOf(IllegalArgumentException.class);
+	}
+}
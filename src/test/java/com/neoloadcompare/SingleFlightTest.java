@@ -0,0 +1,123 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final SingleFlight<String, String> singleFlight = new SingleFlight<>("test", meterRegistry);
+
+	private double collapsed() {
+		return meterRegistry.get("neoload.singleflight.calls").tag("role", "collapsed").counter().count();
+	}
+
+	private void awaitCollapsed(int callers) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (collapsed() < callers && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertThat(collapsed()).isEqualTo(callers);
+	}
+
+	@Test
+	void identicalCallsInFlightShareOneCall() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<String>> results = new ArrayList<>();
+			results.add(executor.submit(() -> singleFlight.execute("key", () -> {
+				calls.incrementAndGet();
+				release.await();
+				return "result";
+			})));
+			while (calls.get() == 0) {
+				Thread.sleep(1);
+			}
+			for (int n = 0; n < 5; n++) {
+				results.add(executor.submit(() -> singleFlight.execute("key", () -> "not the leader")));
+			}
+			awaitCollapsed(5);
+			release.countDown();
+
+			for (Future<String> result : results) {
+				assertThat(result.get()).isEqualTo("result");
+			}
+		}
+		assertThat(calls.get()).isEqualTo(1);
+		assertThat(singleFlight.execute("key", () -> "again")).as("nothing is kept").isEqualTo("again");
+	}
+
+	@Test
+	void waitingCallersGetTheException() throws Exception {
+		CountDownLatch leaderStarted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+				leaderStarted.countDown();
+				release.await();
+				throw new IOException("NeoLoad Web is down");
+			}));
+			leaderStarted.await();
+			Future<String> follower = executor.submit(() -> singleFlight.execute("key", () -> "not called"));
+			awaitCollapsed(1);
+			release.countDown();
+
+			for (Future<String> result : List.of(leader, follower)) {
+				assertThatThrownBy(result::get).isInstanceOf(ExecutionException.class)
+						.cause().isInstanceOf(IOException.class).hasMessage("NeoLoad Web is down");
+			}
+		}
+	}
+
+	@Test
+	void waitingCallerRunsTheCallItselfWhenTheLeaderIsInterrupted() throws Exception {
+		CountDownLatch leaderStarted = new CountDownLatch(1);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+				leaderStarted.countDown();
+				Thread.sleep(60_000);
+				return "leader";
+			}));
+			leaderStarted.await();
+			Future<String> follower = executor.submit(() -> singleFlight.execute("key", () -> "follower"));
+			awaitCollapsed(1);
+
+			// As when the job of the leader is cancelled
+			leader.cancel(true);
+
+			assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("follower");
+		}
+	}
+
+	@Test
+	void differentKeysDoNotWaitForEachOther() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<String> blocked = executor.submit(() -> singleFlight.execute("a", () -> {
+				release.await();
+				return "a";
+			}));
+
+			assertThat(singleFlight.execute("b", () -> "b")).isEqualTo("b");
+			release.countDown();
+			assertThat(blocked.get()).isEqualTo("a");
+		}
+		assertThat(collapsed()).isZero();
+	}
+}
@@ -0,0 +1,191 @@
+package com.neoloadcompare;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestResultScannerTest {
+
+	private static final String SCENARIO = "Scenario1";
+	private static final long START_DATE = 1_700_000_000_000L;
+
+	/**
+	 * Counts the bytes the parser has taken from the stream.
+	 */
+	private static final class CountingInputStream extends ByteArrayInputStream {
+		private long read;
+
+		CountingInputStream(byte[] bytes) {
+			super(bytes);
+		}
+
+		@Override
+		public synchronized int read() {
+			int b = super.read();
+			if (b >= 0) {
+				read++;
+			}
+			return b;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				read += n;
+			}
+			return n;
+		}
+	}
+
+	private static JSONObject testResult(String testId, String name, String scenario, String status, long startDate) {
+		JSONObject testResult = new JSONObject();
+		testResult.put("id", testId);
+		testResult.put("name", name);
+		testResult.put("description", "Nightly run with a long description " + "x".repeat(200));
+		testResult.put("scenario", scenario);
+		testResult.put("status", status);
+		testResult.put("startDate", startDate);
+		testResult.put("lgCount", 4);
+		testResult.put("tags", new JSONArray().put("nightly").put(new JSONObject().put("nested", new JSONArray().put(1))));
+		return testResult;
+	}
+
+	/**
+	 * @return count TERMINATED tests of SCENARIO named #count down to #1, newest first, one minute apart
+	 */
+	private static JSONArray testResults(int count) {
+		JSONArray testResults = new JSONArray();
+		for (int n = count; n >= 1; n--) {
+			testResults.put(testResult("t" + n, "#" + n, SCENARIO, "TERMINATED", START_DATE + n * 60_000L));
+		}
+		return testResults;
+	}
+
+	private static InputStream json(JSONArray json) {
+		return new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void scanStopsAtTheBaselineWithoutReadingTheRest() throws IOException {
+		byte[] bytes = testResults(5000).toString().getBytes(StandardCharsets.UTF_8);
+		CountingInputStream inputStream = new CountingInputStream(bytes);
+
+		TestResultScanner.TestResultLookup lookup = TestResultScanner.scan(inputStream, "#4999", SCENARIO);
+
+		assertThat(lookup.latestTestId()).isEqualTo("t5000");
+		assertThat(lookup.latestName()).isEqualTo("#5000");
+		assertThat(lookup.latestScenario()).isEqualTo(SCENARIO);
+		assertThat(lookup.baselineTestId()).isEqualTo("t4999");
+		assertThat(lookup.scanned()).isEqualTo(2);
+		// More than a megabyte, of which only the parser's first buffers are read
+		assertThat(bytes.length).isGreaterThan(1_000_000);
+		assertThat(inputStream.read).isLessThan(20_000);
+	}
+
+	@Test
+	void scanRunsStopsAtTheLimitWithoutReadingTheRest() throws IOException {
+		byte[] bytes = testResults(5000).toString().getBytes(StandardCharsets.UTF_8);
+		CountingInputStream inputStream = new CountingInputStream(bytes);
+
+		TestResultScanner.ScenarioRuns runs = TestResultScanner.scanRuns(inputStream, SCENARIO, 3);
+
+		assertThat(runs.runs()).extracting(TestResultScanner.Run::testId).containsExactly("t5000", "t4999", "t4998");
+		assertThat(runs.latest().testId()).isEqualTo("t5000");
+		assertThat(runs.scanned()).isEqualTo(3);
+		assertThat(runs.before()).isFalse();
+		assertThat(inputStream.read).isLessThan(20_000);
+	}
+
+	@Test
+	void missingBaselineScansTheWholePage() throws IOException {
+		TestResultScanner.TestResultLookup lookup = TestResultScanner.scan(json(testResults(50)), "#99", SCENARIO);
+
+		assertThat(lookup.baselineFound()).isFalse();
+		assertThat(lookup.baselineTestId()).isEqualTo("NOT FOUND");
+		assertThat(lookup.latestTestId()).isEqualTo("t50");
+		assertThat(lookup.scanned()).isEqualTo(50);
+	}
+
+	@Test
+	void baselineOfAnotherScenarioIsNotAMatch() throws IOException {
+		JSONArray testResults = testResults(3);
+		testResults.put(testResult("other", "#1", "Scenario2", "TERMINATED", START_DATE));
+
+		TestResultScanner.TestResultLookup lookup = TestResultScanner.scan(json(testResults), "#1", SCENARIO);
+		TestResultScanner.TestResultLookup otherLookup = TestResultScanner.scan(json(testResults), "#1", "Scenario2");
+
+		assertThat(lookup.baselineTestId()).isEqualTo("t1");
+		assertThat(otherLookup.baselineTestId()).isEqualTo("other");
+		// The latest test is the newest of all scenarios, the caller checks its scenario
+		assertThat(otherLookup.latestTestId()).isEqualTo("t3");
+		assertThat(otherLookup.latestScenario()).isEqualTo(SCENARIO);
+	}
+
+	@Test
+	void testsThatAreNotTerminatedAreSkipped() throws IOException {
+		JSONArray testResults = new JSONArray();
+		testResults.put(testResult("running", "#4", SCENARIO, "RUNNING", START_DATE + 400_000));
+		testResults.put(testResult("failed", "#1", SCENARIO, "FAILED", START_DATE + 300_000));
+		for (Object testResult : testResults(3)) {
+			testResults.put(testResult);
+		}
+
+		TestResultScanner.TestResultLookup lookup = TestResultScanner.scan(json(testResults), "#1", SCENARIO);
+		TestResultScanner.ScenarioRuns runs = TestResultScanner.scanRuns(json(testResults), SCENARIO, 2);
+
+		assertThat(lookup.latestTestId()).isEqualTo("t3");
+		assertThat(lookup.latestName()).isEqualTo("#3");
+		assertThat(lookup.baselineTestId()).isEqualTo("t1");
+		// Skipped entries count as scanned, paging depends on it
+		assertThat(lookup.scanned()).isEqualTo(5);
+		assertThat(runs.latest().testId()).isEqualTo("t3");
+		assertThat(runs.runs()).extracting(TestResultScanner.Run::testId).containsExactly("t3", "t2");
+		assertThat(runs.scanned()).isEqualTo(4);
+	}
+
+	@Test
+	void onlyTestsThatAreNotTerminatedLeaveNoLatestTest() throws IOException {
+		JSONArray testResults = new JSONArray().put(testResult("running", "#1", SCENARIO, "RUNNING", START_DATE));
+
+		TestResultScanner.TestResultLookup lookup = TestResultScanner.scan(json(testResults), "#1", SCENARIO);
+
+		assertThat(lookup.latestTestId()).isNull();
+		assertThat(lookup.baselineFound()).isFalse();
+		assertThat(TestResultScanner.scanRuns(json(testResults), SCENARIO, 5).latest()).isNull();
+	}
+
+	@Test
+	void scanRunsStopsAtTheFirstTestBeforeTheRange() throws IOException {
+		TestResultScanner.ScenarioRuns runs = TestResultScanner.scanRuns(json(testResults(10)), SCENARIO, 100,
+				START_DATE + 5 * 60_000L, START_DATE + 8 * 60_000L);
+
+		assertThat(runs.runs()).extracting(TestResultScanner.Run::testId).containsExactly("t8", "t7", "t6", "t5");
+		assertThat(runs.latest().testId()).isEqualTo("t10");
+		assertThat(runs.before()).isTrue();
+		assertThat(runs.scanned()).isEqualTo(7);
+	}
+
+	@Test
+	void emptyListHasNoLatestTest() throws IOException {
+		TestResultScanner.TestResultLookup lookup = TestResultScanner.scan(json(new JSONArray()), "#1", SCENARIO);
+
+		assertThat(lookup.latestTestId()).isNull();
+		assertThat(lookup.scanned()).isZero();
+	}
+
+	@Test
+	void errorBodyIsRejected() {
+		assertThatThrownBy(() -> TestResultScanner.scan(new ByteArrayInputStream("{\"message\":\"Invalid token\"}".getBytes(StandardCharsets.UTF_8)), "#1", SCENARIO))
+				.isInstanceOf(IOException.class)
+				.hasMessageContaining("expected a JSON array");
+	}
+}
@@ -0,0 +1,126 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestSnapshotStoreTest {
+
+	@TempDir
+	Path dataDir;
+
+	private static Map<String, String> elements(int transactions) {
+		Map<String, String> elements = new HashMap<>();
+		for (int n = 0; n < transactions; n++) {
+			elements.put("Transaction " + n, "element-" + n);
+		}
+		return elements;
+	}
+
+	private static Map<String, TransactionValues> values(Map<String, String> elements) {
+		Map<String, TransactionValues> values = new HashMap<>();
+		int n = 0;
+		for (String transaction : elements.keySet()) {
+			values.put(transaction, ComparisonEngineTest.values(100 + n++));
+		}
+		return values;
+	}
+
+	@Test
+	void encodeDecodeRoundTrip() throws IOException {
+		Map<String, String> elements = Map.of("Login", "e1", "Sök på ärende", "e2", "Logout", "e3");
+		Map<String, TransactionValues> values = Map.of(
+				"Login", ComparisonEngineTest.values(123.456, 42),
+				"Sök på ärende", new TransactionValues(1, Double.NaN, 3, 4, 5, 6, 7, 8),
+				"Logout", ComparisonEngineTest.values(0.5));
+
+		TestSnapshotStore.TestSnapshot snapshot = TestSnapshotStore.decode(TestSnapshotStore.encode(elements, values));
+
+		assertThat(snapshot.elements()).isEqualTo(elements);
+		assertThat(snapshot.values()).isEqualTo(values);
+	}
+
+	@Test
+	void decodeRejectsOtherAndTruncatedFiles() {
+		ByteBuffer encoded = TestSnapshotStore.encode(elements(3), values(elements(3)));
+
+		assertThatThrownBy(() -> TestSnapshotStore.decode(encoded.slice(0, encoded.limit() - 8))).isInstanceOf(IOException.class);
+		ByteBuffer other = ByteBuffer.allocate(encoded.limit()).put(encoded.duplicate()).flip();
+		other.putInt(0, 0);
+		assertThatThrownBy(() -> TestSnapshotStore.decode(other)).isInstanceOf(IOException.class);
+	}
+
+	@Test
+	void writtenTestIsReadAfterARestart() {
+		Map<String, String> elements = elements(10);
+		new TestSnapshotStore(dataDir.toString(), true, 16).write("ws", "t1", elements, values(elements));
+
+		TestSnapshotStore store = new TestSnapshotStore(dataDir.toString(), true, 16);
+
+		assertThat(store.contains("ws", "t1")).isTrue();
+		assertThat(store.read("ws", "t1").values()).isEqualTo(values(elements));
+		assertThat(store.read("ws", "t2")).isNull();
+	}
+
+	@Test
+	void incompleteTestIsNotWritten() {
+		Map<String, String> elements = elements(10);
+		Map<String, TransactionValues> values = values(elements);
+		values.remove("Transaction 3");
+		TestSnapshotStore store = new TestSnapshotStore(dataDir.toString(), true, 16);
+
+		store.write("ws", "t1", elements, values);
+
+		assertThat(store.contains("ws", "t1")).isFalse();
+	}
+
+	@Test
+	void leastRecentlyReadSnapshotIsEvictedFirst() throws InterruptedException {
+		// About 290 KB per test, three fit in 1 MB
+		Map<String, String> elements = elements(3000);
+		Map<String, TransactionValues> values = values(elements);
+		TestSnapshotStore store = new TestSnapshotStore(dataDir.toString(), true, 1);
+		for (String testId : new String[]{"t1", "t2", "t3"}) {
+			store.write("ws", testId, elements, values);
+			Thread.sleep(5);
+		}
+		store.read("ws", "t1");
+		Thread.sleep(5);
+
+		store.write("ws", "t4", elements, values);
+
+		assertThat(store.contains("ws", "t2")).isFalse();
+		assertThat(store.contains("ws", "t1")).isTrue();
+		assertThat(store.contains("ws", "t3")).isTrue();
+		assertThat(store.contains("ws", "t4")).isTrue();
+		assertThat(store.getStats().getLong("evictions")).isEqualTo(1);
+		assertThat(Files.exists(dataDir.resolve("snapshots/ws/t2.snapshot"))).isFalse();
+	}
+
+	@Test
+	void failedWriteLeavesNoTempFile() throws IOException {
+		TestSnapshotStore store = new TestSnapshotStore(dataDir.toString(), true, 16);
+		// A non-empty directory where the snapshot goes makes the final move fail
+		Path workspaceDirectory = dataDir.resolve("snapshots/ws");
+		Files.createDirectories(workspaceDirectory.resolve("t1.snapshot"));
+		Files.writeString(workspaceDirectory.resolve("t1.snapshot/blocker"), "");
+		Map<String, String> elements = elements(10);
+
+		store.write("ws", "t1", elements, values(elements));
+
+		assertThat(store.contains("ws", "t1")).isFalse();
+		try (Stream<Path> files = Files.list(workspaceDirectory)) {
+			assertThat(files.map(file -> file.getFileName().toString())).containsExactly("t1.snapshot");
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class TimeSeriesSummaryTest {
+
+	// Warm-up 10%, cool-down 5%, windows of at least 60 s, at most 360 windows, 30 requests per window
+	static final TimeSeriesSettings SETTINGS = new TimeSeriesSettings(10, 5, 60, 360, 30, 0.01, 1024);
+
+	private static TimeSeriesSummary summary(long durationMs) {
+		return new TimeSeriesSummary(TimeSeriesSummary.Layout.of(durationMs, SETTINGS), SETTINGS);
+	}
+
+	@Test
+	void layoutLeavesOutWarmUpAndCoolDown() {
+		TimeSeriesSummary.Layout layout = TimeSeriesSummary.Layout.of(600_000, SETTINGS);
+
+		assertThat(layout.steadyFromMs()).isEqualTo(60_000);
+		assertThat(layout.steadyToMs()).isEqualTo(570_000);
+		assertThat(layout.windowMs()).isEqualTo(60_000);
+		assertThat(layout.windows()).isEqualTo(9);
+	}
+
+	@Test
+	void windowsOfALongTestGetLonger() {
+		// 10 hours, the steady state of 8.5 hours would need 510 windows of 60 s
+		TimeSeriesSummary.Layout layout = TimeSeriesSummary.Layout.of(36_000_000, SETTINGS);
+
+		assertThat(layout.windowMs()).isEqualTo(85_000);
+		assertThat(layout.windows()).isEqualTo(360);
+	}
+
+	@Test
+	void pointsOutsideTheSteadyStateAreIgnored() {
+		TimeSeriesSummary summary = summary(600_000);
+		summary.add(0, 10_000, 5000, 100);
+		summary.add(100_000, 110_000, 100, 100);
+		summary.add(590_000, 600_000, 5000, 100);
+		// The middle of a point decides, this one is mostly in the warm-up
+		summary.add(50_000, 65_000, 5000, 100);
+
+		assertThat(summary.steadyState("avgDuration")).isEqualTo(100);
+		assertThat(summary.steadyStateCount()).isEqualTo(100);
+	}
+
+	@Test
+	void pointsWithoutRequestsOrDurationAreIgnored() {
+		TimeSeriesSummary summary = summary(600_000);
+		assertThat(summary.steadyState("avgDuration")).isNaN();
+
+		summary.add(100_000, 110_000, 5000, 0);
+		summary.add(110_000, 120_000, Double.NaN, 100);
+		summary.add(120_000, 130_000, 100, 10);
+
+		assertThat(summary.steadyState("avgDuration")).isEqualTo(100);
+		assertThat(summary.steadyStateCount()).isEqualTo(10);
+	}
+
+	@Test
+	void windowMeanAndDeviationAreWeightedByCount() {
+		TimeSeriesSummary summary = summary(600_000);
+		summary.add(70_000, 80_000, 100, 10);
+		summary.add(80_000, 90_000, 200, 30);
+
+		TimeSeriesSummary.Window window = summary.worstWindow(30);
+
+		assertThat(window.fromMs()).isEqualTo(60_000);
+		assertThat(window.toMs()).isEqualTo(120_000);
+		assertThat(window.mean()).isCloseTo(175, within(1e-9));
+		assertThat(window.standardDeviation()).isCloseTo(Math.sqrt(1875), within(1e-9));
+		assertThat(window.count()).isEqualTo(40);
+		assertThat(summary.steadyState("avgDuration")).isCloseTo(175, within(1e-9));
+	}
+
+	@Test
+	void worstWindowSkipsWindowsWithTooFewRequests() {
+		TimeSeriesSummary summary = summary(600_000);
+		summary.add(70_000, 80_000, 100, 50);
+		summary.add(130_000, 140_000, 150, 50);
+		summary.add(550_000, 560_000, 9000, 5);
+
+		assertThat(summary.worstWindow(30).mean()).isEqualTo(150);
+		assertThat(summary.worstWindow(30).fromMs()).isEqualTo(120_000);
+		// The last window ends with the steady state
+		assertThat(summary.worstWindow(1).toMs()).isEqualTo(570_000);
+		assertThat(summary.worstWindow(100)).isNull();
+	}
+
+	@Test
+	void percentilesAreWeightedByCount() {
+		TimeSeriesSummary summary = summary(600_000);
+		summary.add(100_000, 110_000, 100, 90);
+		summary.add(110_000, 120_000, 1000, 10);
+
+		assertThat(summary.steadyState("percentile50")).isCloseTo(100, within(100 * 0.01));
+		assertThat(summary.steadyState("percentile95")).isCloseTo(1000, within(1000 * 0.01));
+		assertThatThrownBy(() -> summary.steadyState("count")).isInstanceOf(IllegalArgumentException.class);
+	}
+}
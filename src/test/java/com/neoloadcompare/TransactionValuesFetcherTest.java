@@ -0,0 +1,82 @@
+package com.neoloadcompare;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionValuesFetcherTest {
+
+	private static final String SEARCH_VALUES = "/v3/workspaces/ws/test-results/t1/elements/e2/values";
+
+	@TempDir
+	Path dataDir;
+
+	private MockNeoLoadWeb neoLoadWeb;
+	private NeoLoadHttpClient httpClient;
+	private TestSnapshotStore testSnapshotStore;
+	private NeoLoadCache cache;
+	private TransactionValuesFetcher fetcher;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		neoLoadWeb = new MockNeoLoadWeb();
+		MockNeoLoadWeb.Clients clients = neoLoadWeb.clients(dataDir).snapshots(true);
+		httpClient = clients.httpClient();
+		testSnapshotStore = clients.snapshotStore();
+		cache = clients.cache();
+		fetcher = new TransactionValuesFetcher(clients.client(httpClient, cache, testSnapshotStore), testSnapshotStore, 4, 30);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		fetcher.destroy();
+		httpClient.destroy();
+		neoLoadWeb.close();
+	}
+
+	@Test
+	void completeTestIsCachedAndStored() throws Exception {
+		Map<String, TransactionValuesFetcher.FetchResult<TransactionValues>> results = fetcher.fetchValues("ws", Map.of("t1", Map.of("Login", "e1", "Search", "e2")));
+
+		assertThat(results.get("t1").errors()).isEmpty();
+		assertThat(results.get("t1").values().get("Search").avgDuration()).isEqualTo(100);
+		assertThat(cache.values().estimatedSize()).isEqualTo(2);
+		assertThat(testSnapshotStore.contains("ws", "t1")).isTrue();
+	}
+
+	@Test
+	void errorBodyIsNeitherCachedNorStored() throws Exception {
+		for (int status : new int[]{404, 400, 200}) {
+			neoLoadWeb.respond(SEARCH_VALUES, status, "{\"message\":\"Element not found\"}");
+
+			Map<String, TransactionValuesFetcher.FetchResult<TransactionValues>> results = fetcher.fetchValues("ws", Map.of("t1", Map.of("Login", "e1", "Search", "e2")));
+
+			assertThat(results.get("t1").errors()).as("HTTP %d", status).containsOnlyKeys("Search");
+			assertThat(results.get("t1").errors().get("Search")).contains("Element not found");
+			assertThat(cache.values().getIfPresent(new NeoLoadCache.ValuesKey("ws", "t1", "e2"))).isNull();
+			assertThat(testSnapshotStore.contains("ws", "t1")).isFalse();
+		}
+
+		neoLoadWeb.respond(SEARCH_VALUES, 200, MockNeoLoadWeb.values(250));
+		Map<String, TransactionValuesFetcher.FetchResult<TransactionValues>> results = fetcher.fetchValues("ws", Map.of("t1", Map.of("Login", "e1", "Search", "e2")));
+
+		assertThat(results.get("t1").values().get("Search").avgDuration()).isEqualTo(250);
+		assertThat(testSnapshotStore.contains("ws", "t1")).isTrue();
+	}
+
+	@Test
+	void bodyWithoutValuesIsAnError() throws Exception {
+		neoLoadWeb.respond(SEARCH_VALUES, 200, "{}");
+
+		Map<String, TransactionValuesFetcher.FetchResult<TransactionValues>> results = fetcher.fetchValues("ws", Map.of("t1", Map.of("Search", "e2")));
+
+		assertThat(results.get("t1").errors()).containsOnlyKeys("Search");
+		assertThat(testSnapshotStore.contains("ws", "t1")).isFalse();
+	}
+}
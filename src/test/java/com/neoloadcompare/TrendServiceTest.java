@@ -0,0 +1,168 @@
+package com.neoloadcompare;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TrendServiceTest {
+
+	private static final String WORKSPACE_ID = "ws";
+	private static final String SCENARIO = "Scenario1";
+
+	@TempDir
+	Path dataDir;
+
+	private MockNeoLoadWeb neoLoadWeb;
+	private NeoLoadHttpClient httpClient;
+	private TransactionValuesFetcher fetcher;
+	private TrendService trendService;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		neoLoadWeb = new MockNeoLoadWeb();
+		// Newest first: t3, t2, t1, and a test of another scenario in between
+		neoLoadWeb.addOldest("t3", "#3", SCENARIO);
+		neoLoadWeb.addOldest("other", "#1", "Scenario2");
+		neoLoadWeb.addOldest("t2", "#2", SCENARIO);
+		neoLoadWeb.addOldest("t1", "#1", SCENARIO);
+		MockNeoLoadWeb.Clients clients = neoLoadWeb.clients(dataDir);
+		httpClient = clients.httpClient();
+		NeoLoadClient client = clients.client(httpClient);
+		fetcher = new TransactionValuesFetcher(client, clients.snapshotStore(), 4, 30);
+		trendService = new TrendService(client, fetcher, 2, 500);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		fetcher.destroy();
+		httpClient.destroy();
+		neoLoadWeb.close();
+	}
+
+	private static String values(String testId, String elementId) {
+		return "/v3/workspaces/ws/test-results/" + testId + "/elements/" + elementId + "/values";
+	}
+
+	private List<JSONObject> trend(int tests) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		trendService.stream(WORKSPACE_ID, SCENARIO, "avgDuration", trendService.findTests(WORKSPACE_ID, SCENARIO, tests, Long.MIN_VALUE, Long.MAX_VALUE), outputStream);
+		String ndjson = outputStream.toString(StandardCharsets.UTF_8);
+		assertThat(ndjson).endsWith("\n");
+		return Arrays.stream(ndjson.split("\n")).map(JSONObject::new).toList();
+	}
+
+	private static List<String> testIds(JSONArray tests) {
+		return tests.toList().stream().map(test -> (String) ((Map<?, ?>) test).get("testId")).toList();
+	}
+
+	@Test
+	void testsLineComesFirstAndSeriesLast() throws Exception {
+		neoLoadWeb.respond(values("t1", "e1"), 200, MockNeoLoadWeb.values(110));
+		neoLoadWeb.respond(values("t3", "e1"), 200, MockNeoLoadWeb.values(130));
+
+		List<JSONObject> lines = trend(20);
+
+		assertThat(lines).hasSize(5);
+		JSONObject header = lines.getFirst();
+		assertThat(header.getString("type")).isEqualTo("tests");
+		assertThat(header.getString("element")).isEqualTo("avgDuration");
+		assertThat(testIds(header.getJSONArray("tests"))).containsExactly("t3", "t2", "t1");
+		// Test lines come in completion order
+		assertThat(lines.subList(1, 4)).allSatisfy(line -> assertThat(line.getString("type")).isEqualTo("test"));
+		assertThat(lines.subList(1, 4).stream().map(line -> line.getString("testId"))).containsExactlyInAnyOrder("t3", "t2", "t1");
+		JSONObject t3 = lines.subList(1, 4).stream().filter(line -> line.getString("testId").equals("t3")).findFirst().orElseThrow();
+		assertThat(t3.getJSONObject("values").getDouble("Login")).isEqualTo(130);
+		assertThat(t3.has("errors")).isFalse();
+
+		JSONObject series = lines.getLast();
+		assertThat(series.getString("type")).isEqualTo("series");
+		// In the order of the tests line
+		assertThat(series.getJSONObject("transactions").getJSONArray("Login").toList()).containsExactly(130, 100, 110);
+		assertThat(series.getJSONObject("transactions").getJSONArray("Search").toList()).containsExactly(100, 100, 100);
+	}
+
+	@Test
+	void testWithoutAValueIsNullInTheSeries() throws Exception {
+		neoLoadWeb.respond(values("t2", "e2"), 404, "{\"message\":\"Element values not available\"}");
+
+		List<JSONObject> lines = trend(20);
+
+		JSONObject t2 = lines.subList(1, 4).stream().filter(line -> line.getString("testId").equals("t2")).findFirst().orElseThrow();
+		assertThat(t2.getJSONObject("values").has("Search")).isFalse();
+		assertThat(t2.getJSONObject("errors").getString("Search")).contains("Element values not available");
+		JSONArray search = lines.getLast().getJSONObject("transactions").getJSONArray("Search");
+		assertThat(search.length()).isEqualTo(3);
+		assertThat(search.isNull(1)).isTrue();
+		assertThat(search.getDouble(0)).isEqualTo(100);
+		assertThat(search.getDouble(2)).isEqualTo(100);
+	}
+
+	@Test
+	void testsAreCappedAtTheRequestedNumber() throws Exception {
+		List<JSONObject> lines = trend(2);
+
+		assertThat(testIds(lines.getFirst().getJSONArray("tests"))).containsExactly("t3", "t2");
+		assertThat(lines).hasSize(4);
+		assertThat(lines.getLast().getJSONObject("transactions").getJSONArray("Login").length()).isEqualTo(2);
+		assertThat(neoLoadWeb.requests()).noneMatch(request -> request.startsWith("/v3/workspaces/ws/test-results/t1/"));
+	}
+
+	@Test
+	void testThatFailedToLoadDoesNotEndTheStream() throws Exception {
+		neoLoadWeb.respond("/v3/workspaces/ws/test-results/t2/elements", 500, "{\"message\":\"Internal Server Error\"}");
+
+		List<JSONObject> lines = trend(20);
+
+		assertThat(lines).hasSize(5);
+		JSONObject t2 = lines.subList(1, 4).stream().filter(line -> line.getString("testId").equals("t2")).findFirst().orElseThrow();
+		assertThat(t2.getJSONObject("values").isEmpty()).isTrue();
+		assertThat(t2.getJSONObject("errors").has("elements")).isTrue();
+		JSONArray login = lines.getLast().getJSONObject("transactions").getJSONArray("Login");
+		assertThat(login.isNull(1)).isTrue();
+		assertThat(login.getDouble(0)).isEqualTo(100);
+		assertThat(login.getDouble(2)).isEqualTo(100);
+	}
+
+	@Test
+	void clientThatWentAwayEndsTheStream() {
+		List<String> written = new ArrayList<>();
+		OutputStream outputStream = new OutputStream() {
+			@Override
+			public void write(int b) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (written.size() == 2) {
+					throw new IOException("Broken pipe");
+				}
+				written.add(new String(b, off, len, StandardCharsets.UTF_8));
+			}
+		};
+
+		assertThatThrownBy(() -> trendService.stream(WORKSPACE_ID, SCENARIO, "avgDuration",
+				trendService.findTests(WORKSPACE_ID, SCENARIO, 20, Long.MIN_VALUE, Long.MAX_VALUE), outputStream))
+				.isInstanceOf(IOException.class)
+				.hasMessage("Broken pipe");
+		assertThat(written).hasSize(2);
+		assertThat(new JSONObject(written.getFirst()).getString("type")).isEqualTo("tests");
+		assertThat(new JSONObject(written.getLast()).getString("type")).isEqualTo("test");
+	}
+}
@@ -0,0 +1,165 @@
+package com.neoloadcompare;
+
+import io.micrometer.core.instrument.Counter;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteBackOutboxTest {
+
+	private static final String WORKSPACE = "ws";
+
+	@TempDir
+	Path dataDir;
+
+	private MockNeoLoadWeb neoLoadWeb;
+	private MockNeoLoadWeb.Clients clients;
+	private NeoLoadHttpClient httpClient;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		neoLoadWeb = new MockNeoLoadWeb();
+		// The circuit stays closed, the tests answer PATCHes with errors on purpose
+		clients = neoLoadWeb.clients(dataDir).circuit(100, 30);
+		httpClient = clients.httpClient();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		httpClient.destroy();
+		neoLoadWeb.close();
+	}
+
+	private WriteBackOutbox outbox(long delayMs, int maxAttempts) {
+		return new WriteBackOutbox(clients.client(httpClient), clients.meterRegistry(), delayMs, maxAttempts, 10, 60, 100);
+	}
+
+	private static WriteBackOutbox.Verdict verdict(boolean failed, String baseline) {
+		JSONObject body = new JSONObject();
+		body.put("baseline", baseline);
+		body.put("status", failed ? "FAILED" : "PASSED");
+		return new WriteBackOutbox.Verdict(failed, body);
+	}
+
+	private double patches(String result) {
+		Counter counter = clients.meterRegistry().find("neoload.writeback.patches").tag("result", result).counter();
+		return counter == null ? 0 : counter.count();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + 5_000_000_000L;
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	void verdictsOfATestAreMergedIntoOnePatch() throws Exception {
+		WriteBackOutbox outbox = outbox(200, 3);
+		outbox.submit(WORKSPACE, "t1", "run1", "avgDuration/run0", verdict(false, "first"));
+		outbox.submit(WORKSPACE, "t1", "run1", "percentile90/run0", verdict(true, "run0"));
+		outbox.submit(WORKSPACE, "t1", "run1", "avgDuration/run0", verdict(false, "replaced"));
+
+		await(() -> patches("success") >= 1);
+
+		assertThat(neoLoadWeb.patches()).hasSize(1);
+		assertThat(neoLoadWeb.requests()).containsExactly("/v3/workspaces/ws/test-results/t1");
+		JSONObject patch = new JSONObject(neoLoadWeb.patches().getFirst());
+		assertThat(patch.getString("name")).isEqualTo("run1");
+		assertThat(patch.getString("qualityStatus")).isEqualTo("FAILED");
+		assertThat(patch.getString("description"))
+				.startsWith("NeoLoadCompare:\n")
+				.contains("baseline:replaced", "baseline:run0", "status:FAILED")
+				.doesNotContain("baseline:first");
+		assertThat(outbox.pending()).isZero();
+		outbox.destroy();
+	}
+
+	@Test
+	void everyPatchCarriesAllVerdictsOfTheTest() throws Exception {
+		WriteBackOutbox outbox = outbox(200, 3);
+		outbox.submit(WORKSPACE, "t1", "run1", "avgDuration/run0", verdict(true, "run0"));
+		await(() -> patches("success") >= 1);
+		outbox.submit(WORKSPACE, "t1", "run1", "avgDuration/run0", verdict(false, "run0"));
+		outbox.submit(WORKSPACE, "t1", "run1", "avgDuration/rolling", verdict(false, "rolling"));
+		await(() -> patches("success") >= 2);
+
+		assertThat(neoLoadWeb.patches()).hasSize(2);
+		JSONObject patch = new JSONObject(neoLoadWeb.patches().getLast());
+		assertThat(patch.getString("qualityStatus")).isEqualTo("PASSED");
+		assertThat(patch.getString("description")).contains("baseline:run0", "baseline:rolling");
+		outbox.destroy();
+	}
+
+	@Test
+	void serverErrorsAndTooManyRequestsAreRetried() throws Exception {
+		WriteBackOutbox outbox = outbox(0, 5);
+		neoLoadWeb.respondToPatch(new MockNeoLoadWeb.Response(503, "{\"message\":\"Service Unavailable\"}"),
+				new MockNeoLoadWeb.Response(429, "{\"message\":\"Too Many Requests\"}"),
+				new MockNeoLoadWeb.Response(200, "{}"));
+		outbox.submit(WORKSPACE, "t1", "run1", "avgDuration/run0", verdict(false, "run0"));
+
+		await(() -> patches("success") >= 1);
+
+		assertThat(patches("retry")).isEqualTo(2);
+		assertThat(patches("success")).isEqualTo(1);
+		assertThat(patches("dropped")).isZero();
+		assertThat(neoLoadWeb.patches()).hasSize(3);
+		assertThat(outbox.pending()).isZero();
+		outbox.destroy();
+	}
+
+	@Test
+	void patchRejectedByNeoLoadWebIsDroppedWithoutRetry() throws Exception {
+		WriteBackOutbox outbox = outbox(0, 5);
+		neoLoadWeb.respondToPatch(404, "{\"message\":\"Test result not found\"}");
+		outbox.submit(WORKSPACE, "gone", "run1", "avgDuration/run0", verdict(false, "run0"));
+
+		await(() -> patches("dropped") >= 1);
+		Thread.sleep(100);
+
+		assertThat(patches("dropped")).isEqualTo(1);
+		assertThat(neoLoadWeb.patches()).hasSize(1);
+		assertThat(patches("retry")).isZero();
+		assertThat(patches("success")).isZero();
+		assertThat(outbox.pending()).isZero();
+		outbox.destroy();
+	}
+
+	@Test
+	void retriesEndAfterMaxAttempts() throws Exception {
+		WriteBackOutbox outbox = outbox(0, 3);
+		neoLoadWeb.respondToPatch(500, "{\"message\":\"Internal Server Error\"}");
+		outbox.submit(WORKSPACE, "t1", "run1", "avgDuration/run0", verdict(false, "run0"));
+
+		await(() -> patches("dropped") >= 1);
+
+		assertThat(patches("dropped")).isEqualTo(1);
+		assertThat(patches("retry")).isEqualTo(2);
+		assertThat(neoLoadWeb.patches()).hasSize(3);
+		assertThat(outbox.pending()).isZero();
+		outbox.destroy();
+	}
+
+	@Test
+	void destroyWritesBackWhatIsPending() throws Exception {
+		WriteBackOutbox outbox = outbox(60_000, 3);
+		outbox.submit(WORKSPACE, "t1", "run1", "avgDuration/run0", verdict(true, "run0"));
+		outbox.submit(WORKSPACE, "t2", "run2", "avgDuration/run0", verdict(false, "run0"));
+		assertThat(outbox.pending()).isEqualTo(2);
+
+		outbox.destroy();
+
+		assertThat(neoLoadWeb.patches()).hasSize(2);
+		assertThat(patches("success")).isEqualTo(2);
+		assertThat(outbox.pending()).isZero();
+	}
+}